@@ -1,5 +1,6 @@
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeoutException;
 
 import org.ggp.base.apps.player.detail.DetailPanel;
 import org.ggp.base.apps.player.detail.SimpleDetailPanel;
@@ -7,16 +8,42 @@ import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
 import org.ggp.base.player.gamer.exception.GamePreviewException;
 import org.ggp.base.player.gamer.statemachine.StateMachineGamer;
 import org.ggp.base.util.game.Game;
+import org.ggp.base.util.propnet.factory.PropNetCache;
+import org.ggp.base.util.statemachine.FailsafeStateMachine;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.StateMachine;
-import org.ggp.base.util.statemachine.cache.CachedStateMachine;
+import org.ggp.base.util.statemachine.cache.ClockCache;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
-import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
-
+import org.ggp.base.util.statemachine.implementation.propnet.DifferentialPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.PropNetMachineState;
+
+/**
+ * Single-player solver: plays the move that leads to the best reachable
+ * goal. In a game with other players it assumes they help, so it won't get
+ * stuck, but it won't play well either. The values of the states solved are
+ * remembered for the rest of the match, so a state reached by different move
+ * orders is only solved once. The table is bounded, and evicts the states
+ * least recently used, so a game too big to solve can't run the player out
+ * of memory. The metagame is spent solving from the initial state, so a
+ * small puzzle is solved before the first move and then played back from
+ * the table.
+ *
+ * Solving stops at the deadline of each request; the best move solved so
+ * far is played, and what was solved is kept for the next turn.
+ */
 public class CompulsiveDeliberation extends StateMachineGamer {
+	public static final int BUFFER_SECONDS = 2;
+	private static final int MAX_SCORE = 100;
+
+	// The heap the solved table may take, by the estimate in solvedTableSize.
+	public static final long SOLVED_TABLE_BYTES = 256L << 20;
+
+	// Values of the states solved so far this match.
+	private ClockCache<MachineState, Integer> solved;
+	private long deadline;
 
 	@Override
 	public String getName() {
@@ -25,15 +52,24 @@ public class CompulsiveDeliberation extends StateMachineGamer {
 
 	@Override
 	public StateMachine getInitialStateMachine() {
-		// TODO Auto-generated method stub
-		return new CachedStateMachine(new ProverStateMachine());
+		// Propnet states are bit sets, which makes them compact keys for the
+		// solved table.
+		DifferentialPropNetStateMachine propNetMachine = new DifferentialPropNetStateMachine();
+		propNetMachine.setPropNetCache(new PropNetCache());
+		return new FailsafeStateMachine(propNetMachine);
 	}
 
 	@Override
 	public void stateMachineMetaGame(long timeout)
 			throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
-		// TODO Auto-generated method stub
-
+		solved = new ClockCache<MachineState, Integer>(solvedTableSize(getCurrentState()));
+		deadline = timeout - BUFFER_SECONDS * 1000;
+		try {
+			bestScore(getCurrentState());
+		} catch (TimeoutException e) {
+			// Carry on solving when asked for a move.
+		}
+		System.out.println("Solved " + solved.size() + " states");
 	}
 
 	@Override
@@ -41,6 +77,7 @@ public class CompulsiveDeliberation extends StateMachineGamer {
 			throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
 		long start = System.currentTimeMillis();
 
+		deadline = timeout - BUFFER_SECONDS * 1000;
 		List<Move> moves = getStateMachine().getLegalMoves(getCurrentState(), getRole());
 		Move selection = bestWin(getCurrentState());
 
@@ -50,6 +87,26 @@ public class CompulsiveDeliberation extends StateMachineGamer {
 		return selection;
 	}
 
+	// How many entries fit in SOLVED_TABLE_BYTES, going by the states of this
+	// game. An entry is a map node, a cache slot and the state; the values
+	// are small Integers, which are shared.
+	private static int solvedTableSize(MachineState state) {
+		long entryBytes;
+		if (state instanceof PropNetMachineState) {
+			// The state and its bit array.
+			entryBytes = 64 + 48 + 8 * ((PropNetMachineState) state).getBits().length;
+		} else {
+			// The state, its HashSet and a set entry and sentence per proposition.
+			entryBytes = 64 + 64 + 96 * state.getContents().size();
+		}
+		return (int) Math.max(1, SOLVED_TABLE_BYTES / entryBytes);
+	}
+
+	/**
+	 * Returns the move with the best solved value, or, if time runs out, the
+	 * best one solved so far. Moves whose outcome is already known are
+	 * looked at first, since they cost nothing.
+	 */
 	public Move bestWin(MachineState s) throws MoveDefinitionException, GoalDefinitionException, TransitionDefinitionException {
 		int scoreToBeat = -1;
 		Move bestMove = null;
@@ -57,32 +114,66 @@ public class CompulsiveDeliberation extends StateMachineGamer {
 		if (getStateMachine().isTerminal(s)) {
 			return null;
 		}
-		for (Move m: getStateMachine().getLegalMoves(s, getRole())) {
-			List<Move> moves = new LinkedList<Move>();
-			moves.add(m);
-			int score = bestScore(getStateMachine().getNextState(s, moves));
-			if (score > scoreToBeat) {
-				scoreToBeat = score;
-				bestMove = m;
+		List<Move> legalMoves = getStateMachine().getLegalMoves(s, getRole());
+		List<Move> unsolvedMoves = new ArrayList<Move>();
+		List<MachineState> unsolvedStates = new ArrayList<MachineState>();
+		for (Move m: legalMoves) {
+			for (List<Move> jointMove: getStateMachine().getLegalJointMoves(s, getRole(), m)) {
+				MachineState next = getStateMachine().getNextState(s, jointMove);
+				Integer score = solved.get(next);
+				if (score == null) {
+					unsolvedMoves.add(m);
+					unsolvedStates.add(next);
+				} else if (score > scoreToBeat) {
+					scoreToBeat = score;
+					bestMove = m;
+				}
+			}
+		}
+		try {
+			for (int i = 0; i < unsolvedMoves.size() && scoreToBeat < MAX_SCORE; i++) {
+				int score = bestScore(unsolvedStates.get(i));
+				if (score > scoreToBeat) {
+					scoreToBeat = score;
+					bestMove = unsolvedMoves.get(i);
+				}
 			}
+		} catch (TimeoutException e) {
+			System.out.println("Out of time; best solved so far is " + scoreToBeat);
 		}
-		return bestMove;
+		return (bestMove != null) ? bestMove : legalMoves.get(0);
 	}
 
-	public int bestScore(MachineState s) throws GoalDefinitionException, MoveDefinitionException, TransitionDefinitionException {
-		int scoreToBeat = -1;
+	/**
+	 * Solves the state: the best goal reachable from it.
+	 * @throws TimeoutException If the deadline passes first. Whatever was
+	 *         solved until then stays in the table.
+	 */
+	public int bestScore(MachineState s) throws GoalDefinitionException, MoveDefinitionException, TransitionDefinitionException, TimeoutException {
+		Integer known = solved.get(s);
+		if (known != null) {
+			return known;
+		}
+		if (System.currentTimeMillis() >= deadline) {
+			throw new TimeoutException();
+		}
 
+		int scoreToBeat = -1;
 		if (getStateMachine().isTerminal(s)) {
-			return getStateMachine().getGoal(s, getRole());
-		}
-		for (Move m: getStateMachine().getLegalMoves(s, getRole())) {
-			List<Move> moves = new LinkedList<Move>();
-			moves.add(m);
-			int score = bestScore(getStateMachine().getNextState(s, moves));
-			if (score > scoreToBeat) {
-				scoreToBeat = score;
+			scoreToBeat = getStateMachine().getGoal(s, getRole());
+		} else {
+			for (List<Move> jointMove: getStateMachine().getLegalJointMoves(s)) {
+				int score = bestScore(getStateMachine().getNextState(s, jointMove));
+				if (score > scoreToBeat) {
+					scoreToBeat = score;
+				}
+				if (scoreToBeat == MAX_SCORE) {
+					// Nothing can beat that.
+					break;
+				}
 			}
 		}
+		solved.put(s, scoreToBeat);
 		return scoreToBeat;
 	}
 
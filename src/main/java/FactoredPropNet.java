@@ -20,6 +20,9 @@ import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.gdl.grammar.GdlTerm;
 import org.ggp.base.util.logging.GamerLogger;
 import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.LatchAnalysis;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.PropNetOrdering;
 import org.ggp.base.util.propnet.architecture.components.And;
 import org.ggp.base.util.propnet.architecture.components.Not;
 import org.ggp.base.util.propnet.architecture.components.Or;
@@ -318,6 +321,30 @@ public final class FactoredPropNet
 		return terminalProposition;
 	}
 
+	/**
+	 * Orders the components that aren't base, input or INIT propositions so
+	 * that each comes after its inputs. Recompute it after removing or adding
+	 * components.
+	 *
+	 * @see PropNetOrdering
+	 */
+	public List<Component> getOrdering()
+	{
+		return PropNetOrdering.order(components, PropNetOrdering.getSources(basePropositions, inputPropositions, initProposition));
+	}
+
+	/**
+	 * Finds the base propositions that never change back once set, and the
+	 * goals and terminal states they force. Recompute it after removing or
+	 * adding components.
+	 *
+	 * @see LatchAnalysis
+	 */
+	public LatchAnalysis getLatchAnalysis() throws InterruptedException
+	{
+		return LatchAnalysis.analyze(new PropNet(roles, components));
+	}
+
 	/**
 	 * Returns a representation of the PropNet in .dot format.
 	 *
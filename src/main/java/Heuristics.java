@@ -66,6 +66,20 @@ public class Heuristics {
 	}
 
 
+	/**
+	 * Scores a state where a depth-limited search stops, halfway between its
+	 * goal value and a draw. Many games only give real goals at the end, and
+	 * this keeps an unknown position strictly between a proven loss and a
+	 * proven win.
+	 */
+	public static int cutoffScore(StateMachine stateMachine, MachineState state, Role role) {
+		try {
+			return (stateMachine.getGoal(state, role) + 50) / 2;
+		} catch (GoalDefinitionException e) {
+			return 50;
+		}
+	}
+
 	/**
 	 * Implement an opponent mobility heuristic or an opponent focus heuristic.
 	 * Try your player out on a standard game of your choosing.
@@ -0,0 +1,375 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeoutException;
+
+import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.factory.PropNetCache;
+import org.ggp.base.util.statemachine.FailsafeStateMachine;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.propnet.DifferentialPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.PropNetMachineState;
+
+/**
+ * Anytime alpha-beta: searches to depth 1, 2, 3, ... until the play clock
+ * runs out, and plays the best move of the deepest search that finished.
+ * An unfinished iteration is thrown away.
+ *
+ * Depth counts our moves, so each step down is a max level over our moves
+ * and a min level over everyone else's, as in AlphaBeta. Non-terminal states
+ * at the depth limit are scored by evaluate.
+ *
+ * The iterations reuse what the earlier ones found:
+ *  - A transposition table, keyed by a Zobrist hash of the true base
+ *    propositions (or of the base sentences, for the prover's states),
+ *    keeps the value, bound type and best move of each state searched.
+ *    The best move is tried first when the state comes up again.
+ *  - Killer moves (per depth) and a history table (per move) remember which
+ *    moves caused cutoffs, and those are tried next.
+ *
+ * The table lasts for the whole match, and the metagame is spent filling it
+ * from the initial state.
+ */
+public class IterativeDeepening extends HeuristicGamer {
+	public static final int BUFFER_SECONDS = 2;
+	private static final int TABLE_BITS = 20;
+	private static final int MAX_PLY = 256;
+	// The stored depth of a value that no depth limit cut short.
+	private static final int COMPLETE = Integer.MAX_VALUE;
+	private static final byte EXACT = 0, LOWER = 1, UPPER = 2;
+
+	// The transposition table, one slot per hash; a key of 0 is empty.
+	private final long[] keys = new long[1 << TABLE_BITS];
+	private final int[] depths = new int[1 << TABLE_BITS];
+	private final int[] values = new int[1 << TABLE_BITS];
+	private final byte[] flags = new byte[1 << TABLE_BITS];
+	private final Move[] bestMoves = new Move[1 << TABLE_BITS];
+	// One random key per base proposition, grown as needed.
+	private long[] zobrist = new long[0];
+	// One random key per base sentence, for states without base indices.
+	private final Map<GdlSentence, Long> sentenceZobrist = new HashMap<GdlSentence, Long>();
+	private final Random random = new Random(0x5EED);
+
+	private final Move[][] killers = new Move[MAX_PLY][2];
+	private final Map<Move, Integer> history = new HashMap<Move, Integer>();
+	private final Map<List<Move>, Integer> replyHistory = new HashMap<List<Move>, Integer>();
+
+	private long deadline;
+	private long nodes;
+	// Whether the depth limit was hit in the subtree being searched.
+	private boolean cutoff;
+
+	@Override
+	public StateMachine getInitialStateMachine() {
+		DifferentialPropNetStateMachine propNetMachine = new DifferentialPropNetStateMachine();
+		propNetMachine.setPropNetCache(new PropNetCache());
+		return new FailsafeStateMachine(propNetMachine);
+	}
+
+	@Override
+	public void stateMachineMetaGame(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+	{
+		clearTable();
+		iterativeDeepening(getCurrentState(), timeout);
+	}
+
+	@Override
+	public Move stateMachineSelectMove(long timeout)
+			throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+		long start = System.currentTimeMillis();
+		List<Move> moves = getStateMachine().getLegalMoves(getCurrentState(), getRole());
+		Move selection = (moves.size() == 1) ? moves.get(0) : iterativeDeepening(getCurrentState(), timeout).move.get();
+
+		long stop = System.currentTimeMillis();
+		notifyObservers(new GamerSelectedMoveEvent(moves, selection, stop - start));
+		return selection;
+	}
+
+	/**
+	 * Searches deeper and deeper until the deadline or until the whole game
+	 * tree has been searched.
+	 * @return The result of the deepest search that finished, or the first
+	 *         legal move if none did.
+	 */
+	private Score iterativeDeepening(MachineState state, long timeout)
+			throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		long start = System.currentTimeMillis();
+		deadline = timeout - BUFFER_SECONDS * 1000;
+		nodes = 0;
+		ageOrdering();
+
+		List<Move> moves = getStateMachine().getLegalMoves(state, getRole());
+		Score best = new Score(0, moves.get(0));
+		int completed = 0;
+		boolean solved = false;
+		for (int depth = 1; depth < MAX_PLY && !solved; depth++) {
+			cutoff = false;
+			try {
+				best = searchRoot(state, moves, depth);
+			} catch (TimeoutException e) {
+				break;
+			}
+			completed = depth;
+			solved = !cutoff;
+		}
+
+		long millis = Math.max(1, System.currentTimeMillis() - start);
+		System.out.println("Depth " + completed + (solved ? " (solved)" : "") + ", value " + best.value
+				+ ", " + nodes + " nodes, " + nodes * 1000 / millis + " nodes/s");
+		return best;
+	}
+
+	private Score searchRoot(MachineState state, List<Move> moves, int depth)
+			throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException, TimeoutException {
+		long key = hash(state);
+		int slot = slot(key);
+		Move hashMove = (keys[slot] == key) ? bestMoves[slot] : null;
+		int a = Integer.MIN_VALUE;
+		Move bestMove = null;
+		boolean rootCutoff = false;
+		for (Move move : orderMoves(moves, hashMove, 0)) {
+			cutoff = false;
+			int value = minR(state, move, depth, 0, a, Integer.MAX_VALUE);
+			rootCutoff |= cutoff;
+			if (bestMove == null || value > a) {
+				a = value;
+				bestMove = move;
+			}
+		}
+		cutoff = rootCutoff;
+		store(key, rootCutoff ? depth : COMPLETE, a, EXACT, bestMove);
+		return new Score(a, bestMove);
+	}
+
+	/**
+	 * For our |move| on |currentState|, calculate "worst-case" [min] scoring
+	 * of opposing players, given our optimal [max] behavior.
+	 */
+	private int minR(MachineState currentState, Move move, int depth, int ply, int a, int b)
+			throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException, TimeoutException {
+		StateMachine machine = getStateMachine();
+		int best = Integer.MAX_VALUE;
+		for (List<Move> jointMove : orderReplies(machine.getLegalJointMoves(currentState, getRole(), move))) {
+			MachineState nextState = machine.getNextState(currentState, jointMove);
+			best = Math.min(best, maxR(nextState, depth - 1, ply + 1, a, b));
+			b = Math.min(b, best);
+			if (b <= a) {
+				reward(replyHistory, jointMove, depth);
+				break;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * For |currentState|, calculate our best [max] value, given worst-case
+	 * behavior [min] of opposing players.
+	 */
+	private int maxR(MachineState currentState, int depth, int ply, int a, int b)
+			throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException, TimeoutException {
+		checkTime();
+		StateMachine machine = getStateMachine();
+		if (machine.isTerminal(currentState)) {
+			return machine.getGoal(currentState, getRole());
+		}
+		if (depth == 0) {
+			cutoff = true;
+			return evaluate(currentState);
+		}
+
+		long key = hash(currentState);
+		int slot = slot(key);
+		Move hashMove = null;
+		if (keys[slot] == key) {
+			hashMove = bestMoves[slot];
+			if (depths[slot] >= depth) {
+				int value = values[slot];
+				if (flags[slot] == EXACT
+						|| (flags[slot] == LOWER && value >= b)
+						|| (flags[slot] == UPPER && value <= a)) {
+					cutoff |= (depths[slot] != COMPLETE);
+					return value;
+				}
+			}
+		}
+
+		// Whether this subtree was cut short is tracked on its own, so that
+		// a complete result can be stored as such.
+		boolean outerCutoff = cutoff;
+		cutoff = false;
+		int originalA = a;
+		int best = Integer.MIN_VALUE;
+		Move bestMove = null;
+		for (Move move : orderMoves(machine.getLegalMoves(currentState, getRole()), hashMove, ply)) {
+			int value = minR(currentState, move, depth, ply, a, b);
+			if (value > best) {
+				best = value;
+				bestMove = move;
+			}
+			a = Math.max(a, best);
+			if (a >= b) {
+				recordKiller(move, ply);
+				reward(history, move, depth);
+				break;
+			}
+		}
+		byte flag = (best <= originalA) ? UPPER : (best >= b) ? LOWER : EXACT;
+		store(key, cutoff ? depth : COMPLETE, best, flag, bestMove);
+		cutoff |= outerCutoff;
+		return best;
+	}
+
+	private void checkTime() throws TimeoutException {
+		if ((++nodes & 0xFF) == 0 && System.currentTimeMillis() >= deadline) {
+			throw new TimeoutException();
+		}
+	}
+
+	// Tries the table's best move first, then this ply's killers, then the
+	// moves with the most history.
+	private List<Move> orderMoves(List<Move> moves, final Move hashMove, int ply) {
+		final Move[] killer = (ply < MAX_PLY) ? killers[ply] : new Move[2];
+		List<Move> ordered = new ArrayList<Move>(moves);
+		Collections.sort(ordered, new Comparator<Move>() {
+			@Override
+			public int compare(Move m1, Move m2) {
+				return Long.compare(priority(m2), priority(m1));
+			}
+
+			private long priority(Move m) {
+				if (m.equals(hashMove)) return Long.MAX_VALUE;
+				if (m.equals(killer[0])) return Long.MAX_VALUE - 1;
+				if (m.equals(killer[1])) return Long.MAX_VALUE - 2;
+				Integer score = history.get(m);
+				return (score == null) ? 0 : score;
+			}
+		});
+		return ordered;
+	}
+
+	private List<List<Move>> orderReplies(List<List<Move>> jointMoves) {
+		if (replyHistory.isEmpty()) return jointMoves;
+		List<List<Move>> ordered = new ArrayList<List<Move>>(jointMoves);
+		Collections.sort(ordered, new Comparator<List<Move>>() {
+			@Override
+			public int compare(List<Move> m1, List<Move> m2) {
+				return Integer.compare(score(m2), score(m1));
+			}
+
+			private int score(List<Move> m) {
+				Integer score = replyHistory.get(m);
+				return (score == null) ? 0 : score;
+			}
+		});
+		return ordered;
+	}
+
+	private void recordKiller(Move move, int ply) {
+		if (ply >= MAX_PLY || move.equals(killers[ply][0])) return;
+		killers[ply][1] = killers[ply][0];
+		killers[ply][0] = move;
+	}
+
+	// Cutoffs near the root prune more, so they count for more.
+	private static <T> void reward(Map<T, Integer> scores, T move, int depth) {
+		Integer score = scores.get(move);
+		scores.put(move, ((score == null) ? 0 : score) + depth * depth);
+	}
+
+	// Killers are for this search only; history carries over at half weight.
+	private void ageOrdering() {
+		for (Move[] killer : killers) {
+			killer[0] = killer[1] = null;
+		}
+		for (Map.Entry<Move, Integer> entry : history.entrySet()) {
+			entry.setValue(entry.getValue() / 2);
+		}
+		for (Map.Entry<List<Move>, Integer> entry : replyHistory.entrySet()) {
+			entry.setValue(entry.getValue() / 2);
+		}
+	}
+
+	private long hash(MachineState state) {
+		long key;
+		if (state instanceof PropNetMachineState) {
+			long[] bits = ((PropNetMachineState) state).getBits();
+			if (zobrist.length < bits.length * 64) {
+				growZobrist(bits.length * 64);
+			}
+			key = 0;
+			for (int i = 0; i < bits.length; i++) {
+				for (long word = bits[i]; word != 0; word &= word - 1) {
+					key ^= zobrist[i * 64 + Long.numberOfTrailingZeros(word)];
+				}
+			}
+		} else {
+			// The prover's states have no base indices, so their sentences
+			// get keys of their own.
+			key = 0;
+			for (GdlSentence sentence : state.getContents()) {
+				Long sentenceKey = sentenceZobrist.get(sentence);
+				if (sentenceKey == null) {
+					sentenceKey = random.nextLong();
+					sentenceZobrist.put(sentence, sentenceKey);
+				}
+				key ^= sentenceKey;
+			}
+		}
+		return (key == 0) ? 1 : key;
+	}
+
+	private void growZobrist(int size) {
+		int old = zobrist.length;
+		long[] grown = new long[size];
+		System.arraycopy(zobrist, 0, grown, 0, old);
+		for (int i = old; i < size; i++) {
+			grown[i] = random.nextLong();
+		}
+		zobrist = grown;
+	}
+
+	private static int slot(long key) {
+		return (int) (key ^ (key >>> 32)) & ((1 << TABLE_BITS) - 1);
+	}
+
+	// Keeps the deeper of two results for the same state; a different state
+	// always takes the slot.
+	private void store(long key, int depth, int value, byte flag, Move bestMove) {
+		int slot = slot(key);
+		if (keys[slot] == key && depths[slot] > depth) return;
+		keys[slot] = key;
+		depths[slot] = depth;
+		values[slot] = value;
+		flags[slot] = flag;
+		bestMoves[slot] = bestMove;
+	}
+
+	private void clearTable() {
+		Arrays.fill(keys, 0);
+		Arrays.fill(bestMoves, null);
+		// No key in the table uses them any more.
+		sentenceZobrist.clear();
+		history.clear();
+		replyHistory.clear();
+	}
+
+	private int evaluate(MachineState state) {
+		return Heuristics.cutoffScore(getStateMachine(), state, getRole());
+	}
+
+	@Override
+	protected int evaluate() {
+		return evaluate(getCurrentState());
+	}
+}
@@ -0,0 +1,191 @@
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.LocalGameRepository;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.propnet.ConcurrentPropNetStateMachine;
+
+/**
+ * Leaf-parallel Monte Carlo tree search: the tree is searched by a single
+ * thread, but the depth charges from each selected node are run as a batch
+ * on a fixed pool of workers, and come back as a single backpropagation of
+ * their average.
+ *
+ * Each worker has its own state machine (see
+ * ConcurrentPropNetStateMachine.workerFor), so the machine passed in must
+ * either be a propnet machine, possibly inside a FailsafeStateMachine, or
+ * otherwise thread-safe.
+ *
+ * The batch size adapts to how long a depth charge takes. Handing work to
+ * the pool has a fixed cost, so when charges are cheap each worker is given
+ * enough of them to make that cost worthwhile; when they're expensive the
+ * batch shrinks to one charge per worker, so that the tree still grows.
+ */
+public class LeafParallelMonteCarloTreeSearch extends MonteCarloTreeSearch {
+	// How long each worker's share of a batch should take, in nanoseconds.
+	private static final long TARGET_TASK_NANOS = 200000;
+	private static final int MAX_CHARGES_PER_WORKER = 64;
+
+	private final int numWorkers;
+	private final ExecutorService pool;
+	private final ThreadLocal<StateMachine> workerMachine = new ThreadLocal<StateMachine>() {
+		@Override
+		protected StateMachine initialValue() {
+			return ConcurrentPropNetStateMachine.workerFor(stateMachine);
+		}
+	};
+	// Moving average of the time one depth charge takes, in nanoseconds.
+	private double chargeNanos = 0;
+	private int chargesPerWorker = 1;
+
+	public LeafParallelMonteCarloTreeSearch(StateMachine machine, Role role) {
+		this(machine, role, Runtime.getRuntime().availableProcessors());
+	}
+
+	public LeafParallelMonteCarloTreeSearch(StateMachine machine, Role role, int numWorkers) {
+		super(machine, role);
+		this.numWorkers = numWorkers;
+		this.pool = Executors.newFixedThreadPool(numWorkers, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "LeafParallelMCTS-worker");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	class Charges implements Callable<long[]> {
+		final MachineState state;
+		final int count;
+		Charges(MachineState state, int count) {
+			this.state = state;
+			this.count = count;
+		}
+
+		// Returns the total score and the time taken.
+		@Override
+		public long[] call() throws Exception {
+			StateMachine machine = workerMachine.get();
+			int[] goals = new int[machine.getRoles().size()];
+			long start = System.nanoTime();
+			long total = 0;
+			for (int i = 0; i < count; i++) {
+				machine.performRollout(state, goals);
+				total += goals[roleIndex];
+			}
+			return new long[] { total, System.nanoTime() - start };
+		}
+	}
+
+	@Override
+	protected double monteCarlo(MachineState state) throws GoalDefinitionException, TransitionDefinitionException, MoveDefinitionException {
+		int perWorker = chargesPerWorker;
+		List<Future<long[]>> results = new ArrayList<Future<long[]>>(numWorkers);
+		for (int i = 0; i < numWorkers; i++) {
+			results.add(pool.submit(new Charges(state, perWorker)));
+		}
+		long total = 0;
+		long nanos = 0;
+		try {
+			for (Future<long[]> result : results) {
+				long[] r = result.get();
+				total += r[0];
+				nanos += r[1];
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof GoalDefinitionException) throw (GoalDefinitionException) cause;
+			if (cause instanceof TransitionDefinitionException) throw (TransitionDefinitionException) cause;
+			if (cause instanceof MoveDefinitionException) throw (MoveDefinitionException) cause;
+			throw new RuntimeException(cause);
+		}
+		int charges = numWorkers * perWorker;
+		recordDepthCharges(charges);
+		adaptBatchSize(nanos / (double) charges);
+		return total / (double) charges;
+	}
+
+	private void adaptBatchSize(double nanosPerCharge) {
+		chargeNanos = (chargeNanos == 0) ? nanosPerCharge : 0.9 * chargeNanos + 0.1 * nanosPerCharge;
+		int wanted = (int) Math.ceil(TARGET_TASK_NANOS / Math.max(chargeNanos, 1));
+		chargesPerWorker = Math.max(1, Math.min(MAX_CHARGES_PER_WORKER, wanted));
+	}
+
+	/**
+	 * Returns how many depth charges each worker is currently given per
+	 * batch.
+	 */
+	public int getChargesPerWorker() {
+		return chargesPerWorker;
+	}
+
+	// Stops the worker threads; the search can't be used afterwards.
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+
+	@Override
+	public void printStats() {
+		super.printStats();
+		System.out.println("Workers: " + numWorkers + ", charges per worker: " + chargesPerWorker
+				+ ", avg charge: " + (long) (chargeNanos / 1000) + " us");
+	}
+
+	/**
+	 * Throughput report: runs single-tree search and leaf-parallel search for
+	 * the same time on a game from the local repository, and prints the depth
+	 * charges per second of each, and the batch size the search settled on.
+	 *
+	 * Usage: LeafParallelMonteCarloTreeSearch [gameKey] [seconds] [workers]
+	 */
+	public static void main(String[] args) throws Exception {
+		String gameKey = (args.length > 0) ? args[0] : "connectFour";
+		Duration searchTime = Duration.ofSeconds((args.length > 1) ? Long.parseLong(args[1]) : 10);
+		int numWorkers = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+		LocalGameRepository repository = new LocalGameRepository();
+		Game game;
+		try {
+			game = repository.getGame(gameKey);
+		} finally {
+			repository.cleanUp();
+		}
+		StateMachine machine = new ConcurrentPropNetStateMachine();
+		machine.initialize(game.getRules());
+		Role role = machine.getRoles().get(0);
+
+		MonteCarloTreeSearch single = new MonteCarloTreeSearch(machine, role);
+		single.search(searchTime);
+		double singleRate = single.getNumDepthCharges() * 1000.0 / searchTime.toMillis();
+
+		LeafParallelMonteCarloTreeSearch parallel = new LeafParallelMonteCarloTreeSearch(machine, role, numWorkers);
+		try {
+			parallel.search(searchTime);
+		} finally {
+			parallel.shutdown();
+		}
+		double parallelRate = parallel.getNumDepthCharges() * 1000.0 / searchTime.toMillis();
+
+		System.out.println(String.format("%s, %d s per search:", gameKey, searchTime.getSeconds()));
+		System.out.println(String.format("  single tree      %10.1f depth charges/s", singleRate));
+		System.out.println(String.format("  %2d leaf-parallel %10.1f depth charges/s  (%.2fx), %d charges per worker",
+				numWorkers, parallelRate, parallelRate / singleRate, parallel.getChargesPerWorker()));
+	}
+}
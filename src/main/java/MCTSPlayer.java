@@ -3,15 +3,32 @@ import java.time.Instant;
 
 import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
 import org.ggp.base.player.gamer.statemachine.sample.SampleGamer;
+import org.ggp.base.util.propnet.factory.PropNetCache;
+import org.ggp.base.util.statemachine.FailsafeStateMachine;
 import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.StateMachine;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.propnet.ConcurrentPropNetStateMachine;
 
 public class MCTSPlayer extends SampleGamer {
 
 	public static final int BUFFER_SECONDS = 4;
-	MonteCarloTreeSearch tree;
+	// At a few hundred bytes per entry, this keeps the table well inside -mx1500m.
+	public static final int TRANSPOSITION_TABLE_SIZE = 1000000;
+	SharedTreeMonteCarloTreeSearch tree;
+
+	@Override
+	public StateMachine getInitialStateMachine() {
+		// Depth charges dominate our search time, so run them on the compiled
+		// propnet. Consecutive states in a charge differ by only a few bases,
+		// which is where differential propagation pays off. The concurrent
+		// machine gives each search thread its own differential worker. The
+		// failsafe falls back to the prover if the propnet can't be built.
+		// The propnet is cached on disk, so replaying a game skips building it.
+		return new FailsafeStateMachine(new ConcurrentPropNetStateMachine(new PropNetCache()));
+	}
 
 	@Override
 	public void stateMachineMetaGame(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
@@ -20,9 +37,14 @@ public class MCTSPlayer extends SampleGamer {
 		max = max.minus(Duration.ofSeconds(BUFFER_SECONDS));
 		Duration searchTime = Duration.between(Instant.now(), max);
 
-		super.stateMachineMetaGame(timeout);
-		tree = new MonteCarloTreeSearch(getStateMachine(), getRole());
+		// A match that ended without a stop or abort may have left the last
+		// tree pondering.
+		stopPondering();
+		// The machine was already initialized by StateMachineGamer.metaGame.
+		tree = new TranspositionMonteCarloTreeSearch(getStateMachine(), getRole(), TRANSPOSITION_TABLE_SIZE);
         tree.search(searchTime);
+        // Keep thinking until the first move is asked for.
+        tree.startPondering();
 	}
 
 	@Override
@@ -33,11 +55,15 @@ public class MCTSPlayer extends SampleGamer {
 		max = max.minus(Duration.ofSeconds(BUFFER_SECONDS));
 		Duration searchTime = Duration.between(Instant.now(), max);
 
+		// Stops the search we left running after the last move, and keeps
+		// whatever it found below the new state.
 		tree.updateRoot(getCurrentState());
         tree.search(searchTime);
         System.out.println("Selecting move");
 		Move selection = tree.chooseMove();
         System.out.println("Done!");
+        // Use the time the other players spend on their moves.
+        tree.startPondering();
 
 		Instant stop = Instant.now();
 		notifyObservers(new GamerSelectedMoveEvent(getStateMachine().getLegalMoves(getCurrentState(), getRole()),
@@ -45,4 +71,23 @@ public class MCTSPlayer extends SampleGamer {
 		return selection;
 	}
 
+	@Override
+	public void stateMachineStop() {
+		stopPondering();
+	}
+
+	@Override
+	public void stateMachineAbort() {
+		stopPondering();
+	}
+
+	private void stopPondering() {
+		if (tree == null) return;
+		try {
+			tree.stopPondering();
+		} catch (MoveDefinitionException | TransitionDefinitionException | GoalDefinitionException e) {
+			// The game is over; there's nothing left to search for.
+		}
+	}
+
 }
@@ -47,6 +47,13 @@ public class MonteCarloTreeSearch {
 
     	public abstract void combineTree(Node otherRoot);
 
+    	// Overwrites this node's statistics, e.g. with ones merged from other trees.
+    	public synchronized void setStats(int visits, double utility) {
+    		this.visits = visits;
+    		this.utility = utility;
+    		changed = true;
+    	}
+
     	private void setInGrandparentsUnvisitedList() {
     		parent.ifPresent(
                 node -> node.unvisitedGrandchildren.add(this));
@@ -141,7 +148,9 @@ public class MonteCarloTreeSearch {
 		public synchronized void expand() throws MoveDefinitionException, TransitionDefinitionException {
     		for (List<Move> moves : stateMachine.getLegalJointMoves(state, role, action)) {
     			MachineState nextState = stateMachine.findNext(moves, state);
-    			addChild(nextState);
+    			if (!childrenMap.containsKey(nextState)) {
+    				addChild(nextState);
+    			}
     		}
     	}
 
@@ -175,8 +184,12 @@ public class MonteCarloTreeSearch {
 
 		@Override
 		public synchronized void expand() throws MoveDefinitionException, TransitionDefinitionException {
+			// select() can come back to an expanded node, so only add
+			// the children we don't have yet.
 			for (Move m : stateMachine.getLegalMoves(state, role)) {
-				addChild(m).expand();
+				if (!childrenMap.containsKey(m)) {
+					addChild(m).expand();
+				}
 			}
 		}
 
@@ -195,6 +208,7 @@ public class MonteCarloTreeSearch {
 	Node root;
 	final StateMachine stateMachine;
 	final Role role;
+	final int roleIndex;
 	Stats stats = new Stats();
 
 	private class Stats {
@@ -215,6 +229,7 @@ public class MonteCarloTreeSearch {
 	public MonteCarloTreeSearch(StateMachine machine, Role role, MachineState startState) {
 		this.stateMachine = machine;
 		this.role = role;
+		this.roleIndex = machine.getRoleIndices().get(role);
 		this.root = new MaxNode(startState);
 	}
 
@@ -222,7 +237,7 @@ public class MonteCarloTreeSearch {
 		this(machine, role, machine.getInitialState());
 	}
 
-	public void updateRoot(MachineState state) {
+	public void updateRoot(MachineState state) throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
 		stats.reset();
 		if (state.equals(root.state)) return;
 		for (Node child : root.children) {
@@ -273,23 +288,34 @@ public class MonteCarloTreeSearch {
 		return bestMove.get();
 	}
 
-	private double monteCarlo(MachineState state) throws GoalDefinitionException, TransitionDefinitionException, MoveDefinitionException {
+	// Estimates the value of the state for us; subclasses may run the
+	// charges some other way.
+	protected double monteCarlo(MachineState state) throws GoalDefinitionException, TransitionDefinitionException, MoveDefinitionException {
 		double total = 0;
+		int[] goals = new int[stateMachine.getRoles().size()];
 		for (int i = 0; i < N_DEPTH_CHARGES; i++) {
-			total += depthCharge(state);
+			total += depthCharge(state, goals);
 		}
 		return total/N_DEPTH_CHARGES;
 	}
 
-    private double depthCharge(MachineState state)
+	// Plays out in place on the machine's scratch state, so a charge doesn't
+	// allocate a state and a joint move list per ply.
+    private double depthCharge(MachineState state, int[] goals)
 			throws GoalDefinitionException, TransitionDefinitionException, MoveDefinitionException {
-    	stats.numDepthCharges ++;
-		if (stateMachine.findTerminalp(state))
-			return stateMachine.findReward(role, state);
-		MachineState randomState = stateMachine.getNextState(state, stateMachine.getRandomJointMove(state));
-		return depthCharge(randomState);
+    	recordDepthCharges(1);
+    	stateMachine.performRollout(state, goals);
+    	return goals[roleIndex];
 	}
 
+    protected void recordDepthCharges(int n) {
+    	stats.numDepthCharges += n;
+    }
+
+    public int getNumDepthCharges() {
+    	return stats.numDepthCharges;
+    }
+
     public void printStats() {
     	System.out.println("=========MCTS STATS=========");
     	System.out.println("Depth charges: " + stats.numDepthCharges);
@@ -0,0 +1,284 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.LocalGameRepository;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.propnet.ConcurrentPropNetStateMachine;
+
+/**
+ * Parallel alpha-beta on a fork-join pool, splitting the tree the Young
+ * Brothers Wait way: at each node the first child is searched on its own,
+ * to establish a bound, and only then are its younger brothers forked off
+ * to be searched in parallel.
+ *
+ * The tree is the one AlphaBeta searches: max nodes over our moves, min
+ * nodes over the other players' joint replies, with depth counting our
+ * moves. Each node keeps its bound (alpha for a max node, beta for a min
+ * node) in an atomic that its children raise or lower as they finish, and
+ * that its children's children read as the other end of their window, so a
+ * good result found by one brother narrows the windows of the others while
+ * they run. A node whose window closes stops, along with everything below
+ * it. Nodes return their bound, as in fail-hard alpha-beta, which keeps the
+ * results of stopped searches from leaking past the node that stopped them.
+ *
+ * Each worker thread has its own state machine (see
+ * ConcurrentPropNetStateMachine.workerFor), so the machine passed in must
+ * either be a propnet machine, possibly inside a FailsafeStateMachine, or
+ * otherwise thread-safe.
+ */
+public class ParallelAlphaBetaSearch {
+	// Below this depth, the brothers are searched one after another, since
+	// forking them would cost more than it saves.
+	private static final int MIN_SPLIT_DEPTH = 2;
+
+	private final StateMachine stateMachine;
+	private final Role role;
+	private final ForkJoinPool pool;
+	private final ThreadLocal<StateMachine> workerMachine = new ThreadLocal<StateMachine>() {
+		@Override
+		protected StateMachine initialValue() {
+			return ConcurrentPropNetStateMachine.workerFor(stateMachine);
+		}
+	};
+	private final LongAdder nodes = new LongAdder();
+
+	// The search in progress.
+	private Node root;
+	private long deadline;
+	private Move bestMove;
+	private int bestValue;
+
+	public ParallelAlphaBetaSearch(StateMachine machine, Role role, int parallelism) {
+		this.stateMachine = machine;
+		this.role = role;
+		this.pool = new ForkJoinPool(parallelism);
+	}
+
+	// Unwinds every task once the deadline has passed.
+	static final class OutOfTime extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	static final class Node {
+		final Node parent;
+		final boolean isMax;
+		// Alpha for a max node, beta for a min node.
+		final AtomicInteger bound;
+
+		Node(Node parent, boolean isMax) {
+			this.parent = parent;
+			this.isMax = isMax;
+			// The window starts as the nearest ancestors' one.
+			Node same = (parent == null) ? null : parent.parent;
+			this.bound = new AtomicInteger((same != null) ? same.bound.get() : isMax ? Integer.MIN_VALUE : Integer.MAX_VALUE);
+		}
+
+		void improve(int value) {
+			int current;
+			while (isMax ? (current = bound.get()) < value : (current = bound.get()) > value) {
+				if (bound.compareAndSet(current, value)) break;
+			}
+		}
+
+		boolean isClosed() {
+			if (parent == null) return false;
+			return isMax ? bound.get() >= parent.bound.get() : bound.get() <= parent.bound.get();
+		}
+
+		// Whether the search of this node can stop, because its window or an
+		// ancestor's has closed.
+		boolean isCutOff() {
+			for (Node n = this; n != null; n = n.parent) {
+				if (n.isClosed()) return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * A max node for a state when move is null, otherwise a min node for our
+	 * move in that state. Its value goes to its parent's bound as soon as it
+	 * is known.
+	 */
+	final class SearchTask extends RecursiveTask<Integer> {
+		private static final long serialVersionUID = 1L;
+
+		final Node parent;
+		final MachineState state;
+		final Move move;
+		final int depth;
+
+		SearchTask(Node parent, MachineState state, Move move, int depth) {
+			this.parent = parent;
+			this.state = state;
+			this.move = move;
+			this.depth = depth;
+		}
+
+		@Override
+		protected Integer compute() {
+			if (parent != null && parent.isCutOff()) {
+				// Nobody needs this value; leave the parent's bound alone.
+				return parent.bound.get();
+			}
+			int value;
+			try {
+				value = (move == null) ? searchMax(this) : searchMin(this);
+			} catch (MoveDefinitionException | TransitionDefinitionException | GoalDefinitionException e) {
+				throw new RuntimeException(e);
+			}
+			if (parent == root) {
+				recordRootResult(move, value);
+			} else if (parent != null) {
+				parent.improve(value);
+			}
+			return value;
+		}
+	}
+
+	private int searchMax(SearchTask task) throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		if (System.currentTimeMillis() >= deadline) {
+			throw new OutOfTime();
+		}
+		nodes.increment();
+		StateMachine machine = workerMachine.get();
+		if (machine.isTerminal(task.state)) {
+			return machine.getGoal(task.state, role);
+		}
+		if (task.depth == 0) {
+			return Heuristics.cutoffScore(machine, task.state, role);
+		}
+		Node node = (task.parent == null) ? root : new Node(task.parent, true);
+		List<SearchTask> children = new ArrayList<SearchTask>();
+		for (Move move : machine.getLegalMoves(task.state, role)) {
+			children.add(new SearchTask(node, task.state, move, task.depth));
+		}
+		return searchChildren(node, children, task.depth);
+	}
+
+	private int searchMin(SearchTask task) throws MoveDefinitionException, TransitionDefinitionException {
+		StateMachine machine = workerMachine.get();
+		Node node = new Node(task.parent, false);
+		List<SearchTask> children = new ArrayList<SearchTask>();
+		for (List<Move> jointMove : machine.getLegalJointMoves(task.state, role, task.move)) {
+			children.add(new SearchTask(node, machine.getNextState(task.state, jointMove), null, task.depth - 1));
+		}
+		return searchChildren(node, children, task.depth);
+	}
+
+	// The eldest brother first, then the rest, forked if they're big enough.
+	private int searchChildren(Node node, List<SearchTask> children, int depth) {
+		children.get(0).compute();
+		List<SearchTask> younger = children.subList(1, children.size());
+		if (depth >= MIN_SPLIT_DEPTH) {
+			RecursiveTask.invokeAll(younger);
+		} else {
+			for (SearchTask child : younger) {
+				if (node.isCutOff()) break;
+				child.compute();
+			}
+		}
+		return node.bound.get();
+	}
+
+	private synchronized void recordRootResult(Move move, int value) {
+		// A child that was cut off reports no more than the bound it was cut
+		// off by, so only a real improvement can change the best move.
+		if (bestMove == null || value > bestValue) {
+			bestValue = value;
+			bestMove = move;
+		}
+		root.improve(value);
+	}
+
+	/**
+	 * Searches from the state to the given depth.
+	 * @return Our best move and its value, where states at the depth limit
+	 *         are scored by Heuristics.cutoffScore.
+	 * @throws TimeoutException If the deadline passes first.
+	 */
+	public Score search(MachineState state, int depth, long deadline)
+			throws TimeoutException, MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		this.deadline = deadline;
+		this.root = new Node(null, true);
+		this.bestMove = null;
+		this.bestValue = Integer.MIN_VALUE;
+		try {
+			pool.invoke(new SearchTask(null, state, null, depth));
+		} catch (RuntimeException e) {
+			// The pool may wrap an exception from another thread again.
+			for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+				if (cause instanceof OutOfTime) throw new TimeoutException();
+				if (cause instanceof MoveDefinitionException) throw (MoveDefinitionException) cause;
+				if (cause instanceof TransitionDefinitionException) throw (TransitionDefinitionException) cause;
+				if (cause instanceof GoalDefinitionException) throw (GoalDefinitionException) cause;
+			}
+			throw e;
+		}
+		return new Score(bestValue, bestMove);
+	}
+
+	public long getNumNodes() {
+		return nodes.sum();
+	}
+
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+
+	/**
+	 * Scaling report: searches the initial state of a game from the local
+	 * repository to a fixed depth with each number of threads, and prints
+	 * the nodes per second and speedup over one thread of each.
+	 *
+	 * Usage: ParallelAlphaBetaSearch [gameKey] [depth] [threads,threads,...]
+	 */
+	public static void main(String[] args) throws Exception {
+		String gameKey = (args.length > 0) ? args[0] : "connectFour";
+		int depth = (args.length > 1) ? Integer.parseInt(args[1]) : 7;
+		String threadCounts = (args.length > 2) ? args[2] : "1,2,4,8,16";
+
+		LocalGameRepository repository = new LocalGameRepository();
+		Game game;
+		try {
+			game = repository.getGame(gameKey);
+		} finally {
+			repository.cleanUp();
+		}
+		StateMachine machine = new ConcurrentPropNetStateMachine();
+		machine.initialize(game.getRules());
+		Role role = machine.getRoles().get(0);
+
+		// Warm up the JIT, so the first measurement isn't the slowest.
+		ParallelAlphaBetaSearch warmUp = new ParallelAlphaBetaSearch(machine, role, 1);
+		warmUp.search(machine.getInitialState(), depth, Long.MAX_VALUE);
+		warmUp.shutdown();
+
+		System.out.println(String.format("%s, depth %d, %d cores:", gameKey, depth, Runtime.getRuntime().availableProcessors()));
+		double serialMillis = 0;
+		for (String count : threadCounts.split(",")) {
+			int threads = Integer.parseInt(count.trim());
+			ParallelAlphaBetaSearch search = new ParallelAlphaBetaSearch(machine, role, threads);
+			long start = System.currentTimeMillis();
+			Score result = search.search(machine.getInitialState(), depth, Long.MAX_VALUE);
+			double millis = Math.max(1, System.currentTimeMillis() - start);
+			search.shutdown();
+			if (serialMillis == 0) serialMillis = millis;
+			System.out.println(String.format("  %2d threads  %8.0f ms  %10d nodes  %10.0f nodes/s  %5.2fx  value %d, %s",
+					threads, millis, search.getNumNodes(), search.getNumNodes() * 1000 / millis, serialMillis / millis,
+					result.value, result.move.get()));
+		}
+	}
+}
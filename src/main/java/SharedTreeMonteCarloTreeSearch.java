@@ -0,0 +1,447 @@
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+/**
+ * Tree-parallel Monte Carlo tree search: every worker thread searches the
+ * same tree, without locks.
+ *
+ * Node statistics are plain volatile fields updated with compare-and-set,
+ * and a node's children are built off to the side and published with a
+ * single compare-and-set, so a node is expanded exactly once and readers
+ * never see a half-built child list. While a worker is between selecting a
+ * path and backpropagating its result, every node on the path carries a
+ * virtual loss, which makes the other workers prefer different paths.
+ *
+ * The tree has the same shape as in MonteCarloTreeSearch: a MaxNode is a
+ * state in which we pick an action, and its MinNode children are that
+ * state with our action fixed, whose children are the states the opponents'
+ * replies lead to.
+ *
+ * The search is also a solver. Every node carries bounds on its minimax
+ * value: terminal states get their goal as both bounds, and each
+ * backpropagation tightens the bounds of the nodes on the path from their
+ * children's. A node whose bounds meet is proven. Selection skips proven
+ * children, and children that can't do better for the chooser than a
+ * sibling already guarantees, so rollouts go to undecided branches. The
+ * search stops as soon as the root is proven, and chooseMove returns a
+ * proven win without weighing the averages.
+ *
+ * The tree is kept from turn to turn. Between turns the workers can keep
+ * searching in the background (see startPondering), and when the next state
+ * arrives the root moves down to wherever that state is in the tree, however
+ * deep, and the rest of the old tree is dropped.
+ *
+ * The state machine is shared by all workers, so it must be thread-safe,
+ * e.g. a ConcurrentPropNetStateMachine.
+ */
+public class SharedTreeMonteCarloTreeSearch extends MonteCarloTreeSearch {
+	private static final double EXPLORATION = Math.sqrt(2);
+	private static final int MAX_SCORE = 100;
+
+	private final int numThreads;
+	// Whether a node may be reached by more than one path, in which case the
+	// game graph can have cycles and selection has to watch for them.
+	private final boolean sharesNodes;
+	private volatile TreeNode sharedRoot = null;
+	private final AtomicLong simulations = new AtomicLong();
+	private volatile long searchMillis = 0;
+	// Set to end a search early, e.g. a background one.
+	private volatile boolean stopRequested = false;
+	private List<Thread> ponderers = null;
+	private Exception[] ponderFailures = null;
+	private long ponderStart = 0;
+
+	public SharedTreeMonteCarloTreeSearch(StateMachine machine, Role role) {
+		this(machine, role, Runtime.getRuntime().availableProcessors());
+	}
+
+	public SharedTreeMonteCarloTreeSearch(StateMachine machine, Role role, int numThreads) {
+		this(machine, role, numThreads, false);
+	}
+
+	protected SharedTreeMonteCarloTreeSearch(StateMachine machine, Role role, int numThreads, boolean sharesNodes) {
+		super(machine, role);
+		this.numThreads = numThreads;
+		this.sharesNodes = sharesNodes;
+	}
+
+	protected TreeNode root() {
+		if (sharedRoot == null) {
+			sharedRoot = stateNode(stateMachine.getInitialState());
+		}
+		return sharedRoot;
+	}
+
+	// Returns the MaxNode to use for a state. Every call makes a new node
+	// here; subclasses may hand out shared ones instead.
+	protected TreeNode stateNode(MachineState state) {
+		return new TreeNode(state, null);
+	}
+
+	static final AtomicIntegerFieldUpdater<TreeNode> VISITS =
+			AtomicIntegerFieldUpdater.newUpdater(TreeNode.class, "visits");
+	static final AtomicIntegerFieldUpdater<TreeNode> VIRTUAL_LOSS =
+			AtomicIntegerFieldUpdater.newUpdater(TreeNode.class, "virtualLoss");
+	static final AtomicLongFieldUpdater<TreeNode> SCORE =
+			AtomicLongFieldUpdater.newUpdater(TreeNode.class, "score");
+	static final AtomicIntegerFieldUpdater<TreeNode> LOWER =
+			AtomicIntegerFieldUpdater.newUpdater(TreeNode.class, "lower");
+	static final AtomicIntegerFieldUpdater<TreeNode> UPPER =
+			AtomicIntegerFieldUpdater.newUpdater(TreeNode.class, "upper");
+	static final AtomicReferenceFieldUpdater<TreeNode, TreeNode[]> CHILDREN =
+			AtomicReferenceFieldUpdater.newUpdater(TreeNode.class, TreeNode[].class, "children");
+
+	/**
+	 * A MaxNode when action is null, otherwise a MinNode. Scores are always
+	 * from our point of view.
+	 */
+	static final class TreeNode {
+		final MachineState state;
+		final Move action;
+		volatile int visits = 0;
+		volatile int virtualLoss = 0;
+		volatile long score = 0;
+		/** Bounds on the minimax value; they only ever move towards each other */
+		volatile int lower = 0;
+		volatile int upper = MAX_SCORE;
+		/** Null until expanded; empty for terminal states */
+		volatile TreeNode[] children = null;
+
+		TreeNode(MachineState state, Move action) {
+			this.state = state;
+			this.action = action;
+		}
+
+		boolean isMaxNode() {
+			return action == null;
+		}
+
+		double meanScore() {
+			int n = visits;
+			return (n == 0) ? 0 : score / (double) n;
+		}
+
+		boolean isProven() {
+			return lower == upper;
+		}
+
+		// The mean score, corrected by whatever has been proven about the node.
+		double estimate() {
+			return Math.max(lower, Math.min(upper, meanScore()));
+		}
+	}
+
+	/**
+	 * Builds the children of a MaxNode, and of each of its MinNodes, and
+	 * publishes them unless another worker got there first.
+	 */
+	private TreeNode[] expand(TreeNode node)
+			throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		TreeNode[] children;
+		if (stateMachine.isTerminal(node.state)) {
+			int goal = stateMachine.getGoal(node.state, role);
+			tightenBounds(node, goal, goal);
+			children = new TreeNode[0];
+		} else {
+			List<Move> moves = stateMachine.getLegalMoves(node.state, role);
+			children = new TreeNode[moves.size()];
+			for (int i = 0; i < children.length; i++) {
+				TreeNode minNode = new TreeNode(node.state, moves.get(i));
+				List<List<Move>> jointMoves = stateMachine.getLegalJointMoves(node.state, role, moves.get(i));
+				TreeNode[] grandchildren = new TreeNode[jointMoves.size()];
+				for (int j = 0; j < grandchildren.length; j++) {
+					grandchildren[j] = stateNode(stateMachine.getNextState(node.state, jointMoves.get(j)));
+				}
+				minNode.children = grandchildren;
+				children[i] = minNode;
+			}
+		}
+		if (CHILDREN.compareAndSet(node, null, children)) {
+			return children;
+		}
+		return node.children;
+	}
+
+	/**
+	 * Picks the child to descend into, or null if every child is proven or
+	 * cut off by the node's bounds. Virtual losses count as visits that went
+	 * as badly as possible for whoever is choosing.
+	 */
+	private TreeNode selectChild(TreeNode node, TreeNode[] children) {
+		double parentVisits = Math.max(1, node.visits + node.virtualLoss);
+		double logParent = Math.log(parentVisits);
+		TreeNode best = null;
+		double bestValue = Double.NEGATIVE_INFINITY;
+		for (TreeNode child : children) {
+			if (child.isProven()) continue;
+			if (node.isMaxNode() ? child.upper <= node.lower : child.lower >= node.upper) continue;
+			int pending = child.virtualLoss;
+			int n = child.visits + pending;
+			if (n == 0) {
+				return child;
+			}
+			double mean;
+			if (node.isMaxNode()) {
+				mean = child.score / (double) (n * MAX_SCORE);
+			} else {
+				mean = 1 - (child.score + pending * (double) MAX_SCORE) / (n * MAX_SCORE);
+			}
+			double value = mean + EXPLORATION * Math.sqrt(logParent / n);
+			if (value > bestValue) {
+				bestValue = value;
+				best = child;
+			}
+		}
+		return best;
+	}
+
+	// Moves the node's bounds in to the given ones, if they're tighter.
+	private static void tightenBounds(TreeNode node, int lower, int upper) {
+		int current;
+		while ((current = node.lower) < lower && !LOWER.compareAndSet(node, current, lower));
+		while ((current = node.upper) > upper && !UPPER.compareAndSet(node, current, upper));
+	}
+
+	// Recomputes the node's bounds from its children's: the best of them for
+	// a MaxNode, the worst for a MinNode.
+	private static void updateBounds(TreeNode node) {
+		TreeNode[] children = node.children;
+		if (children == null || children.length == 0) return;
+		int lower = node.isMaxNode() ? 0 : MAX_SCORE;
+		int upper = lower;
+		for (TreeNode child : children) {
+			if (node.isMaxNode()) {
+				lower = Math.max(lower, child.lower);
+				upper = Math.max(upper, child.upper);
+			} else {
+				lower = Math.min(lower, child.lower);
+				upper = Math.min(upper, child.upper);
+			}
+		}
+		tightenBounds(node, lower, upper);
+	}
+
+	/**
+	 * One iteration: select a path with virtual loss, expand, roll out from
+	 * the leaf and backpropagate.
+	 */
+	private void iterate(TreeNode root, List<TreeNode> path, int[] goals)
+			throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		path.clear();
+		TreeNode node = root;
+		while (true) {
+			path.add(node);
+			VIRTUAL_LOSS.incrementAndGet(node);
+			TreeNode[] children = node.children;
+			if (children == null) {
+				if (node.visits == 0 && node != root) {
+					break;
+				}
+				children = expand(node);
+			}
+			if (children.length == 0) {
+				break;
+			}
+			TreeNode minNode = selectChild(node, children);
+			if (minNode == null) {
+				// Only reachable once the node is proven, or about to be.
+				break;
+			}
+			path.add(minNode);
+			VIRTUAL_LOSS.incrementAndGet(minNode);
+			TreeNode next = selectChild(minNode, minNode.children);
+			if (next == null) {
+				break;
+			}
+			if (sharesNodes && path.contains(next)) {
+				// The game came back to a state on this path; play out from here.
+				break;
+			}
+			node = next;
+		}
+
+		stateMachine.performRollout(node.state, goals);
+		long result = goals[roleIndex];
+		for (TreeNode n : path) {
+			SCORE.addAndGet(n, result);
+			VISITS.incrementAndGet(n);
+			VIRTUAL_LOSS.decrementAndGet(n);
+		}
+		// Children reached through other paths may have been proven too, so
+		// every node on the path is rechecked; it costs no more than selection.
+		for (int i = path.size() - 1; i >= 0; i--) {
+			updateBounds(path.get(i));
+		}
+		simulations.incrementAndGet();
+	}
+
+	/**
+	 * Moves the root to the given state, keeping whatever has been searched
+	 * below it. Any background search is stopped first.
+	 */
+	@Override
+	public void updateRoot(MachineState state) throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		stopPondering();
+		TreeNode root = root();
+		if (state.equals(root.state)) return;
+		TreeNode descendant = sharesNodes ? null : findDescendant(root, state);
+		sharedRoot = (descendant != null) ? descendant : stateNode(state);
+	}
+
+	// Searches the expanded part of the tree for the state, nearest first.
+	private static TreeNode findDescendant(TreeNode root, MachineState state) {
+		ArrayDeque<TreeNode> queue = new ArrayDeque<TreeNode>();
+		queue.add(root);
+		while (!queue.isEmpty()) {
+			TreeNode[] children = queue.remove().children;
+			if (children == null) continue;
+			for (TreeNode child : children) {
+				for (TreeNode grandchild : child.children) {
+					if (state.equals(grandchild.state)) {
+						return grandchild;
+					}
+					queue.add(grandchild);
+				}
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public void search() throws GoalDefinitionException, TransitionDefinitionException, MoveDefinitionException {
+		iterate(root(), new ArrayList<TreeNode>(), new int[stateMachine.getRoles().size()]);
+	}
+
+	@Override
+	public void search(Duration searchTime) throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		stopPondering();
+		Exception[] failures = new Exception[numThreads];
+		long start = System.currentTimeMillis();
+		List<Thread> workers = startWorkers(start + searchTime.toMillis(), failures);
+		joinWorkers(workers, failures);
+		searchMillis += System.currentTimeMillis() - start;
+	}
+
+	/**
+	 * Keeps searching from the current root in the background until the next
+	 * call to updateRoot, search or stopPondering. Meant for the time between
+	 * sending our move and hearing the next state.
+	 */
+	public void startPondering() throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		stopPondering();
+		ponderFailures = new Exception[numThreads];
+		ponderStart = System.currentTimeMillis();
+		ponderers = startWorkers(Long.MAX_VALUE, ponderFailures);
+	}
+
+	/**
+	 * Stops the background search, if there is one, and waits for it. Any
+	 * exception it ran into is thrown from here.
+	 */
+	public void stopPondering() throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		if (ponderers == null) return;
+		List<Thread> workers = ponderers;
+		ponderers = null;
+		stopRequested = true;
+		try {
+			joinWorkers(workers, ponderFailures);
+		} finally {
+			stopRequested = false;
+			searchMillis += System.currentTimeMillis() - ponderStart;
+		}
+	}
+
+	private List<Thread> startWorkers(final long stop, final Exception[] failures) {
+		final TreeNode root = root();
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int i = 0; i < numThreads; i++) {
+			final int index = i;
+			Thread worker = new Thread("SharedTreeMCTS-" + i) {
+				@Override
+				public void run() {
+					List<TreeNode> path = new ArrayList<TreeNode>();
+					int[] goals = new int[stateMachine.getRoles().size()];
+					try {
+						while (System.currentTimeMillis() < stop && !root.isProven() && !stopRequested) {
+							iterate(root, path, goals);
+						}
+					} catch (Exception e) {
+						failures[index] = e;
+					}
+				}
+			};
+			worker.setDaemon(true);
+			workers.add(worker);
+			worker.start();
+		}
+		return workers;
+	}
+
+	private static void joinWorkers(List<Thread> workers, Exception[] failures)
+			throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		for (Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		for (Exception e : failures) {
+			if (e instanceof MoveDefinitionException) throw (MoveDefinitionException) e;
+			if (e instanceof TransitionDefinitionException) throw (TransitionDefinitionException) e;
+			if (e instanceof GoalDefinitionException) throw (GoalDefinitionException) e;
+			if (e != null) throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public Move chooseMove() {
+		double bestScore = -1;
+		Move bestMove = null;
+		TreeNode[] children = root().children;
+		if (children == null) return null;
+		for (TreeNode n : children) {
+			if (n.lower == MAX_SCORE) {
+				return n.action;
+			}
+			if (n.visits == 0 && !n.isProven()) continue;
+			double score = n.estimate();
+			if (score > bestScore) {
+				bestScore = score;
+				bestMove = n.action;
+			}
+		}
+		if (bestMove == null && children.length > 0) {
+			bestMove = children[0].action;
+		}
+		return bestMove;
+	}
+
+	@Override
+	public void printStats() {
+		System.out.println("=========MCTS STATS=========");
+		System.out.println("Threads: " + numThreads);
+		System.out.println("Simulations: " + simulations.get());
+		if (searchMillis > 0) {
+			System.out.println("Simulations/sec: " + simulations.get() * 1000 / searchMillis);
+		}
+		TreeNode root = root();
+		System.out.println("Root visits: " + root.visits);
+		System.out.println("Root bounds: [" + root.lower + ", " + root.upper + "]" + (root.isProven() ? " (proven)" : ""));
+		System.out.println("============================");
+	}
+}
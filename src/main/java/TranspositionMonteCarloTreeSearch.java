@@ -0,0 +1,194 @@
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.propnet.PropNetMachineState;
+
+/**
+ * Shared-tree MCTS over a DAG: a transposition table maps each state to a
+ * single MaxNode, so a position reached by different move orders is
+ * searched once and its statistics are shared by every path to it.
+ * Backpropagation follows the path that was actually selected.
+ *
+ * Re-rooting looks the new state up in the table, so the search is reused
+ * however deep the new root was in the old tree. The entries that can't be
+ * reached from the new root are then dropped, so that the old tree can be
+ * garbage collected.
+ *
+ * The table is bounded. Each entry remembers the turn on which it was last
+ * used; when the table fills up, entries from earlier turns are dropped
+ * first and then the least visited ones, until it is back under 90% of its
+ * capacity. A dropped node stays in the DAG as long as a parent refers to
+ * it, but it is no longer shared, and once the root moves past it the
+ * garbage collector can reclaim it.
+ */
+public class TranspositionMonteCarloTreeSearch extends SharedTreeMonteCarloTreeSearch {
+	// Rough per-entry overhead: the map entry, the Entry and the TreeNode,
+	// plus the child array a typical expanded node ends up owning.
+	private static final int ENTRY_BYTES = 160;
+
+	static final class Entry {
+		final TreeNode node;
+		volatile int lastUsed;
+		Entry(TreeNode node, int turn) {
+			this.node = node;
+			this.lastUsed = turn;
+		}
+	}
+
+	private final int capacity;
+	private final ConcurrentHashMap<MachineState, Entry> table;
+	private final ReentrantLock evictionLock = new ReentrantLock();
+	private final AtomicInteger turn = new AtomicInteger();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong released = new AtomicLong();
+	private volatile int stateBytes = 0;
+
+	public TranspositionMonteCarloTreeSearch(StateMachine machine, Role role, int capacity) {
+		this(machine, role, capacity, Runtime.getRuntime().availableProcessors());
+	}
+
+	public TranspositionMonteCarloTreeSearch(StateMachine machine, Role role, int capacity, int numThreads) {
+		super(machine, role, numThreads, true);
+		this.capacity = capacity;
+		this.table = new ConcurrentHashMap<MachineState, Entry>(Math.min(capacity, 1 << 16));
+	}
+
+	@Override
+	protected TreeNode stateNode(MachineState state) {
+		int now = turn.get();
+		Entry entry = table.get(state);
+		if (entry != null) {
+			hits.incrementAndGet();
+			entry.lastUsed = now;
+			return entry.node;
+		}
+		misses.incrementAndGet();
+		Entry created = new Entry(new TreeNode(state, null), now);
+		entry = table.putIfAbsent(state, created);
+		if (entry != null) {
+			return entry.node;
+		}
+		if (stateBytes == 0) {
+			stateBytes = estimateStateBytes(state);
+		}
+		if (table.size() > capacity) {
+			evict();
+		}
+		return created.node;
+	}
+
+	@Override
+	public void updateRoot(MachineState state) throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		stopPondering();
+		turn.incrementAndGet();
+		super.updateRoot(state);
+		releaseUnreachable();
+	}
+
+	/**
+	 * Marks every entry reachable from the root as used this turn and drops
+	 * the rest. Nothing else may be searching meanwhile.
+	 */
+	private void releaseUnreachable() {
+		int now = turn.get();
+		TreeNode root = root();
+		Entry rootEntry = table.get(root.state);
+		if (rootEntry != null && rootEntry.node == root) {
+			rootEntry.lastUsed = now;
+		}
+		ArrayDeque<TreeNode> queue = new ArrayDeque<TreeNode>();
+		queue.add(root);
+		while (!queue.isEmpty()) {
+			TreeNode[] children = queue.remove().children;
+			if (children == null) continue;
+			for (TreeNode child : children) {
+				for (TreeNode grandchild : child.children) {
+					Entry entry = table.get(grandchild.state);
+					// The mark doubles as the visited set. Below a node that
+					// was evicted, entries can only be reached by other paths.
+					if (entry != null && entry.node == grandchild && entry.lastUsed != now) {
+						entry.lastUsed = now;
+						queue.add(grandchild);
+					}
+				}
+			}
+		}
+		released.addAndGet(removeWhere(now - 1, Integer.MAX_VALUE, 0));
+	}
+
+	/**
+	 * Brings the table back under 90% of its capacity. Only one thread
+	 * evicts at a time; the others carry on, and the table may briefly run
+	 * over capacity meanwhile.
+	 */
+	private void evict() {
+		if (!evictionLock.tryLock()) return;
+		try {
+			int target = capacity / 10 * 9;
+			int now = turn.get();
+			// First entries from earlier turns, oldest first, then entries
+			// with few visits, raising the bar until enough have gone.
+			for (int age = 0; age < now && table.size() > target; age++) {
+				evictions.addAndGet(removeWhere(age, Integer.MAX_VALUE, target));
+			}
+			for (int visits = 0; table.size() > target; visits = visits * 2 + 1) {
+				evictions.addAndGet(removeWhere(now, visits, target));
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	// Returns the number of entries removed.
+	private int removeWhere(int maxLastUsed, int maxVisits, int target) {
+		int removed = 0;
+		Iterator<Entry> it = table.values().iterator();
+		while (it.hasNext() && table.size() > target) {
+			Entry entry = it.next();
+			if (entry.lastUsed <= maxLastUsed && entry.node.visits <= maxVisits) {
+				it.remove();
+				removed++;
+			}
+		}
+		return removed;
+	}
+
+	private static int estimateStateBytes(MachineState state) {
+		if (state instanceof PropNetMachineState) {
+			// Object header and fields, plus the bit array.
+			return 32 + 16 + 8 * ((PropNetMachineState) state).getBits().length;
+		}
+		// A HashSet entry and a sentence per proposition.
+		return 64 + state.getContents().size() * 96;
+	}
+
+	public double getHitRate() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return (total == 0) ? 0 : h / (double) total;
+	}
+
+	// Estimated bytes held by the table's entries, including their states.
+	public long getEstimatedMemory() {
+		return (long) table.size() * (ENTRY_BYTES + stateBytes);
+	}
+
+	@Override
+	public void printStats() {
+		super.printStats();
+		System.out.println(String.format("Transpositions: %d/%d entries, %.1f%% hit rate, %d evicted, %d released, ~%d MB",
+				table.size(), capacity, 100 * getHitRate(), evictions.get(), released.get(), getEstimatedMemory() >> 20));
+	}
+}
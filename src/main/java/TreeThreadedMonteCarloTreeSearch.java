@@ -1,70 +1,263 @@
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
 
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.LocalGameRepository;
+import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
 import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.propnet.ConcurrentPropNetStateMachine;
 
+/**
+ * Root-parallel Monte Carlo tree search: each thread searches its own
+ * independent tree from the current state, with its own state machine, and
+ * the statistics of the root children are merged across trees when the
+ * search ends.
+ *
+ * If a sync interval is given, the threads also meet at that interval
+ * during the search, and every tree's root and root children are given an
+ * even share of the merged statistics, so that all trees spend the rest of
+ * the search on the moves that look best overall. The shares add up to the
+ * merged totals, so nothing is counted twice or lost in the final merge.
+ *
+ * Each tree's state machine comes from ConcurrentPropNetStateMachine.workerFor,
+ * so the machine passed in must either be a propnet machine, possibly
+ * inside a FailsafeStateMachine, or otherwise thread-safe.
+ */
 public class TreeThreadedMonteCarloTreeSearch extends MonteCarloTreeSearch {
 
 	public TreeThreadedMonteCarloTreeSearch(StateMachine machine, Role role) {
+		this(machine, role, NUM_THREADS, 0);
+	}
+
+	/**
+	 * @param syncMillis How often the trees share their root statistics
+	 * during a search, or 0 to only merge them at the end.
+	 */
+	public TreeThreadedMonteCarloTreeSearch(StateMachine machine, Role role, int numTrees, long syncMillis) {
 		super(machine, role);
+		this.numTrees = numTrees;
+		this.syncMillis = syncMillis;
 	}
 
 	public static final int NUM_THREADS = 4;
 
+	private final int numTrees;
+	private final long syncMillis;
+	// Merged statistics of the root children: visits and total utility per move.
+	private Map<Move, double[]> merged = new HashMap<Move, double[]>();
+	private long lastDepthCharges = 0;
+	private long lastSearchMillis = 0;
+
 	class TreeThread extends Thread {
-		MonteCarloTreeSearch tree;
-		public TreeThread(MonteCarloTreeSearch tree) {
+		final MonteCarloTreeSearch tree;
+		final long start, stop;
+		final CyclicBarrier barrier;
+		Exception failure = null;
+
+		public TreeThread(MonteCarloTreeSearch tree, long start, long stop, CyclicBarrier barrier) {
 			this.tree = tree;
+			this.start = start;
+			this.stop = stop;
+			this.barrier = barrier;
 		}
 
 		@Override
 		public void run() {
 			try {
-                while (!Thread.interrupted()) {
-                    tree.search();
-                }
-			} catch(Exception exc) {
-				System.out.println("[THREAD EXCEPTION] Malformed game!");
+				// Every thread works through the same schedule of rounds, so
+				// they all reach the barrier the same number of times.
+				for (int round = 1; ; round++) {
+					long end = (barrier == null) ? stop : Math.min(stop, start + round * syncMillis);
+					while (System.currentTimeMillis() < end) {
+						tree.search();
+					}
+					if (end >= stop) break;
+					barrier.await();
+				}
+			} catch (BrokenBarrierException | InterruptedException e) {
+				// Another tree failed; its own exception is reported.
+			} catch (Exception e) {
+				failure = e;
+				if (barrier != null) barrier.reset();
 			}
 		}
 	}
 
-	private List<MonteCarloTreeSearch> searchTrees(Duration searchTime) {
-        List<MonteCarloTreeSearch> trees = new ArrayList<MonteCarloTreeSearch>();
-        List<TreeThread> threads = new ArrayList<TreeThread>();
-		try {
-			// 1. Construct trees and start threads
-            for (int i = 0; i < NUM_THREADS; i++) {
-                MonteCarloTreeSearch tree = new MonteCarloTreeSearch(stateMachine, role);//, root.state);
-                TreeThread thread = new TreeThread(tree);
-                trees.add(tree);
-                thread.start();
-            }
-            // 2. Wait for searchTime
-            Thread.sleep(searchTime.toMillis());
-            // 3. Interrupt & join threads
-            for (TreeThread thread : threads)
-                thread.interrupt();
-            for (TreeThread thread : threads)
-                thread.join();
-		} catch (InterruptedException e) {
-				e.printStackTrace();
+	private List<MonteCarloTreeSearch> searchTrees(Duration searchTime) throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		final List<MonteCarloTreeSearch> trees = new ArrayList<MonteCarloTreeSearch>();
+		List<TreeThread> threads = new ArrayList<TreeThread>();
+		for (int i = 0; i < numTrees; i++) {
+			// Each tree gets its own evaluation context when the machine supports it.
+			StateMachine treeMachine = ConcurrentPropNetStateMachine.workerFor(stateMachine);
+			trees.add(new MonteCarloTreeSearch(treeMachine, role, root.state));
+		}
+		CyclicBarrier barrier = null;
+		if (syncMillis > 0) {
+			barrier = new CyclicBarrier(numTrees, new Runnable() {
+				@Override
+				public void run() {
+					synchronizeRoots(trees);
+				}
+			});
+		}
+
+		long start = System.currentTimeMillis();
+		long stop = start + searchTime.toMillis();
+		for (MonteCarloTreeSearch tree : trees) {
+			TreeThread thread = new TreeThread(tree, start, stop, barrier);
+			threads.add(thread);
+			thread.start();
+		}
+		for (TreeThread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		lastSearchMillis = System.currentTimeMillis() - start;
+
+		for (TreeThread thread : threads) {
+			Exception e = thread.failure;
+			if (e instanceof MoveDefinitionException) throw (MoveDefinitionException) e;
+			if (e instanceof TransitionDefinitionException) throw (TransitionDefinitionException) e;
+			if (e instanceof GoalDefinitionException) throw (GoalDefinitionException) e;
+			if (e != null) throw new RuntimeException(e);
 		}
 		return trees;
 	}
 
+	// Sums the root children's statistics over all trees, by move: visits,
+	// total utility and the number of trees that have the child.
+	private static Map<Move, double[]> mergeRoots(List<MonteCarloTreeSearch> trees) {
+		Map<Move, double[]> totals = new HashMap<Move, double[]>();
+		for (MonteCarloTreeSearch tree : trees) {
+			for (Map.Entry<Move, Node> entry : ((MaxNode) tree.root).childrenMap.entrySet()) {
+				double[] total = totals.get(entry.getKey());
+				if (total == null) {
+					total = new double[3];
+					totals.put(entry.getKey(), total);
+				}
+				total[0] += entry.getValue().visits;
+				total[1] += entry.getValue().utility;
+				total[2]++;
+			}
+		}
+		return totals;
+	}
+
+	// Runs while every thread waits at the barrier, so no tree is changing.
+	private void synchronizeRoots(List<MonteCarloTreeSearch> trees) {
+		Map<Move, double[]> totals = mergeRoots(trees);
+		double[] rootTotal = new double[2];
+		for (MonteCarloTreeSearch tree : trees) {
+			rootTotal[0] += tree.root.visits;
+			rootTotal[1] += tree.root.utility;
+		}
+		Map<Move, Integer> shared = new HashMap<Move, Integer>();
+		for (int i = 0; i < trees.size(); i++) {
+			MonteCarloTreeSearch tree = trees.get(i);
+			for (Map.Entry<Move, Node> entry : ((MaxNode) tree.root).childrenMap.entrySet()) {
+				Integer index = shared.get(entry.getKey());
+				index = (index == null) ? 0 : index;
+				shared.put(entry.getKey(), index + 1);
+				double[] total = totals.get(entry.getKey());
+				setShare(entry.getValue(), total, index, (int) total[2]);
+			}
+			setShare(tree.root, rootTotal, i, trees.size());
+		}
+	}
+
+	// Gives the node its share of the total visits and utility. The visits
+	// are split as evenly as they go, so that the shares add up to the total
+	// and nothing is lost at the final merge, and each share of utility
+	// keeps the total's average.
+	private static void setShare(Node node, double[] total, int index, int count) {
+		int visits = (int) total[0];
+		int share = visits / count + ((index < visits % count) ? 1 : 0);
+		double utility = (visits == 0) ? total[1] / count : total[1] * share / visits;
+		node.setStats(share, utility);
+	}
+
 	@Override
-	public void search(Duration searchTime) {
-		System.out.println("ThreadedMonteCarloTreeSearch: searching trees");
+	public void search(Duration searchTime) throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
 		List<MonteCarloTreeSearch> trees = searchTrees(searchTime);
-		System.out.println("ThreadedMonteCarloTreeSearch: combining trees");
+		merged = mergeRoots(trees);
+		lastDepthCharges = 0;
 		for (MonteCarloTreeSearch tree : trees) {
-			System.out.println("children before combine: " + root.children.size());
-			System.out.println("children before combine: " + tree.root.children.size());
-			//root.combineTree(tree.root);
-			System.out.println("children after: " + root.children.size());
+			lastDepthCharges += tree.getNumDepthCharges();
+		}
+	}
+
+	@Override
+	public Move chooseMove() {
+		double bestScore = -1;
+		Move bestMove = null;
+		for (Map.Entry<Move, double[]> entry : merged.entrySet()) {
+			double[] total = entry.getValue();
+			if (total[0] == 0) continue;
+			double score = total[1] / total[0];
+			if (score > bestScore) {
+				bestScore = score;
+				bestMove = entry.getKey();
+			}
+		}
+		return bestMove;
+	}
+
+	@Override
+	public void printStats() {
+		System.out.println("=========MCTS STATS=========");
+		System.out.println("Trees: " + numTrees + (syncMillis > 0 ? ", synced every " + syncMillis + " ms" : ""));
+		System.out.println("Depth charges: " + lastDepthCharges);
+		if (lastSearchMillis > 0) {
+			System.out.println("Depth charges/sec: " + lastDepthCharges * 1000 / lastSearchMillis);
 		}
+		System.out.println("============================");
+	}
+
+	/**
+	 * Throughput report: runs single-tree search and root-parallel search for
+	 * the same time on a game from the local repository, and prints the depth
+	 * charges per second of each.
+	 *
+	 * Usage: TreeThreadedMonteCarloTreeSearch [gameKey] [seconds] [trees]
+	 */
+	public static void main(String[] args) throws Exception {
+		String gameKey = (args.length > 0) ? args[0] : "connectFour";
+		Duration searchTime = Duration.ofSeconds((args.length > 1) ? Long.parseLong(args[1]) : 10);
+		int numTrees = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+		LocalGameRepository repository = new LocalGameRepository();
+		Game game;
+		try {
+			game = repository.getGame(gameKey);
+		} finally {
+			repository.cleanUp();
+		}
+		StateMachine machine = new ConcurrentPropNetStateMachine();
+		machine.initialize(game.getRules());
+		Role role = machine.getRoles().get(0);
+
+		MonteCarloTreeSearch single = new MonteCarloTreeSearch(machine, role);
+		single.search(searchTime);
+		double singleRate = single.getNumDepthCharges() * 1000.0 / searchTime.toMillis();
+
+		TreeThreadedMonteCarloTreeSearch parallel = new TreeThreadedMonteCarloTreeSearch(machine, role, numTrees, 0);
+		parallel.search(searchTime);
+		double parallelRate = parallel.lastDepthCharges * 1000.0 / parallel.lastSearchMillis;
+
+		System.out.println(String.format("%s, %d s per search:", gameKey, searchTime.getSeconds()));
+		System.out.println(String.format("  single tree      %10.1f depth charges/s", singleRate));
+		System.out.println(String.format("  %2d root-parallel %10.1f depth charges/s  (%.2fx)", numTrees, parallelRate, parallelRate / singleRate));
 	}
 }
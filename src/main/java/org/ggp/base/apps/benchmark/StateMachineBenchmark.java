@@ -0,0 +1,82 @@
+package org.ggp.base.apps.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.LocalGameRepository;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.DifferentialPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.GeneratedPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.SamplePropNetStateMachine;
+
+/**
+ * StateMachineBenchmark measures how many random rollouts per second (see
+ * {@link StateMachine#performRollout}) each of the propnet state machines
+ * can run on a game from the local
+ * repository in games/. It's meant for comparing reasoning backends against
+ * each other on the same game, not for absolute numbers.
+ *
+ * Usage: StateMachineBenchmark [gameKey] [secondsPerMachine]
+ *
+ * The game defaults to connectFour, and each machine is run for ten seconds
+ * after a short warm-up, so the JIT has settled before timing starts.
+ */
+public final class StateMachineBenchmark {
+    public static void main(String[] args) throws Exception {
+        String gameKey = (args.length > 0) ? args[0] : "connectFour";
+        long millis = (args.length > 1) ? Long.parseLong(args[1]) * 1000 : 10000;
+
+        LocalGameRepository repository = new LocalGameRepository();
+        Game game;
+        try {
+            game = repository.getGame(gameKey);
+        } finally {
+            repository.cleanUp();
+        }
+        if (game == null) {
+            System.err.println("No game named " + gameKey + " in the local repository.");
+            return;
+        }
+
+        List<StateMachine> machines = new ArrayList<StateMachine>();
+        machines.add(new SamplePropNetStateMachine());
+        machines.add(new CompiledPropNetStateMachine());
+        machines.add(new DifferentialPropNetStateMachine());
+        machines.add(new GeneratedPropNetStateMachine());
+
+        System.out.println("Benchmarking " + gameKey + " for " + (millis / 1000) + "s per machine:");
+        for (StateMachine machine : machines) {
+            long start = System.currentTimeMillis();
+            machine.initialize(game.getRules());
+            long initMillis = System.currentTimeMillis() - start;
+
+            runRollouts(machine, millis / 5);
+            long[] result = runRollouts(machine, millis);
+            System.out.println(String.format("  %-36s %10.1f rollouts/s %6.1f avg depth  (initialized in %d ms)",
+                    machine.getClass().getSimpleName(), result[0] * 1000.0 / millis,
+                    result[1] / (double) Math.max(result[0], 1), initMillis));
+        }
+    }
+
+    /**
+     * Runs rollouts from the initial state for the given number of
+     * milliseconds, and returns how many were completed along with their
+     * total depth. The depth is worth checking: a machine that wrongly
+     * reports the initial state as terminal looks very fast.
+     */
+    static long[] runRollouts(StateMachine machine, long millis) throws Exception {
+        MachineState initial = machine.getInitialState();
+        int[] goals = new int[machine.getRoles().size()];
+        long rollouts = 0;
+        long totalDepth = 0;
+        long stop = System.currentTimeMillis() + millis;
+        while (System.currentTimeMillis() < stop) {
+            totalDepth += machine.performRollout(initial, goals);
+            rollouts++;
+        }
+        return new long[] { rollouts, totalDepth };
+    }
+}
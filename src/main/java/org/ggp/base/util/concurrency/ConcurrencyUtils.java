@@ -1,11 +1,41 @@
 package org.ggp.base.util.concurrency;
 
+import java.util.concurrent.Callable;
+
 public class ConcurrencyUtils {
+	//The thread that a pooled thread is currently doing work for, if any
+	private static final ThreadLocal<Thread> owner = new ThreadLocal<Thread>();
+
 	/**
 	 * If the thread has been interrupted, throws an InterruptedException.
+	 * The same goes for the thread this one is doing work for, when called
+	 * from within {@link #callOnBehalfOf(Thread, Callable)}.
 	 */
 	public static void checkForInterruption() throws InterruptedException {
 		if (Thread.currentThread().isInterrupted())
 			throw new InterruptedException();
+		Thread ownerThread = owner.get();
+		if (ownerThread != null && ownerThread.isInterrupted())
+			throw new InterruptedException();
+	}
+
+	/**
+	 * Calls the task on this thread on behalf of the given one, so that
+	 * interrupting the given thread makes {@link #checkForInterruption()}
+	 * throw here, too. This lets work handed off to a thread pool stop when
+	 * the thread waiting on it is interrupted.
+	 */
+	public static <T> T callOnBehalfOf(Thread ownerThread, Callable<T> task) throws Exception {
+		Thread previousOwner = owner.get();
+		owner.set(ownerThread);
+		try {
+			return task.call();
+		} finally {
+			if (previousOwner == null) {
+				owner.remove();
+			} else {
+				owner.set(previousOwner);
+			}
+		}
 	}
 }
@@ -0,0 +1,789 @@
+package org.ggp.base.util.propnet.architecture;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.factory.exceptions.GdlFormatException;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlRelation;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.architecture.components.Transition;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.symbol.factory.exceptions.SymbolFormatException;
+
+/**
+ * The CompiledPropNet class lowers a {@link PropNet} into flat integer tables
+ * so that it can be evaluated with tight array loops instead of by walking
+ * the Component object graph.
+ *
+ * Every component is given an index. Base propositions occupy indices
+ * [0, numBases), input propositions occupy [numBases, numBases + numInputs),
+ * and the init proposition sits at {@link #getInitIndex()}. These "sources"
+ * are never computed; their values are set from the state and the moves being
+ * queried. All remaining components follow in topological order, so a single
+ * forward pass over them computes the value of every gate.
+ *
+ * Values live in a caller-supplied <tt>long[]</tt> bitset indexed by
+ * component. Because the bases come first, the bits of a game state can be
+ * copied straight into the low words of the value array.
+ *
+ * The topology is immutable once built, so one instance can be shared by any
+ * number of value arrays (and threads).
+ */
+public final class CompiledPropNet
+{
+    /** Bases, inputs and init: set from outside, never computed. */
+    public static final int TYPE_SOURCE = 0;
+    public static final int TYPE_TRUE = 1;
+    public static final int TYPE_FALSE = 2;
+    public static final int TYPE_AND = 3;
+    public static final int TYPE_OR = 4;
+    public static final int TYPE_NOT = 5;
+    /** View propositions and transitions, which copy their single input. */
+    public static final int TYPE_COPY = 6;
+
+    private final int numComponents;
+    private final int numBases;
+    private final int numInputs;
+    private final int initIndex;
+    private final int firstComputed;
+
+    private final int[] types;
+    private final int[] inputOffsets;
+    private final int[] inputs;
+    private final int[] outputOffsets;
+    private final int[] outputs;
+
+    /** The index of the transition feeding each base proposition. */
+    private final int[] baseTransitions;
+    private final GdlSentence[] baseSentences;
+    private final int[] baseSentenceHashes;
+    private final Map<GdlSentence, Integer> baseIndices;
+    private final GdlSentence[] inputSentences;
+
+    private final List<Role> roles;
+    private final int terminalIndex;
+    private final int[][] legalIndices;
+    private final Move[][] legalMoves;
+    private final int[][] goalIndices;
+    private final int[][] goalValues;
+    private final List<Map<Move, Integer>> inputIndices;
+    /** The input proposition of each legal move, or -1 if it has none. */
+    private final int[][] legalInputs;
+
+    /**
+     * Compiles the given propnet. The propnet itself is not modified and may
+     * be discarded afterwards.
+     */
+    public CompiledPropNet(PropNet propNet)
+    {
+        this(new Tables(propNet));
+    }
+
+    private CompiledPropNet(Tables tables)
+    {
+        this.roles = tables.roles;
+        this.numComponents = tables.types.length;
+        this.numBases = tables.baseSentences.length;
+        this.numInputs = tables.inputSentences.length;
+        this.initIndex = tables.initIndex;
+        this.firstComputed = tables.firstComputed;
+        this.types = tables.types;
+        this.inputOffsets = tables.inputOffsets;
+        this.inputs = tables.inputs;
+        this.outputOffsets = tables.outputOffsets;
+        this.outputs = tables.outputs;
+        this.baseTransitions = tables.baseTransitions;
+        this.baseSentences = tables.baseSentences;
+        this.inputSentences = tables.inputSentences;
+        this.terminalIndex = tables.terminalIndex;
+        this.legalIndices = tables.legalIndices;
+        this.legalMoves = tables.legalMoves;
+        this.goalIndices = tables.goalIndices;
+        this.goalValues = tables.goalValues;
+
+        this.baseSentenceHashes = new int[numBases];
+        this.baseIndices = new HashMap<GdlSentence, Integer>();
+        for (int i = 0; i < numBases; i++) {
+            baseSentenceHashes[i] = baseSentences[i].hashCode();
+            baseIndices.put(baseSentences[i], i);
+        }
+
+        this.inputIndices = new ArrayList<Map<Move, Integer>>(roles.size());
+        this.legalInputs = new int[roles.size()][];
+        for (int r = 0; r < roles.size(); r++) {
+            Role role = roles.get(r);
+            Map<Move, Integer> roleInputs = new HashMap<Move, Integer>();
+            for (int i = 0; i < numInputs; i++) {
+                GdlRelation does = (GdlRelation) inputSentences[i];
+                if (does.get(0).equals(role.getName())) {
+                    roleInputs.put(new Move(does.get(1)), numBases + i);
+                }
+            }
+            inputIndices.add(roleInputs);
+
+            legalInputs[r] = new int[legalMoves[r].length];
+            for (int i = 0; i < legalMoves[r].length; i++) {
+                Integer input = roleInputs.get(legalMoves[r][i]);
+                legalInputs[r][i] = (input == null) ? -1 : input;
+            }
+        }
+    }
+
+    /**
+     * The tables that make up a compiled propnet; everything else is derived
+     * from them.
+     */
+    private static final class Tables
+    {
+        private List<Role> roles;
+        private int initIndex;
+        private int firstComputed;
+        private int[] types;
+        private int[] inputOffsets;
+        private int[] inputs;
+        private int[] outputOffsets;
+        private int[] outputs;
+        private int[] baseTransitions;
+        private GdlSentence[] baseSentences;
+        private GdlSentence[] inputSentences;
+        private int terminalIndex;
+        private int[][] legalIndices;
+        private Move[][] legalMoves;
+        private int[][] goalIndices;
+        private int[][] goalValues;
+
+        private Tables()
+        {
+        }
+
+        private Tables(PropNet propNet)
+        {
+            this.roles = propNet.getRoles();
+
+            List<Proposition> bases = sortedByName(propNet.getBasePropositions().values());
+            List<Proposition> inputProps = sortedByName(propNet.getInputPropositions().values());
+            Proposition init = propNet.getInitProposition();
+
+            Map<Component, Integer> indices = new IdentityHashMap<Component, Integer>();
+            List<Component> order = new ArrayList<Component>(propNet.getComponents().size() + 1);
+            for (Proposition base : bases) {
+                indices.put(base, order.size());
+                order.add(base);
+            }
+            for (Proposition input : inputProps) {
+                indices.put(input, order.size());
+                order.add(input);
+            }
+            this.initIndex = order.size();
+            // The init slot always exists, even in propnets without an init
+            // proposition, so that the layout does not depend on it.
+            order.add(init);
+            if (init != null) {
+                indices.put(init, initIndex);
+            }
+            this.firstComputed = order.size();
+            Set<Component> sources = PropNetOrdering.getSources(propNet.getBasePropositions(),
+                    propNet.getInputPropositions(), init);
+            for (Component c : PropNetOrdering.order(propNet.getComponents(), sources)) {
+                indices.put(c, order.size());
+                order.add(c);
+            }
+            int numComponents = order.size();
+
+            this.types = new int[numComponents];
+            this.inputOffsets = new int[numComponents + 1];
+            this.outputOffsets = new int[numComponents + 1];
+            List<Integer> flatInputs = new ArrayList<Integer>();
+            List<Integer> flatOutputs = new ArrayList<Integer>();
+            for (int i = 0; i < numComponents; i++) {
+                Component c = order.get(i);
+                types[i] = (i < firstComputed) ? TYPE_SOURCE : typeOf(c);
+                inputOffsets[i] = flatInputs.size();
+                outputOffsets[i] = flatOutputs.size();
+                if (c == null) {
+                    continue;
+                }
+                if (types[i] != TYPE_SOURCE) {
+                    for (Component input : c.getInputs()) {
+                        flatInputs.add(indices.get(input));
+                    }
+                }
+                for (Component output : c.getOutputs()) {
+                    // Edges into sources (transition -> base) are handled by the
+                    // state update, not by propagation.
+                    int o = indices.get(output);
+                    if (o >= firstComputed) {
+                        flatOutputs.add(o);
+                    }
+                }
+            }
+            inputOffsets[numComponents] = flatInputs.size();
+            outputOffsets[numComponents] = flatOutputs.size();
+            this.inputs = toArray(flatInputs);
+            this.outputs = toArray(flatOutputs);
+
+            this.baseTransitions = new int[bases.size()];
+            this.baseSentences = new GdlSentence[bases.size()];
+            for (int i = 0; i < bases.size(); i++) {
+                Proposition base = bases.get(i);
+                baseTransitions[i] = indices.get(base.getSingleInput());
+                baseSentences[i] = base.getName();
+            }
+            this.inputSentences = new GdlSentence[inputProps.size()];
+            for (int i = 0; i < inputProps.size(); i++) {
+                inputSentences[i] = inputProps.get(i).getName();
+            }
+
+            Proposition terminal = propNet.getTerminalProposition();
+            this.terminalIndex = (terminal == null) ? -1 : indices.get(terminal);
+
+            this.legalIndices = new int[roles.size()][];
+            this.legalMoves = new Move[roles.size()][];
+            this.goalIndices = new int[roles.size()][];
+            this.goalValues = new int[roles.size()][];
+            for (int r = 0; r < roles.size(); r++) {
+                Role role = roles.get(r);
+
+                List<Proposition> legals = sortedByName(propNet.getLegalPropositions().get(role));
+                legalIndices[r] = new int[legals.size()];
+                legalMoves[r] = new Move[legals.size()];
+                for (int i = 0; i < legals.size(); i++) {
+                    legalIndices[r][i] = indices.get(legals.get(i));
+                    legalMoves[r][i] = new Move(legals.get(i).getName().get(1));
+                }
+
+                List<Proposition> goals = sortedByName(propNet.getGoalPropositions().get(role));
+                goalIndices[r] = new int[goals.size()];
+                goalValues[r] = new int[goals.size()];
+                for (int i = 0; i < goals.size(); i++) {
+                    goalIndices[r][i] = indices.get(goals.get(i));
+                    goalValues[r][i] = getGoalValue(goals.get(i));
+                }
+            }
+        }
+    }
+
+    private static List<Proposition> sortedByName(Iterable<Proposition> propositions)
+    {
+        List<Proposition> sorted = new ArrayList<Proposition>();
+        if (propositions != null) {
+            for (Proposition p : propositions) {
+                sorted.add(p);
+            }
+        }
+        Collections.sort(sorted, new Comparator<Proposition>() {
+            @Override
+            public int compare(Proposition a, Proposition b) {
+                return a.getName().toString().compareTo(b.getName().toString());
+            }
+        });
+        return sorted;
+    }
+
+    private static int typeOf(Component c)
+    {
+        if (c instanceof And) {
+            return TYPE_AND;
+        } else if (c instanceof Or) {
+            return TYPE_OR;
+        } else if (c instanceof Not) {
+            return TYPE_NOT;
+        } else if (c instanceof Constant) {
+            return c.getValue() ? TYPE_TRUE : TYPE_FALSE;
+        } else if (c instanceof Transition) {
+            return TYPE_COPY;
+        } else if (c.getInputs().size() == 1) {
+            // A view proposition.
+            return TYPE_COPY;
+        } else {
+            // A proposition with no inputs that isn't a base, input or init
+            // can never become true; one with several behaves like an OR.
+            return c.getInputs().isEmpty() ? TYPE_FALSE : TYPE_OR;
+        }
+    }
+
+    private static int getGoalValue(Proposition goalProposition)
+    {
+        GdlRelation relation = (GdlRelation) goalProposition.getName();
+        GdlConstant constant = (GdlConstant) relation.get(1);
+        return Integer.parseInt(constant.toString());
+    }
+
+    private static int[] toArray(List<Integer> list)
+    {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    /* Serialization */
+
+    /**
+     * Writes the tables of this propnet in the format that
+     * {@link #read(ByteBuffer)} reads. Roles, sentences and moves are written
+     * as GDL text, so reading them interns them in the GdlPool again.
+     */
+    public void write(DataOutput out) throws IOException
+    {
+        out.writeInt(roles.size());
+        for (Role role : roles) {
+            writeString(out, role.getName().toString());
+        }
+        out.writeInt(numComponents);
+        out.writeInt(initIndex);
+        out.writeInt(firstComputed);
+        out.writeInt(terminalIndex);
+        for (int type : types) {
+            out.writeByte(type);
+        }
+        writeInts(out, inputOffsets);
+        writeInts(out, inputs);
+        writeInts(out, outputOffsets);
+        writeInts(out, outputs);
+        writeSentences(out, baseSentences);
+        writeInts(out, baseTransitions);
+        writeSentences(out, inputSentences);
+        for (int r = 0; r < roles.size(); r++) {
+            writeInts(out, legalIndices[r]);
+            for (Move move : legalMoves[r]) {
+                writeString(out, move.getContents().toString());
+            }
+            writeInts(out, goalIndices[r]);
+            writeInts(out, goalValues[r]);
+        }
+    }
+
+    /**
+     * Reads a propnet written by {@link #write(DataOutput)}, starting at the
+     * buffer's position.
+     *
+     * @throws IOException If the tables are malformed.
+     */
+    public static CompiledPropNet read(ByteBuffer in) throws IOException
+    {
+        try {
+            Tables tables = new Tables();
+            int numRoles = readCount(in);
+            tables.roles = new ArrayList<Role>(numRoles);
+            for (int r = 0; r < numRoles; r++) {
+                tables.roles.add(new Role((GdlConstant) GdlFactory.createTerm(readString(in))));
+            }
+            int numComponents = readCount(in);
+            tables.initIndex = in.getInt();
+            tables.firstComputed = in.getInt();
+            tables.terminalIndex = in.getInt();
+            tables.types = new int[numComponents];
+            for (int i = 0; i < numComponents; i++) {
+                tables.types[i] = in.get();
+            }
+            tables.inputOffsets = readInts(in);
+            tables.inputs = readInts(in);
+            tables.outputOffsets = readInts(in);
+            tables.outputs = readInts(in);
+            tables.baseSentences = readSentences(in);
+            tables.baseTransitions = readInts(in);
+            tables.inputSentences = readSentences(in);
+            tables.legalIndices = new int[numRoles][];
+            tables.legalMoves = new Move[numRoles][];
+            tables.goalIndices = new int[numRoles][];
+            tables.goalValues = new int[numRoles][];
+            for (int r = 0; r < numRoles; r++) {
+                tables.legalIndices[r] = readInts(in);
+                tables.legalMoves[r] = new Move[tables.legalIndices[r].length];
+                for (int i = 0; i < tables.legalMoves[r].length; i++) {
+                    tables.legalMoves[r][i] = new Move(GdlFactory.createTerm(readString(in)));
+                }
+                tables.goalIndices[r] = readInts(in);
+                tables.goalValues[r] = readInts(in);
+                checkIndices(tables.legalIndices[r], numComponents);
+                checkIndices(tables.goalIndices[r], numComponents);
+                if (tables.goalValues[r].length != tables.goalIndices[r].length) {
+                    throw new IOException("Goal values don't match goal propositions");
+                }
+            }
+
+            int numSources = tables.baseSentences.length + tables.inputSentences.length;
+            if (tables.initIndex != numSources || tables.firstComputed != numSources + 1
+                    || tables.firstComputed > numComponents
+                    || tables.terminalIndex < -1 || tables.terminalIndex >= numComponents
+                    || tables.inputOffsets.length != numComponents + 1
+                    || tables.outputOffsets.length != numComponents + 1
+                    || tables.baseTransitions.length != tables.baseSentences.length) {
+                throw new IOException("Inconsistent propnet layout");
+            }
+            checkOffsets(tables.inputOffsets, tables.inputs.length);
+            checkOffsets(tables.outputOffsets, tables.outputs.length);
+            checkIndices(tables.inputs, numComponents);
+            checkIndices(tables.outputs, numComponents);
+            checkIndices(tables.baseTransitions, numComponents);
+            for (int type : tables.types) {
+                if (type < TYPE_SOURCE || type > TYPE_COPY) {
+                    throw new IOException("Unknown component type " + type);
+                }
+            }
+            return new CompiledPropNet(tables);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated propnet", e);
+        } catch (SymbolFormatException | GdlFormatException | ClassCastException e) {
+            throw new IOException("Malformed GDL in propnet", e);
+        }
+    }
+
+    private static void writeString(DataOutput out, String string) throws IOException
+    {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) throws IOException
+    {
+        byte[] bytes = new byte[readCount(in)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeInts(DataOutput out, int[] ints) throws IOException
+    {
+        out.writeInt(ints.length);
+        for (int i : ints) {
+            out.writeInt(i);
+        }
+    }
+
+    private static int[] readInts(ByteBuffer in) throws IOException
+    {
+        int[] ints = new int[readCount(in)];
+        in.asIntBuffer().get(ints);
+        in.position(in.position() + 4 * ints.length);
+        return ints;
+    }
+
+    private static void writeSentences(DataOutput out, GdlSentence[] sentences) throws IOException
+    {
+        out.writeInt(sentences.length);
+        for (GdlSentence sentence : sentences) {
+            writeString(out, sentence.toString());
+        }
+    }
+
+    private static GdlSentence[] readSentences(ByteBuffer in) throws IOException, GdlFormatException, SymbolFormatException
+    {
+        GdlSentence[] sentences = new GdlSentence[readCount(in)];
+        for (int i = 0; i < sentences.length; i++) {
+            sentences[i] = (GdlSentence) GdlFactory.create(readString(in));
+        }
+        return sentences;
+    }
+
+    // A count can't be more than the bytes left, so this also guards the allocations
+    private static int readCount(ByteBuffer in) throws IOException
+    {
+        int count = in.getInt();
+        if (count < 0 || count > in.remaining()) {
+            throw new IOException("Bad count " + count);
+        }
+        return count;
+    }
+
+    private static void checkIndices(int[] indices, int bound) throws IOException
+    {
+        for (int index : indices) {
+            if (index < 0 || index >= bound) {
+                throw new IOException("Component index " + index + " out of range");
+            }
+        }
+    }
+
+    private static void checkOffsets(int[] offsets, int end) throws IOException
+    {
+        if (offsets[0] != 0 || offsets[offsets.length - 1] != end) {
+            throw new IOException("Bad edge offsets");
+        }
+        for (int i = 1; i < offsets.length; i++) {
+            if (offsets[i] < offsets[i - 1]) {
+                throw new IOException("Bad edge offsets");
+            }
+        }
+    }
+
+    /* Bitset helpers */
+
+    /**
+     * Returns the number of longs needed to hold the given number of bits.
+     */
+    public static int wordsFor(int bits)
+    {
+        return (bits + 63) >>> 6;
+    }
+
+    public static boolean get(long[] bits, int index)
+    {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public static void set(long[] bits, int index, boolean value)
+    {
+        if (value) {
+            bits[index >>> 6] |= (1L << index);
+        } else {
+            bits[index >>> 6] &= ~(1L << index);
+        }
+    }
+
+    /* Evaluation */
+
+    /**
+     * Allocates a value array large enough to hold every component.
+     */
+    public long[] newValues()
+    {
+        return new long[wordsFor(numComponents)];
+    }
+
+    /**
+     * Copies the given base bits into the base slots of the value array,
+     * clearing all inputs and the init proposition.
+     */
+    public void loadBases(long[] values, long[] baseBits)
+    {
+        int fullWords = numBases >>> 6;
+        System.arraycopy(baseBits, 0, values, 0, fullWords);
+        int remainder = numBases & 63;
+        if (remainder != 0) {
+            long mask = (1L << remainder) - 1;
+            values[fullWords] = (values[fullWords] & ~mask) | (baseBits[fullWords] & mask);
+        }
+        clearInputs(values);
+    }
+
+    /**
+     * Clears every input proposition and the init proposition.
+     */
+    public void clearInputs(long[] values)
+    {
+        for (int i = numBases; i < firstComputed; i++) {
+            set(values, i, false);
+        }
+    }
+
+    /**
+     * Recomputes the value of every non-source component, in topological
+     * order, from the current values of the sources.
+     */
+    public void propagate(long[] values)
+    {
+        for (int c = firstComputed; c < numComponents; c++) {
+            set(values, c, computeValue(values, c));
+        }
+    }
+
+    /**
+     * Computes the value of a single non-source component from the current
+     * values of its inputs.
+     */
+    public boolean computeValue(long[] values, int c)
+    {
+        switch (types[c]) {
+        case TYPE_AND:
+            for (int i = inputOffsets[c]; i < inputOffsets[c + 1]; i++) {
+                if (!get(values, inputs[i])) {
+                    return false;
+                }
+            }
+            return true;
+        case TYPE_OR:
+            for (int i = inputOffsets[c]; i < inputOffsets[c + 1]; i++) {
+                if (get(values, inputs[i])) {
+                    return true;
+                }
+            }
+            return false;
+        case TYPE_NOT:
+            return !get(values, inputs[inputOffsets[c]]);
+        case TYPE_COPY:
+            return get(values, inputs[inputOffsets[c]]);
+        case TYPE_TRUE:
+            return true;
+        case TYPE_FALSE:
+            return false;
+        default:
+            return get(values, c);
+        }
+    }
+
+    /**
+     * Reads the next-state base bits out of a propagated value array.
+     */
+    public void readNextBases(long[] values, long[] nextBaseBits)
+    {
+        for (int w = 0; w < nextBaseBits.length; w++) {
+            nextBaseBits[w] = 0;
+        }
+        for (int b = 0; b < numBases; b++) {
+            if (get(values, baseTransitions[b])) {
+                nextBaseBits[b >>> 6] |= (1L << b);
+            }
+        }
+    }
+
+    /* Topology getters */
+
+    public int getNumComponents()
+    {
+        return numComponents;
+    }
+
+    public int getNumBases()
+    {
+        return numBases;
+    }
+
+    public int getNumInputs()
+    {
+        return numInputs;
+    }
+
+    public int getInitIndex()
+    {
+        return initIndex;
+    }
+
+    /**
+     * @return The index of the first component that is computed rather than
+     *         set from outside.
+     */
+    public int getFirstComputed()
+    {
+        return firstComputed;
+    }
+
+    public int getType(int c)
+    {
+        return types[c];
+    }
+
+    public int[] getInputOffsets()
+    {
+        return inputOffsets;
+    }
+
+    public int[] getInputs()
+    {
+        return inputs;
+    }
+
+    public int[] getOutputOffsets()
+    {
+        return outputOffsets;
+    }
+
+    public int[] getOutputs()
+    {
+        return outputs;
+    }
+
+    public int getBaseTransition(int base)
+    {
+        return baseTransitions[base];
+    }
+
+    public GdlSentence getBaseSentence(int base)
+    {
+        return baseSentences[base];
+    }
+
+    /**
+     * @return The hash code of each base sentence, indexed by base.
+     */
+    public int[] getBaseSentenceHashes()
+    {
+        return baseSentenceHashes;
+    }
+
+    /**
+     * @return The index of the given base sentence, or null if the sentence
+     *         is not a base proposition of this propnet.
+     */
+    public Integer getBaseIndex(GdlSentence sentence)
+    {
+        return baseIndices.get(sentence);
+    }
+
+    public GdlSentence getInputSentence(int input)
+    {
+        return inputSentences[input];
+    }
+
+    public List<Role> getRoles()
+    {
+        return roles;
+    }
+
+    public int getTerminalIndex()
+    {
+        return terminalIndex;
+    }
+
+    public int[] getLegalIndices(int role)
+    {
+        return legalIndices[role];
+    }
+
+    public Move[] getLegalMoves(int role)
+    {
+        return legalMoves[role];
+    }
+
+    /**
+     * @return The component index of the input proposition for each of the
+     *         role's legal moves, in the same order as
+     *         {@link #getLegalMoves(int)}, or -1 where a move has none.
+     */
+    public int[] getLegalInputIndices(int role)
+    {
+        return legalInputs[role];
+    }
+
+    public int[] getGoalIndices(int role)
+    {
+        return goalIndices[role];
+    }
+
+    public int[] getGoalValues(int role)
+    {
+        return goalValues[role];
+    }
+
+    /**
+     * @return The component index of the input proposition for the given
+     *         role making the given move, or -1 if the move has no input
+     *         proposition (for instance because it never affects the game).
+     */
+    public int getInputIndex(int role, Move move)
+    {
+        Integer index = inputIndices.get(role).get(move);
+        return (index == null) ? -1 : index;
+    }
+}
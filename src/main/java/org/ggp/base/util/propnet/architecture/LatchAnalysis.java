@@ -0,0 +1,396 @@
+package org.ggp.base.util.propnet.architecture;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.concurrency.ConcurrencyUtils;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.logging.GamerLogger;
+
+/**
+ * Finds the latches of a propnet: base propositions that, once true (or
+ * once false), stay that way for the rest of the game, whatever the other
+ * bases are and whatever moves are made. Typical latches are filled cells,
+ * captured pieces and "game decided" flags.
+ *
+ * A base is tested by fixing it to the value, leaving every other base and
+ * every input unknown, and propagating three-valued logic through the
+ * compiled propnet: if the base's transition still comes out with the same
+ * value, the base is a latch. The same propagation tells what the latch
+ * forces for as long as it holds: a terminal state, a goal for some role,
+ * or goals a role can no longer reach. Since the latch holds from then on,
+ * these hold in every later state too, including the terminal one.
+ *
+ * Each latch is analysed on its own, so implications that need two latches
+ * together aren't found. Everything reported is safe to rely on.
+ *
+ * The analysis is immutable once built, and can be shared between threads.
+ */
+public final class LatchAnalysis
+{
+    private static final byte FALSE = 0;
+    private static final byte TRUE = 1;
+    private static final byte UNKNOWN = 2;
+
+    private final CompiledPropNet propNet;
+    /** The base bits of the bases that are latched true, and false */
+    private final long[] trueLatches;
+    private final long[] falseLatches;
+
+    /** Every latch, as its base and the value it's latched at */
+    private final int[] latchBases;
+    private final boolean[] latchValues;
+    /** The latches that force a terminal state */
+    private final int[] terminalLatches;
+    /** Per role, the latches that force one of its goals, and the goal values they force */
+    private final int[][] goalLatches;
+    private final int[][] forcedGoalValues;
+    /** Per role, the latches that rule out any of its goals, and which goals they rule out */
+    private final int[][] lockoutLatches;
+    private final boolean[][][] lockedOutGoals;
+
+    private LatchAnalysis(CompiledPropNet propNet, List<Integer> bases, List<Boolean> values, List<Byte> terminal, List<byte[][]> goals)
+    {
+        this.propNet = propNet;
+        int numRoles = propNet.getRoles().size();
+        trueLatches = new long[CompiledPropNet.wordsFor(propNet.getNumBases())];
+        falseLatches = new long[CompiledPropNet.wordsFor(propNet.getNumBases())];
+        latchBases = new int[bases.size()];
+        latchValues = new boolean[bases.size()];
+        List<Integer> terminalList = new ArrayList<Integer>();
+        List<List<Integer>> goalList = new ArrayList<List<Integer>>();
+        List<List<Integer>> goalValueList = new ArrayList<List<Integer>>();
+        List<List<Integer>> lockoutList = new ArrayList<List<Integer>>();
+        List<List<boolean[]>> lockedOutList = new ArrayList<List<boolean[]>>();
+        for (int r = 0; r < numRoles; r++) {
+            goalList.add(new ArrayList<Integer>());
+            goalValueList.add(new ArrayList<Integer>());
+            lockoutList.add(new ArrayList<Integer>());
+            lockedOutList.add(new ArrayList<boolean[]>());
+        }
+
+        for (int i = 0; i < latchBases.length; i++) {
+            latchBases[i] = bases.get(i);
+            latchValues[i] = values.get(i);
+            CompiledPropNet.set(latchValues[i] ? trueLatches : falseLatches, latchBases[i], true);
+            if (terminal.get(i) == TRUE) {
+                terminalList.add(i);
+            }
+            for (int r = 0; r < numRoles; r++) {
+                byte[] goalValues = goals.get(i)[r];
+                boolean[] lockedOut = new boolean[goalValues.length];
+                boolean anyLockedOut = false;
+                for (int g = 0; g < goalValues.length; g++) {
+                    if (goalValues[g] == TRUE) {
+                        goalList.get(r).add(i);
+                        goalValueList.get(r).add(propNet.getGoalValues(r)[g]);
+                    } else if (goalValues[g] == FALSE) {
+                        lockedOut[g] = true;
+                        anyLockedOut = true;
+                    }
+                }
+                if (anyLockedOut) {
+                    lockoutList.get(r).add(i);
+                    lockedOutList.get(r).add(lockedOut);
+                }
+            }
+        }
+
+        terminalLatches = toArray(terminalList);
+        goalLatches = new int[numRoles][];
+        forcedGoalValues = new int[numRoles][];
+        lockoutLatches = new int[numRoles][];
+        lockedOutGoals = new boolean[numRoles][][];
+        for (int r = 0; r < numRoles; r++) {
+            goalLatches[r] = toArray(goalList.get(r));
+            forcedGoalValues[r] = toArray(goalValueList.get(r));
+            lockoutLatches[r] = toArray(lockoutList.get(r));
+            lockedOutGoals[r] = lockedOutList.get(r).toArray(new boolean[0][]);
+        }
+    }
+
+    /**
+     * Analyses the given propnet. This makes two three-valued propagations
+     * per base, each through only the part of the propnet the base reaches.
+     */
+    public static LatchAnalysis analyze(CompiledPropNet propNet) throws InterruptedException
+    {
+        long startTime = System.currentTimeMillis();
+        int numComponents = propNet.getNumComponents();
+        int numRoles = propNet.getRoles().size();
+
+        // With every source unknown, except INIT, which is only true when
+        // computing the initial state
+        byte[] baseline = new byte[numComponents];
+        for (int c = 0; c < propNet.getFirstComputed(); c++) {
+            baseline[c] = UNKNOWN;
+        }
+        baseline[propNet.getInitIndex()] = FALSE;
+        for (int c = propNet.getFirstComputed(); c < numComponents; c++) {
+            baseline[c] = evaluate(propNet, baseline, c);
+        }
+
+        byte[] values = baseline.clone();
+        BitSet dirty = new BitSet(numComponents);
+        List<Integer> changed = new ArrayList<Integer>();
+        List<Integer> bases = new ArrayList<Integer>();
+        List<Boolean> latchValues = new ArrayList<Boolean>();
+        List<Byte> terminal = new ArrayList<Byte>();
+        List<byte[][]> goals = new ArrayList<byte[][]>();
+        for (int b = 0; b < propNet.getNumBases(); b++) {
+            ConcurrencyUtils.checkForInterruption();
+            for (boolean value : new boolean[] { true, false }) {
+                byte fixed = value ? TRUE : FALSE;
+                values[b] = fixed;
+                changed.add(b);
+                markOutputs(propNet, b, dirty);
+                for (int c = dirty.nextSetBit(0); c >= 0; c = dirty.nextSetBit(c + 1)) {
+                    byte newValue = evaluate(propNet, values, c);
+                    if (newValue != values[c]) {
+                        values[c] = newValue;
+                        changed.add(c);
+                        markOutputs(propNet, c, dirty);
+                    }
+                }
+                dirty.clear();
+
+                if (values[propNet.getBaseTransition(b)] == fixed) {
+                    bases.add(b);
+                    latchValues.add(value);
+                    int terminalIndex = propNet.getTerminalIndex();
+                    terminal.add(terminalIndex >= 0 ? values[terminalIndex] : FALSE);
+                    byte[][] goalValues = new byte[numRoles][];
+                    for (int r = 0; r < numRoles; r++) {
+                        int[] goalIndices = propNet.getGoalIndices(r);
+                        goalValues[r] = new byte[goalIndices.length];
+                        for (int g = 0; g < goalIndices.length; g++) {
+                            goalValues[r][g] = values[goalIndices[g]];
+                        }
+                    }
+                    goals.add(goalValues);
+                }
+
+                for (int c : changed) {
+                    values[c] = baseline[c];
+                }
+                changed.clear();
+            }
+        }
+
+        LatchAnalysis analysis = new LatchAnalysis(propNet, bases, latchValues, terminal, goals);
+        GamerLogger.log("StateMachine", "Found " + bases.size() + " latches among " + propNet.getNumBases()
+                + " bases, " + analysis.terminalLatches.length + " of them forcing terminal, in "
+                + (System.currentTimeMillis() - startTime) + " ms.");
+        return analysis;
+    }
+
+    /**
+     * Analyses the given propnet, by compiling it first.
+     */
+    public static LatchAnalysis analyze(PropNet propNet) throws InterruptedException
+    {
+        return analyze(new CompiledPropNet(propNet));
+    }
+
+    // Outputs that are sources are bases fed by transitions; they belong to
+    // the next state, not this one
+    private static void markOutputs(CompiledPropNet propNet, int c, BitSet dirty)
+    {
+        int[] outputOffsets = propNet.getOutputOffsets();
+        int[] outputs = propNet.getOutputs();
+        for (int i = outputOffsets[c]; i < outputOffsets[c + 1]; i++) {
+            if (outputs[i] >= propNet.getFirstComputed()) {
+                dirty.set(outputs[i]);
+            }
+        }
+    }
+
+    private static byte evaluate(CompiledPropNet propNet, byte[] values, int c)
+    {
+        int[] inputOffsets = propNet.getInputOffsets();
+        int[] inputs = propNet.getInputs();
+        int start = inputOffsets[c];
+        int end = inputOffsets[c + 1];
+        switch (propNet.getType(c)) {
+        case CompiledPropNet.TYPE_AND:
+        case CompiledPropNet.TYPE_OR: {
+            // An AND is decided by a false input, an OR by a true one
+            byte decider = (propNet.getType(c) == CompiledPropNet.TYPE_AND) ? FALSE : TRUE;
+            boolean unknown = false;
+            for (int i = start; i < end; i++) {
+                byte value = values[inputs[i]];
+                if (value == decider) {
+                    return decider;
+                }
+                unknown |= (value == UNKNOWN);
+            }
+            if (unknown) {
+                return UNKNOWN;
+            }
+            return (decider == FALSE) ? TRUE : FALSE;
+        }
+        case CompiledPropNet.TYPE_NOT:
+            if (start == end || values[inputs[start]] == UNKNOWN) {
+                return UNKNOWN;
+            }
+            return (values[inputs[start]] == TRUE) ? FALSE : TRUE;
+        case CompiledPropNet.TYPE_COPY:
+            return (start == end) ? UNKNOWN : values[inputs[start]];
+        case CompiledPropNet.TYPE_TRUE:
+            return TRUE;
+        case CompiledPropNet.TYPE_FALSE:
+            return FALSE;
+        default:
+            return values[c];
+        }
+    }
+
+    private static int[] toArray(List<Integer> list)
+    {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    private boolean holds(long[] baseBits, int latch)
+    {
+        return CompiledPropNet.get(baseBits, latchBases[latch]) == latchValues[latch];
+    }
+
+    /* Queries on base bits, as carried by PropNetMachineStates */
+
+    /**
+     * Returns true if the state has a latch that makes it, and every state
+     * after it, terminal.
+     */
+    public boolean isTerminalForced(long[] baseBits)
+    {
+        for (int latch : terminalLatches) {
+            if (holds(baseBits, latch)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the goal value that a latch of the state fixes for the role
+     * for the rest of the game, or -1 if none does.
+     */
+    public int getForcedGoal(long[] baseBits, int role)
+    {
+        int[] latches = goalLatches[role];
+        for (int i = 0; i < latches.length; i++) {
+            if (holds(baseBits, latches[i])) {
+                return forcedGoalValues[role][i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the highest goal value the role can still get from this state
+     * on, leaving out the goals that the state's latches rule out, or -1 if
+     * they rule out all of them. Search can prune lines where this is no
+     * better than what it already has.
+     */
+    public int getBestPossibleGoal(long[] baseBits, int role)
+    {
+        int forced = getForcedGoal(baseBits, role);
+        if (forced >= 0) {
+            return forced;
+        }
+        int[] goalValues = propNet.getGoalValues(role);
+        boolean[] possible = new boolean[goalValues.length];
+        Arrays.fill(possible, true);
+        int[] latches = lockoutLatches[role];
+        for (int i = 0; i < latches.length; i++) {
+            if (holds(baseBits, latches[i])) {
+                boolean[] lockedOut = lockedOutGoals[role][i];
+                for (int g = 0; g < lockedOut.length; g++) {
+                    possible[g] &= !lockedOut[g];
+                }
+            }
+        }
+        int best = -1;
+        for (int g = 0; g < goalValues.length; g++) {
+            if (possible[g]) {
+                best = Math.max(best, goalValues[g]);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns true if some latch forces a terminal state.
+     */
+    public boolean hasTerminalLatches()
+    {
+        return terminalLatches.length > 0;
+    }
+
+    /**
+     * Returns true if, for every role, some latch forces one of its goals;
+     * only then can a playout end before reaching a terminal state.
+     */
+    public boolean canForceAllGoals()
+    {
+        for (int[] latches : goalLatches) {
+            if (latches.length == 0) {
+                return false;
+            }
+        }
+        return goalLatches.length > 0;
+    }
+
+    /* Getters */
+
+    public CompiledPropNet getPropNet()
+    {
+        return propNet;
+    }
+
+    public boolean isLatch(int base, boolean value)
+    {
+        return CompiledPropNet.get(value ? trueLatches : falseLatches, base);
+    }
+
+    public int getNumLatches()
+    {
+        return latchBases.length;
+    }
+
+    /**
+     * @return The sentences of the bases that stay true once they are true.
+     */
+    public Set<GdlSentence> getTrueLatches()
+    {
+        return getSentences(true);
+    }
+
+    /**
+     * @return The sentences of the bases that stay false once they are false.
+     */
+    public Set<GdlSentence> getFalseLatches()
+    {
+        return getSentences(false);
+    }
+
+    private Set<GdlSentence> getSentences(boolean value)
+    {
+        Set<GdlSentence> sentences = new HashSet<GdlSentence>();
+        for (int i = 0; i < latchBases.length; i++) {
+            if (latchValues[i] == value) {
+                sentences.add(propNet.getBaseSentence(latchBases[i]));
+            }
+        }
+        return Collections.unmodifiableSet(sentences);
+    }
+}
@@ -0,0 +1,136 @@
+package org.ggp.base.util.propnet.architecture;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+
+/**
+ * Topological ordering of the components of a propnet, for machines that
+ * evaluate every component once per query in dependency order.
+ *
+ * The ordering uses Kahn's algorithm: each component keeps a count of its
+ * inputs that haven't been ordered yet, and joins the order when the count
+ * reaches zero. Sources, that is the base and input propositions and INIT,
+ * are taken as given and left out of the order. Every set and map is keyed
+ * by identity, so ordering takes time linear in the number of links.
+ *
+ * This only needs the components' links, so it works the same for PropNet,
+ * IIPropNet and the factored copies of propnets.
+ */
+public final class PropNetOrdering
+{
+	private PropNetOrdering()
+	{
+	}
+
+	/**
+	 * Returns the sources of a propnet, for {@link #order(Collection, Set)}:
+	 * its base and input propositions, and its INIT proposition if it has one.
+	 */
+	public static Set<Component> getSources(Map<GdlSentence, Proposition> basePropositions, Map<GdlSentence, Proposition> inputPropositions, Proposition initProposition)
+	{
+		Set<Component> sources = Collections.newSetFromMap(new IdentityHashMap<Component, Boolean>());
+		sources.addAll(basePropositions.values());
+		sources.addAll(inputPropositions.values());
+		if (initProposition != null)
+		{
+			sources.add(initProposition);
+		}
+		return sources;
+	}
+
+	/**
+	 * Orders every component that isn't a source so that each comes after
+	 * all of its inputs, except for the inputs that are sources. Transitions
+	 * are ordered like any other component; since their outputs are base
+	 * propositions, they never hold anything else back.
+	 *
+	 * @throws IllegalStateException If the components contain a cycle that
+	 * doesn't pass through a source.
+	 */
+	public static List<Component> order(Collection<Component> components, Set<Component> sources)
+	{
+		long start = System.currentTimeMillis();
+		Map<Component, Integer> pending = new IdentityHashMap<Component, Integer>();
+		Queue<Component> ready = new ArrayDeque<Component>();
+		for (Component c : components)
+		{
+			if (sources.contains(c))
+			{
+				continue;
+			}
+			int count = 0;
+			for (Component input : c.getInputs())
+			{
+				if (!sources.contains(input))
+				{
+					count++;
+				}
+			}
+			if (count == 0)
+			{
+				ready.add(c);
+			}
+			else
+			{
+				pending.put(c, count);
+			}
+		}
+
+		List<Component> order = new ArrayList<Component>(components.size());
+		while (!ready.isEmpty())
+		{
+			Component c = ready.remove();
+			order.add(c);
+			for (Component output : c.getOutputs())
+			{
+				Integer count = pending.get(output);
+				if (count == null)
+				{
+					continue;
+				}
+				if (count == 1)
+				{
+					pending.remove(output);
+					ready.add(output);
+				}
+				else
+				{
+					pending.put(output, count - 1);
+				}
+			}
+		}
+		if (!pending.isEmpty())
+		{
+			throw new IllegalStateException("PropNet contains a cycle that does not pass through a transition; " + pending.size() + " components could not be ordered.");
+		}
+		GamerLogger.log("StateMachine", "Ordered " + order.size() + " components in " + (System.currentTimeMillis() - start) + " ms.");
+		return order;
+	}
+
+	/**
+	 * Returns the propositions of an order, keeping their relative order.
+	 */
+	public static List<Proposition> getPropositions(List<Component> order)
+	{
+		List<Proposition> propositions = new ArrayList<Proposition>();
+		for (Component c : order)
+		{
+			if (c instanceof Proposition)
+			{
+				propositions.add((Proposition) c);
+			}
+		}
+		return propositions;
+	}
+}
@@ -12,6 +12,10 @@ import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import org.ggp.base.util.Pair;
 import org.ggp.base.util.concurrency.ConcurrencyUtils;
@@ -46,6 +50,7 @@ import org.ggp.base.util.gdl.transforms.DeORer;
 import org.ggp.base.util.gdl.transforms.GdlCleaner;
 import org.ggp.base.util.gdl.transforms.Relationizer;
 import org.ggp.base.util.gdl.transforms.VariableConstrainer;
+import org.ggp.base.util.logging.GamerLogger;
 import org.ggp.base.util.propnet.architecture.Component;
 import org.ggp.base.util.propnet.architecture.PropNet;
 import org.ggp.base.util.propnet.architecture.components.And;
@@ -54,6 +59,7 @@ import org.ggp.base.util.propnet.architecture.components.Not;
 import org.ggp.base.util.propnet.architecture.components.Or;
 import org.ggp.base.util.propnet.architecture.components.Proposition;
 import org.ggp.base.util.propnet.architecture.components.Transition;
+import org.ggp.base.util.propnet.factory.optimizer.PropNetOptimizer;
 import org.ggp.base.util.statemachine.Role;
 
 import com.google.common.collect.HashMultiset;
@@ -114,6 +120,14 @@ public class OptimizingPropNetFactory {
 	}
 
 	public static PropNet create(List<Gdl> description, boolean verbose) throws InterruptedException {
+		return create(description, verbose, PropNetOptimizer.getDefault());
+	}
+
+	/**
+	 * Creates a PropNet for the game with the given description, and runs
+	 * the optimizer over it, unless the optimizer is null.
+	 */
+	public static PropNet create(List<Gdl> description, boolean verbose, PropNetOptimizer optimizer) throws InterruptedException {
 		//System.out.println("Building propnet...");
 
 		long startTime = System.currentTimeMillis();
@@ -171,51 +185,55 @@ public class OptimizingPropNetFactory {
 		Constant falseComponent = new Constant(false);
 		Map<SentenceForm, FunctionInfo> functionInfoMap = new HashMap<SentenceForm, FunctionInfo>();
 		Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues = new HashMap<SentenceForm, Collection<GdlSentence>>();
-		for(SentenceForm form : topologicalOrdering) {
+		//Forms in the same layer don't depend on one another, so their
+		//components are worked out concurrently, then added in order
+		List<List<SentenceForm>> layers = getLayers(topologicalOrdering, dependencyGraph, usingBase, usingInput);
+		for(List<SentenceForm> layer : layers) {
 			ConcurrencyUtils.checkForInterruption();
+			Map<SentenceForm, FormComponents> layerComponents = collectLayer(layer, model, components, negations, trueComponent, falseComponent, usingBase, usingInput, functionInfoMap, constantChecker, completedSentenceFormValues);
+			for(SentenceForm form : layer) {
+				ConcurrencyUtils.checkForInterruption();
 
-			if(verbose) {
-				System.out.print("Adding sentence form " + form);
-				System.out.flush();
-			}
-			if(constantChecker.isConstantForm(form)) {
-				if(verbose)
-					System.out.println(" (constant)");
-				//Only add it if it's important
-				if(form.getName().equals(LEGAL)
-						|| form.getName().equals(GOAL)
-						|| form.getName().equals(INIT)) {
-					//Add it
-					for (GdlSentence trueSentence : constantChecker.getTrueSentences(form)) {
-						Proposition trueProp = new Proposition(trueSentence);
-						trueProp.addInput(trueComponent);
-						trueComponent.addOutput(trueProp);
-						components.put(trueSentence, trueComponent);
-					}
+				if(verbose) {
+					System.out.print("Adding sentence form " + form);
+					System.out.flush();
 				}
+				if(constantChecker.isConstantForm(form)) {
+					if(verbose)
+						System.out.println(" (constant)");
+					//Only add it if it's important
+					if(form.getName().equals(LEGAL)
+							|| form.getName().equals(GOAL)
+							|| form.getName().equals(INIT)) {
+						//Add it
+						for (GdlSentence trueSentence : constantChecker.getTrueSentences(form)) {
+							Proposition trueProp = new Proposition(trueSentence);
+							trueProp.addInput(trueComponent);
+							trueComponent.addOutput(trueProp);
+							components.put(trueSentence, trueComponent);
+						}
+					}
 
-				if(verbose)
-					System.out.println("Checking whether " + form + " is a functional constant...");
-				addConstantsToFunctionInfo(form, constantChecker, functionInfoMap);
-				addFormToCompletedValues(form, completedSentenceFormValues, constantChecker);
+					if(verbose)
+						System.out.println("Checking whether " + form + " is a functional constant...");
+					addConstantsToFunctionInfo(form, constantChecker, functionInfoMap);
+					addFormToCompletedValues(form, completedSentenceFormValues, constantChecker);
 
-				continue;
+					continue;
+				}
+				if(verbose)
+					System.out.println();
+				FormComponents formComponents = layerComponents.get(form);
+				addSentenceForm(formComponents, components, negations, trueComponent, falseComponent);
+				//TODO: Pass these over groups of multiple sentence forms
+				if(verbose && !formComponents.temporaryComponents.isEmpty())
+					System.out.println("Processing temporary components...");
+				processTemporaryComponents(formComponents.temporaryComponents, formComponents.temporaryNegations, components, negations, trueComponent, falseComponent);
+				addFormToCompletedValues(form, completedSentenceFormValues, components);
+				//if(verbose)
+					//TODO: Add this, but with the correct total number of components (not just Propositions)
+					//System.out.println("  "+completedSentenceFormValues.get(form).size() + " components added");
 			}
-			if(verbose)
-				System.out.println();
-			//TODO: Adjust "recursive forms" appropriately
-			//Add a temporary sentence form thingy? ...
-			Map<GdlSentence, Component> temporaryComponents = new HashMap<GdlSentence, Component>();
-			Map<GdlSentence, Component> temporaryNegations = new HashMap<GdlSentence, Component>();
-			addSentenceForm(form, model, components, negations, trueComponent, falseComponent, usingBase, usingInput, Collections.singleton(form), temporaryComponents, temporaryNegations, functionInfoMap, constantChecker, completedSentenceFormValues);
-			//TODO: Pass these over groups of multiple sentence forms
-			if(verbose && !temporaryComponents.isEmpty())
-				System.out.println("Processing temporary components...");
-			processTemporaryComponents(temporaryComponents, temporaryNegations, components, negations, trueComponent, falseComponent);
-			addFormToCompletedValues(form, completedSentenceFormValues, components);
-			//if(verbose)
-				//TODO: Add this, but with the correct total number of components (not just Propositions)
-				//System.out.println("  "+completedSentenceFormValues.get(form).size() + " components added");
 		}
 		//Connect "next" to "true"
 		if(verbose)
@@ -241,6 +259,11 @@ public class OptimizingPropNetFactory {
 		//how we want it to look
 		normalizePropositions(componentSet);
 		PropNet propnet = new PropNet(roles, componentSet);
+		GamerLogger.log("StateMachine", "Built propnet with " + componentSet.size() + " components, from " + layers.size()
+				+ " layers of sentence forms, in " + (System.currentTimeMillis() - startTime) + " ms.");
+		if(optimizer != null) {
+			optimizer.optimize(propnet);
+		}
 		if(verbose) {
 			System.out.println("Done setting up propnet; took " + (System.currentTimeMillis() - startTime) + "ms, has " + componentSet.size() + " components and " + propnet.getNumLinks() + " links");
 			System.out.println("Propnet has " +propnet.getNumAnds()+" ands; "+propnet.getNumOrs()+" ors; "+propnet.getNumNots()+" nots");
@@ -968,13 +991,150 @@ public class OptimizingPropNetFactory {
 		return ordering;
 	}
 
-	private static void addSentenceForm(SentenceForm form, SentenceDomainModel model,
+	/**
+	 * Groups the sentence forms into layers, so that each form only depends
+	 * on forms in earlier layers (or on itself). Within a layer, forms keep
+	 * their order in the topological ordering.
+	 */
+	private static List<List<SentenceForm>> getLayers(List<SentenceForm> topologicalOrdering,
+			Multimap<SentenceForm, SentenceForm> dependencyGraph, boolean usingBase, boolean usingInput) {
+		Map<SentenceForm, Integer> layerByForm = new HashMap<SentenceForm, Integer>();
+		List<List<SentenceForm>> layers = new ArrayList<List<SentenceForm>>();
+		for(SentenceForm form : topologicalOrdering) {
+			List<SentenceForm> predecessors = new ArrayList<SentenceForm>(dependencyGraph.get(form));
+			//Keep the extra constraints of the topological ordering
+			if(usingBase && (form.getName().equals(TRUE) || form.getName().equals(NEXT) || form.getName().equals(INIT))) {
+				predecessors.add(form.withName(BASE));
+			}
+			if(usingInput && (form.getName().equals(DOES) || form.getName().equals(LEGAL))) {
+				predecessors.add(form.withName(INPUT));
+			}
+			int layer = 0;
+			for(SentenceForm predecessor : predecessors) {
+				Integer predecessorLayer = layerByForm.get(predecessor);
+				if(!predecessor.equals(form) && predecessorLayer != null) {
+					layer = Math.max(layer, predecessorLayer + 1);
+				}
+			}
+			layerByForm.put(form, layer);
+			if(layer == layers.size()) {
+				layers.add(new ArrayList<SentenceForm>());
+			}
+			layers.get(layer).add(form);
+		}
+		return layers;
+	}
+
+	/**
+	 * Works out the components of the non-constant forms in the layer, on the
+	 * common fork-join pool when there's more than one of them and the pool
+	 * has more than one thread. Nothing
+	 * shared is changed while they're worked out, so the results are the same
+	 * as if the forms had been done one at a time.
+	 */
+	private static Map<SentenceForm, FormComponents> collectLayer(List<SentenceForm> layer,
+			final SentenceDomainModel model,
+			final Map<GdlSentence, Component> components,
+			final Map<GdlSentence, Component> negations,
+			final Constant trueComponent, final Constant falseComponent,
+			final boolean usingBase, final boolean usingInput,
+			final Map<SentenceForm, FunctionInfo> functionInfoMap, final ConstantChecker constantChecker,
+			final Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues) throws InterruptedException {
+		Map<SentenceForm, FormComponents> results = new HashMap<SentenceForm, FormComponents>();
+		List<SentenceForm> forms = new ArrayList<SentenceForm>();
+		for(SentenceForm form : layer) {
+			if(!constantChecker.isConstantForm(form)) {
+				forms.add(form);
+			}
+		}
+		if(forms.size() <= 1 || ForkJoinPool.getCommonPoolParallelism() <= 1) {
+			for(SentenceForm form : forms) {
+				results.put(form, collectSentenceForm(form, model, components, negations, trueComponent, falseComponent, usingBase, usingInput, functionInfoMap, constantChecker, completedSentenceFormValues));
+			}
+			return results;
+		}
+
+		final Thread caller = Thread.currentThread();
+		List<ForkJoinTask<FormComponents>> tasks = new ArrayList<ForkJoinTask<FormComponents>>(forms.size());
+		for(final SentenceForm form : forms) {
+			tasks.add(ForkJoinPool.commonPool().submit(new Callable<FormComponents>() {
+				@Override
+				public FormComponents call() throws Exception {
+					return ConcurrencyUtils.callOnBehalfOf(caller, new Callable<FormComponents>() {
+						@Override
+						public FormComponents call() throws InterruptedException {
+							return collectSentenceForm(form, model, components, negations, trueComponent, falseComponent, usingBase, usingInput, functionInfoMap, constantChecker, completedSentenceFormValues);
+						}
+					});
+				}
+			}));
+		}
+		try {
+			for(int i = 0; i < forms.size(); i++) {
+				results.put(forms.get(i), tasks.get(i).get());
+			}
+		} catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof InterruptedException)
+				throw (InterruptedException) cause;
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if(cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		} finally {
+			//Tasks that haven't started needn't run; running tasks see the
+			//caller's interruption, if that's why we're leaving
+			for(ForkJoinTask<FormComponents> task : tasks) {
+				task.cancel(false);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * The components of one sentence form, before they're connected to the
+	 * components of the other forms.
+	 */
+	private static class FormComponents {
+		private final List<GdlSentence> alwaysTrueSentences = new ArrayList<GdlSentence>();
+		//From base or input sentences, or floating true or does sentences
+		private final List<Proposition> propositions = new ArrayList<Proposition>();
+		private final List<Conjunction> conjunctions = new ArrayList<Conjunction>();
+		private final Map<GdlSentence, Component> temporaryComponents = new HashMap<GdlSentence, Component>();
+		private final Map<GdlSentence, Component> temporaryNegations = new HashMap<GdlSentence, Component>();
+	}
+
+	/**
+	 * The inputs of one ground rule body, which make the sentence true.
+	 * The inputs are Components, or Negations when a "not" may need to be
+	 * added.
+	 */
+	private static class Conjunction {
+		private final GdlSentence sentence;
+		private final List<Object> inputs;
+
+		private Conjunction(GdlSentence sentence, List<Object> inputs) {
+			this.sentence = sentence;
+			this.inputs = inputs;
+		}
+	}
+
+	private static class Negation {
+		private final GdlSentence sentence;
+		private final Component positive;
+
+		private Negation(GdlSentence sentence, Component positive) {
+			this.sentence = sentence;
+			this.positive = positive;
+		}
+	}
+
+	private static FormComponents collectSentenceForm(SentenceForm form, SentenceDomainModel model,
 			Map<GdlSentence, Component> components,
 			Map<GdlSentence, Component> negations,
 			Constant trueComponent, Constant falseComponent,
 			boolean usingBase, boolean usingInput,
-			Set<SentenceForm> recursionForms,
-			Map<GdlSentence, Component> temporaryComponents, Map<GdlSentence, Component> temporaryNegations,
 			Map<SentenceForm, FunctionInfo> functionInfoMap, ConstantChecker constantChecker,
 			Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues) throws InterruptedException {
 		//This is the meat of it (along with the entire Assignments class).
@@ -983,26 +1143,24 @@ public class OptimizingPropNetFactory {
 		//We also try to optimize as we go, which means possibly removing the
 		//proposition if it isn't actually possible, or replacing it with
 		//true/false if it's a constant.
+		//This only reads the shared components; addSentenceForm connects them.
+
+		FormComponents result = new FormComponents();
+		Set<SentenceForm> recursionForms = Collections.singleton(form);
+		Map<GdlSentence, Component> temporaryComponents = result.temporaryComponents;
+		Map<GdlSentence, Component> temporaryNegations = result.temporaryNegations;
+		//What the always-true sentences will be in components and negations
+		Map<GdlSentence, Component> ownComponents = new HashMap<GdlSentence, Component>();
+		Map<GdlSentence, Component> ownNegations = new HashMap<GdlSentence, Component>();
 
 		Set<GdlSentence> alwaysTrueSentences = model.getSentencesListedAsTrue(form);
 		Set<GdlRule> rules = model.getRules(form);
 
 		for(GdlSentence alwaysTrueSentence : alwaysTrueSentences) {
 			//We add the sentence as a constant
-			if(alwaysTrueSentence.getName().equals(LEGAL)
-					|| alwaysTrueSentence.getName().equals(NEXT)
-					|| alwaysTrueSentence.getName().equals(GOAL)) {
-				Proposition prop = new Proposition(alwaysTrueSentence);
-				//Attach to true
-				trueComponent.addOutput(prop);
-				prop.addInput(trueComponent);
-				//Still want the same components;
-				//we just don't want this to be anonymized
-			}
-			//Assign as true
-			components.put(alwaysTrueSentence, trueComponent);
-			negations.put(alwaysTrueSentence, falseComponent);
-			continue;
+			result.alwaysTrueSentences.add(alwaysTrueSentence);
+			ownComponents.put(alwaysTrueSentence, trueComponent);
+			ownNegations.put(alwaysTrueSentence, falseComponent);
 		}
 
 		//For does/true, make nodes based on input/base, if available
@@ -1011,22 +1169,19 @@ public class OptimizingPropNetFactory {
 			SentenceForm inputForm = form.withName(INPUT);
 			for (GdlSentence inputSentence : constantChecker.getTrueSentences(inputForm)) {
 				GdlSentence doesSentence = GdlPool.getRelation(DOES, inputSentence.getBody());
-				Proposition prop = new Proposition(doesSentence);
-				components.put(doesSentence, prop);
+				result.propositions.add(new Proposition(doesSentence));
 			}
-			return;
+			return result;
 		}
 		if(usingBase && form.getName().equals(TRUE)) {
 			SentenceForm baseForm = form.withName(BASE);
 			for (GdlSentence baseSentence : constantChecker.getTrueSentences(baseForm)) {
 				GdlSentence trueSentence = GdlPool.getRelation(TRUE, baseSentence.getBody());
-				Proposition prop = new Proposition(trueSentence);
-				components.put(trueSentence, prop);
+				result.propositions.add(new Proposition(trueSentence));
 			}
-			return;
+			return result;
 		}
 
-		Map<GdlSentence, Set<Component>> inputsToOr = new HashMap<GdlSentence, Set<Component>>();
 		for(GdlRule rule : rules) {
 			Assignments assignments = AssignmentsFactory.getAssignmentsForRule(rule, model, functionInfoMap, completedSentenceFormValues);
 
@@ -1047,7 +1202,7 @@ public class OptimizingPropNetFactory {
 				GdlSentence sentence = CommonTransforms.replaceVariables(rule.getHead(), assignment);
 
 				//Now we go through the conjuncts as before, but we wait to hook them up.
-				List<Component> componentsToConnect = new ArrayList<Component>(rule.arity());
+				List<Object> componentsToConnect = new ArrayList<Object>(rule.arity());
 				for(GdlLiteral literal : rule.getBody()) {
 					if(literal instanceof GdlSentence) {
 						//Get the sentence post-substitutions
@@ -1064,7 +1219,7 @@ public class OptimizingPropNetFactory {
 							continue;
 						}
 
-						Component conj = components.get(transformed);
+						Component conj = get(ownComponents, components, transformed);
 						//If conj is null and this is a sentence form we're still handling,
 						//hook up to a temporary sentence form
 						if(conj == null) {
@@ -1104,7 +1259,7 @@ public class OptimizingPropNetFactory {
 							continue;
 						}
 
-						Component conj = negations.get(transformed);
+						Component conj = get(ownNegations, negations, transformed);
 						if(isThisConstant(conj, falseComponent)) {
 							//We need to change one of the variables inside
 							List<GdlVariable> varsInConjunct = getVarsInConjunct(internal);
@@ -1118,7 +1273,7 @@ public class OptimizingPropNetFactory {
 						}
 						//Check for the recursive case:
 						if(conj == null && SentenceModelUtils.inSentenceFormGroup(transformed, recursionForms)) {
-							Component positive = components.get(transformed);
+							Component positive = get(ownComponents, components, transformed);
 							if(positive == null) {
 								positive = temporaryComponents.get(transformed);
 							}
@@ -1139,7 +1294,7 @@ public class OptimizingPropNetFactory {
 							conj = not;
 						}
 						if(conj == null) {
-							Component positive = components.get(transformed);
+							Component positive = get(ownComponents, components, transformed);
 							//No, because then that will be attached to "negations", which could be bad
 
 							if(positive == null) {
@@ -1150,20 +1305,10 @@ public class OptimizingPropNetFactory {
 								continue; //to the next conjunct
 							}
 
-							//Check if we're sharing a component with another sentence with a negation
-							//(i.e. look for "nots" in our outputs and use those instead)
-							Not existingNotOutput = getNotOutput(positive);
-							if(existingNotOutput != null) {
-								componentsToConnect.add(existingNotOutput);
-								negations.put(transformed, existingNotOutput);
-								continue; //to the next conjunct
-							}
-
-							Not not = new Not();
-							not.addInput(positive);
-							positive.addOutput(not);
-							negations.put(transformed, not);
-							conj = not;
+							//The "not" is looked up or added when the form is added,
+							//since another form in the layer may add it first
+							componentsToConnect.add(new Negation(transformed, positive));
+							continue; //to the next conjunct
 						}
 						componentsToConnect.add(conj);
 					} else if(literal instanceof GdlDistinct) {
@@ -1173,14 +1318,8 @@ public class OptimizingPropNetFactory {
 					}
 				}
 				if(!componentsToConnect.contains(null)) {
-					//Connect all the components
-					Proposition andComponent = new Proposition(TEMP);
-
-					andify(componentsToConnect, andComponent, trueComponent);
-					if(!isThisConstant(andComponent, falseComponent)) {
-						if(!inputsToOr.containsKey(sentence))
-							inputsToOr.put(sentence, new HashSet<Component>());
-						inputsToOr.get(sentence).add(andComponent);
+					result.conjunctions.add(new Conjunction(sentence, componentsToConnect));
+					if(!andifiesToFalse(componentsToConnect, falseComponent)) {
 						//We'll want to make sure at least one of the non-constant
 						//components is changing
 						if(preventDuplicatesFromConstants) {
@@ -1191,6 +1330,83 @@ public class OptimizingPropNetFactory {
 			}
 		}
 
+		//True/does sentences will have none of these rules, but
+		//still need to exist/"float"
+		//We'll do this if we haven't used base/input as a basis
+		if(form.getName().equals(TRUE)
+				|| form.getName().equals(DOES)) {
+			for(GdlSentence sentence : model.getDomain(form)) {
+				ConcurrencyUtils.checkForInterruption();
+
+				result.propositions.add(new Proposition(sentence));
+			}
+		}
+		return result;
+	}
+
+	private static Component get(Map<GdlSentence, Component> ownComponents,
+			Map<GdlSentence, Component> components, GdlSentence sentence) {
+		Component component = ownComponents.get(sentence);
+		if(component == null) {
+			component = components.get(sentence);
+		}
+		return component;
+	}
+
+	//Whether andify will connect the output to the false component
+	private static boolean andifiesToFalse(List<Object> inputs, Constant falseComponent) {
+		for(Object input : inputs) {
+			if(input instanceof Constant && !((Constant) input).getValue()) {
+				return input == falseComponent;
+			}
+		}
+		return false;
+	}
+
+	private static void addSentenceForm(FormComponents formComponents,
+			Map<GdlSentence, Component> components,
+			Map<GdlSentence, Component> negations,
+			Constant trueComponent, Constant falseComponent) throws InterruptedException {
+		for(GdlSentence alwaysTrueSentence : formComponents.alwaysTrueSentences) {
+			//We add the sentence as a constant
+			if(alwaysTrueSentence.getName().equals(LEGAL)
+					|| alwaysTrueSentence.getName().equals(NEXT)
+					|| alwaysTrueSentence.getName().equals(GOAL)) {
+				Proposition prop = new Proposition(alwaysTrueSentence);
+				//Attach to true
+				trueComponent.addOutput(prop);
+				prop.addInput(trueComponent);
+				//Still want the same components;
+				//we just don't want this to be anonymized
+			}
+			//Assign as true
+			components.put(alwaysTrueSentence, trueComponent);
+			negations.put(alwaysTrueSentence, falseComponent);
+		}
+
+		Map<GdlSentence, Set<Component>> inputsToOr = new HashMap<GdlSentence, Set<Component>>();
+		for(Conjunction conjunction : formComponents.conjunctions) {
+			ConcurrencyUtils.checkForInterruption();
+
+			List<Component> componentsToConnect = new ArrayList<Component>(conjunction.inputs.size());
+			for(Object input : conjunction.inputs) {
+				if(input instanceof Negation) {
+					componentsToConnect.add(getNegation((Negation) input, negations));
+				} else {
+					componentsToConnect.add((Component) input);
+				}
+			}
+			//Connect all the components
+			Proposition andComponent = new Proposition(TEMP);
+
+			andify(componentsToConnect, andComponent, trueComponent);
+			if(!isThisConstant(andComponent, falseComponent)) {
+				if(!inputsToOr.containsKey(conjunction.sentence))
+					inputsToOr.put(conjunction.sentence, new HashSet<Component>());
+				inputsToOr.get(conjunction.sentence).add(andComponent);
+			}
+		}
+
 		//At the end, we hook up the conjuncts
 		for(Entry<GdlSentence, Set<Component>> entry : inputsToOr.entrySet()) {
 			ConcurrencyUtils.checkForInterruption();
@@ -1213,19 +1429,29 @@ public class OptimizingPropNetFactory {
 			components.put(sentence, prop);
 		}
 
-		//True/does sentences will have none of these rules, but
-		//still need to exist/"float"
-		//We'll do this if we haven't used base/input as a basis
-		if(form.getName().equals(TRUE)
-				|| form.getName().equals(DOES)) {
-			for(GdlSentence sentence : model.getDomain(form)) {
-				ConcurrencyUtils.checkForInterruption();
+		for(Proposition prop : formComponents.propositions) {
+			components.put(prop.getName(), prop);
+		}
+	}
 
-				Proposition prop = new Proposition(sentence);
-				components.put(sentence, prop);
-			}
+	private static Component getNegation(Negation negation, Map<GdlSentence, Component> negations) {
+		Component conj = negations.get(negation.sentence);
+		if(conj != null) {
+			return conj;
+		}
+		//Check if we're sharing a component with another sentence with a negation
+		//(i.e. look for "nots" in our outputs and use those instead)
+		Not existingNotOutput = getNotOutput(negation.positive);
+		if(existingNotOutput != null) {
+			negations.put(negation.sentence, existingNotOutput);
+			return existingNotOutput;
 		}
 
+		Not not = new Not();
+		not.addInput(negation.positive);
+		negation.positive.addOutput(not);
+		negations.put(negation.sentence, not);
+		return not;
 	}
 
 
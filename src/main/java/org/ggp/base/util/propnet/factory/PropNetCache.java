@@ -0,0 +1,153 @@
+package org.ggp.base.util.propnet.factory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.ggp.base.util.crypto.BaseHashing;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.transforms.GdlCleaner;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.propnet.architecture.CompiledPropNet;
+import org.ggp.base.util.statemachine.Role;
+
+/**
+ * An on-disk cache of compiled propnets, so that a game that has been played
+ * before doesn't have to go through the OptimizingPropNetFactory again.
+ *
+ * Propnets are stored one per file, named by the SHA1 hash of the cleaned
+ * game description with its rules sorted, so that descriptions differing
+ * only in formatting or rule order share an entry. The roles are hashed in
+ * the order they're declared as well, since that order is the order of the
+ * propnet's roles and of every joint move. A file holds a header
+ * with the format version and the full key, the tables written by
+ * {@link CompiledPropNet#write}, and a trailer. Files are memory-mapped on
+ * load; any file that is truncated, from another version, or doesn't match
+ * its key is ignored and the propnet is rebuilt and written again.
+ *
+ * Failing to write the cache is logged rather than thrown: the cache only
+ * ever saves time.
+ */
+public final class PropNetCache {
+    private static final int MAGIC = 0x50524e43; // "PRNC"
+    private static final int TRAILER = 0x454e4450; // "ENDP"
+    // Bump whenever the factory or the CompiledPropNet format changes what
+    // gets built from the same description
+    private static final int VERSION = 2;
+
+    private final File directory;
+
+    /** A cache in .ggp-propnet-cache in the user's home directory. */
+    public PropNetCache() {
+        this(new File(System.getProperty("user.home"), ".ggp-propnet-cache"));
+    }
+
+    public PropNetCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the compiled propnet for the description, from the cache if
+     * it's there and otherwise by building it and adding it to the cache.
+     */
+    public CompiledPropNet get(List<Gdl> description) throws InterruptedException {
+        String key = getKey(description);
+        File file = new File(directory, key + ".propnet");
+        if (file.isFile()) {
+            try {
+                long start = System.currentTimeMillis();
+                CompiledPropNet propNet = load(file, key);
+                GamerLogger.log("StateMachine", "Loaded cached propnet " + key + " in "
+                        + (System.currentTimeMillis() - start) + " ms.");
+                return propNet;
+            } catch (IOException | RuntimeException e) {
+                GamerLogger.log("StateMachine", "Rebuilding propnet " + key + ", cached copy unusable: " + e);
+            }
+        }
+        CompiledPropNet propNet = new CompiledPropNet(OptimizingPropNetFactory.create(description));
+        store(file, key, propNet);
+        return propNet;
+    }
+
+    /**
+     * Returns the cache key of the description: the SHA1 hash of its roles,
+     * in order, and of its cleaned rules, sorted.
+     */
+    public static String getKey(List<Gdl> description) {
+        List<Gdl> cleaned = GdlCleaner.run(description);
+        List<String> rules = new ArrayList<String>();
+        for (Gdl gdl : cleaned) {
+            rules.add(gdl.toString());
+        }
+        Collections.sort(rules);
+        StringBuilder canonical = new StringBuilder();
+        for (Role role : Role.computeRoles(cleaned)) {
+            canonical.append(role).append(' ');
+        }
+        canonical.append('\n');
+        for (String rule : rules) {
+            canonical.append(rule).append('\n');
+        }
+        return BaseHashing.computeSHA1Hash(canonical.toString());
+    }
+
+    private static CompiledPropNet load(File file, String key) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
+            // The mapping stays valid after the channel is closed
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IOException("Not a propnet cache file of version " + VERSION);
+            }
+            byte[] storedKey = new byte[in.getInt()];
+            in.get(storedKey);
+            if (!key.equals(new String(storedKey, StandardCharsets.UTF_8))) {
+                throw new IOException("Key mismatch");
+            }
+            CompiledPropNet propNet = CompiledPropNet.read(in);
+            if (in.remaining() != 4 || in.getInt() != TRAILER) {
+                throw new IOException("Bad trailer");
+            }
+            return propNet;
+        }
+    }
+
+    // Writes to a temporary file first, so that concurrent players never
+    // see a half-written entry
+    private void store(File file, String key, CompiledPropNet propNet) {
+        File temp = null;
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Couldn't create " + directory);
+            }
+            temp = File.createTempFile(key, ".tmp", directory);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(keyBytes.length);
+                out.write(keyBytes);
+                propNet.write(out);
+                out.writeInt(TRAILER);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            GamerLogger.log("StateMachine", "Couldn't cache propnet " + key + ": " + e);
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.ggp.base.util.propnet.factory.optimizer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.concurrency.ConcurrencyUtils;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.PropNetOrdering;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+
+/**
+ * Merges gates of the same type with the same inputs into one.
+ *
+ * Gates are keyed by their type and the set of their inputs, and visited in
+ * topological order, so by the time a gate is keyed its inputs have already
+ * been merged; merging one layer can then expose duplicates in the next
+ * within a single pass.
+ */
+public final class CommonSubexpressionPass implements PropNetPass {
+	@Override
+	public String getName() {
+		return "common subexpressions";
+	}
+
+	@Override
+	public void apply(PropNet pn) throws InterruptedException {
+		Set<Component> sources = PropNetOrdering.getSources(pn.getBasePropositions(),
+				pn.getInputPropositions(), pn.getInitProposition());
+		Map<List<Object>, Component> gates = new HashMap<List<Object>, Component>();
+		for (Component c : PropNetOrdering.order(pn.getComponents(), sources)) {
+			ConcurrencyUtils.checkForInterruption();
+			if (!(c instanceof And || c instanceof Or || c instanceof Not)) {
+				continue;
+			}
+			// Components compare by identity, so this is the set of input objects
+			List<Object> key = Arrays.<Object>asList(c.getClass(), new HashSet<Component>(c.getInputs()));
+			Component existing = gates.get(key);
+			if (existing == null) {
+				gates.put(key, c);
+			} else {
+				Rewiring.replace(pn, c, existing);
+			}
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package org.ggp.base.util.propnet.factory.optimizer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Queue;
+
+import org.ggp.base.util.concurrency.ConcurrencyUtils;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.architecture.components.Transition;
+
+/**
+ * Pushes the values of constants through the gates they feed:
+ * <ul>
+ * <li>a NOT of a constant becomes the opposite constant;</li>
+ * <li>an AND with a false input becomes false, and an OR with a true input
+ * becomes true;</li>
+ * <li>true inputs of ANDs and false inputs of ORs are dropped, and an AND or
+ * OR left without inputs becomes true or false respectively;</li>
+ * <li>the gates fed by a proposition whose only input is a constant are fed
+ * by the constant instead.</li>
+ * </ul>
+ * The propositions themselves, and transitions, stay where they are.
+ * Constants that end up with no outputs are removed.
+ */
+public final class ConstantFoldingPass implements PropNetPass {
+	@Override
+	public String getName() {
+		return "constant folding";
+	}
+
+	@Override
+	public void apply(PropNet pn) throws InterruptedException {
+		Queue<Component> constants = new ArrayDeque<Component>();
+		for (Component c : new ArrayList<Component>(pn.getComponents())) {
+			if (c instanceof Constant) {
+				constants.add(c);
+			} else if ((c instanceof And || c instanceof Or) && c.getInputs().isEmpty()) {
+				Constant constant = Rewiring.getConstant(pn, c instanceof And);
+				Rewiring.replace(pn, c, constant);
+				constants.add(constant);
+			}
+		}
+
+		while (!constants.isEmpty()) {
+			ConcurrencyUtils.checkForInterruption();
+			Component constant = constants.remove();
+			if (!pn.getComponents().contains(constant)) {
+				continue;
+			}
+			boolean value = constant.getValue();
+			for (Component output : new ArrayList<Component>(constant.getOutputs())) {
+				if (!constant.getOutputs().contains(output)) {
+					continue;
+				}
+				if (output instanceof Not) {
+					Constant opposite = Rewiring.getConstant(pn, !value);
+					Rewiring.replace(pn, output, opposite);
+					constants.add(opposite);
+				} else if (output instanceof And || output instanceof Or) {
+					// An AND's identity is true; any other input decides it
+					boolean identity = output instanceof And;
+					if (value != identity) {
+						Rewiring.replace(pn, output, constant);
+						constants.add(constant);
+					} else {
+						output.removeInput(constant);
+						constant.removeOutput(output);
+						if (output.getInputs().isEmpty()) {
+							Rewiring.replace(pn, output, constant);
+							constants.add(constant);
+						}
+					}
+				} else if (output instanceof Proposition && output.getInputs().size() == 1) {
+					boolean forwarded = false;
+					for (Component child : new ArrayList<Component>(output.getOutputs())) {
+						if (child instanceof Transition) {
+							continue;
+						}
+						child.removeInput(output);
+						output.removeOutput(child);
+						child.addInput(constant);
+						constant.addOutput(child);
+						forwarded = true;
+					}
+					if (forwarded) {
+						constants.add(constant);
+					}
+				}
+			}
+		}
+
+		for (Component c : new ArrayList<Component>(pn.getComponents())) {
+			if (c instanceof Constant && c.getOutputs().isEmpty()) {
+				pn.removeComponent(c);
+			}
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package org.ggp.base.util.propnet.factory.optimizer;
+
+import java.util.ArrayList;
+
+import org.ggp.base.util.concurrency.ConcurrencyUtils;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.Not;
+
+/**
+ * Replaces a NOT of a NOT by the inner NOT's input, removing the inner NOT
+ * too when nothing else uses it.
+ */
+public final class DoubleNegationPass implements PropNetPass {
+	@Override
+	public String getName() {
+		return "double negation";
+	}
+
+	@Override
+	public void apply(PropNet pn) throws InterruptedException {
+		for (Component c : new ArrayList<Component>(pn.getComponents())) {
+			ConcurrencyUtils.checkForInterruption();
+			if (!(c instanceof Not) || !pn.getComponents().contains(c)) {
+				continue;
+			}
+			Component inner = c.getSingleInput();
+			if (inner instanceof Not) {
+				Rewiring.replace(pn, c, inner.getSingleInput());
+				if (inner.getOutputs().isEmpty()) {
+					pn.removeComponent(inner);
+				}
+			}
+		}
+	}
+}
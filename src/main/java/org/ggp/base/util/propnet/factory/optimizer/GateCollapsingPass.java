@@ -0,0 +1,29 @@
+package org.ggp.base.util.propnet.factory.optimizer;
+
+import java.util.ArrayList;
+
+import org.ggp.base.util.concurrency.ConcurrencyUtils;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Or;
+
+/**
+ * Replaces AND and OR gates with a single input by that input.
+ */
+public final class GateCollapsingPass implements PropNetPass {
+	@Override
+	public String getName() {
+		return "gate collapsing";
+	}
+
+	@Override
+	public void apply(PropNet pn) throws InterruptedException {
+		for (Component c : new ArrayList<Component>(pn.getComponents())) {
+			ConcurrencyUtils.checkForInterruption();
+			if ((c instanceof And || c instanceof Or) && c.getInputs().size() == 1) {
+				Rewiring.replace(pn, c, c.getSingleInput());
+			}
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package org.ggp.base.util.propnet.factory.optimizer;
+
+import java.util.ArrayList;
+
+import org.ggp.base.util.concurrency.ConcurrencyUtils;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Or;
+
+/**
+ * Merges AND gates into the AND gates they feed, and OR gates into the OR
+ * gates they feed, when they feed nothing else. Gates with other outputs
+ * are left alone, since copying their inputs would add links rather than
+ * remove them.
+ */
+public final class GateFlatteningPass implements PropNetPass {
+	@Override
+	public String getName() {
+		return "gate flattening";
+	}
+
+	@Override
+	public void apply(PropNet pn) throws InterruptedException {
+		for (Component c : new ArrayList<Component>(pn.getComponents())) {
+			ConcurrencyUtils.checkForInterruption();
+			if (!(c instanceof And || c instanceof Or) || !pn.getComponents().contains(c)) {
+				continue;
+			}
+			boolean flattened = true;
+			while (flattened) {
+				flattened = false;
+				for (Component input : new ArrayList<Component>(c.getInputs())) {
+					if (input.getClass() == c.getClass() && input.getOutputs().size() == 1) {
+						for (Component grandInput : input.getInputs()) {
+							c.addInput(grandInput);
+							grandInput.addOutput(c);
+						}
+						pn.removeComponent(input);
+						flattened = true;
+					}
+				}
+			}
+		}
+	}
+}
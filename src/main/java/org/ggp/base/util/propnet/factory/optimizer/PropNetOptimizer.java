@@ -0,0 +1,165 @@
+package org.ggp.base.util.propnet.factory.optimizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.propnet.architecture.PropNet;
+
+/**
+ * Runs a sequence of {@link PropNetPass}es over a propnet, over and over
+ * until a whole round of them leaves the propnet the same size, since one
+ * pass often opens up work for another: folding a constant can leave an AND
+ * with one input, collapsing that can make two gates identical, and so on.
+ *
+ * The component and link counts each pass removed are logged, and returned
+ * as one {@link Report} per pass.
+ */
+public final class PropNetOptimizer {
+	// Each round only continues if the last one shrank the propnet, so this
+	// is just a guard against passes that fight each other
+	private static final int MAX_ROUNDS = 20;
+
+	private final List<PropNetPass> passes;
+
+	public PropNetOptimizer(List<? extends PropNetPass> passes) {
+		this.passes = Collections.unmodifiableList(new ArrayList<PropNetPass>(passes));
+	}
+
+	/**
+	 * Returns an optimizer with every pass in this package: constant
+	 * folding, gate collapsing, double negation removal, gate flattening
+	 * and common subexpression elimination.
+	 */
+	public static PropNetOptimizer getDefault() {
+		return new PropNetOptimizer(Arrays.asList(
+				new ConstantFoldingPass(),
+				new GateCollapsingPass(),
+				new DoubleNegationPass(),
+				new GateFlatteningPass(),
+				new CommonSubexpressionPass()));
+	}
+
+	public List<PropNetPass> getPasses() {
+		return passes;
+	}
+
+	/**
+	 * Optimizes the propnet in place.
+	 *
+	 * @return What each pass removed, summed over all rounds, in the order
+	 * of the passes.
+	 */
+	public List<Report> optimize(PropNet pn) throws InterruptedException {
+		List<Report> reports = new ArrayList<Report>();
+		for (PropNetPass pass : passes) {
+			reports.add(new Report(pass.getName()));
+		}
+		long startTime = System.currentTimeMillis();
+		int startSize = pn.getSize();
+		int startLinks = pn.getNumLinks();
+		int rounds = 0;
+		boolean changed = true;
+		while (changed && rounds < MAX_ROUNDS) {
+			changed = false;
+			rounds++;
+			for (int i = 0; i < passes.size(); i++) {
+				Counts before = new Counts(pn);
+				long passStartTime = System.currentTimeMillis();
+				passes.get(i).apply(pn);
+				reports.get(i).millis += System.currentTimeMillis() - passStartTime;
+				Counts after = new Counts(pn);
+				reports.get(i).add(before, after);
+				if (before.components != after.components || before.links != after.links) {
+					changed = true;
+				}
+			}
+		}
+		for (Report report : reports) {
+			GamerLogger.log("StateMachine", "Propnet " + report);
+		}
+		GamerLogger.log("StateMachine", "Optimized propnet from " + startSize + " to " + pn.getSize()
+				+ " components and from " + startLinks + " to " + pn.getNumLinks() + " links, in "
+				+ rounds + " rounds and " + (System.currentTimeMillis() - startTime) + " ms.");
+		return reports;
+	}
+
+	private static final class Counts {
+		private final int components;
+		private final int ands;
+		private final int ors;
+		private final int nots;
+		private final int links;
+
+		private Counts(PropNet pn) {
+			components = pn.getSize();
+			ands = pn.getNumAnds();
+			ors = pn.getNumOrs();
+			nots = pn.getNumNots();
+			links = pn.getNumLinks();
+		}
+	}
+
+	/**
+	 * How much of a propnet one pass removed. The counts are net: a pass
+	 * that adds a constant while removing gates reports one fewer component
+	 * removed.
+	 */
+	public static final class Report {
+		private final String passName;
+		private int components;
+		private int ands;
+		private int ors;
+		private int nots;
+		private int links;
+		private long millis;
+
+		private Report(String passName) {
+			this.passName = passName;
+		}
+
+		private void add(Counts before, Counts after) {
+			components += before.components - after.components;
+			ands += before.ands - after.ands;
+			ors += before.ors - after.ors;
+			nots += before.nots - after.nots;
+			links += before.links - after.links;
+		}
+
+		public String getPassName() {
+			return passName;
+		}
+
+		public int getRemovedComponents() {
+			return components;
+		}
+
+		public int getRemovedAnds() {
+			return ands;
+		}
+
+		public int getRemovedOrs() {
+			return ors;
+		}
+
+		public int getRemovedNots() {
+			return nots;
+		}
+
+		public int getRemovedLinks() {
+			return links;
+		}
+
+		public long getMillis() {
+			return millis;
+		}
+
+		@Override
+		public String toString() {
+			return "pass " + passName + " removed " + components + " components (" + ands + " ands, " + ors
+					+ " ors, " + nots + " nots) and " + links + " links in " + millis + " ms";
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package org.ggp.base.util.propnet.factory.optimizer;
+
+import org.ggp.base.util.propnet.architecture.PropNet;
+
+/**
+ * A rewrite of a propnet that leaves the value of every proposition
+ * unchanged, for use in a {@link PropNetOptimizer}.
+ *
+ * Passes may remove, add and relink gates and constants, but must leave
+ * propositions and transitions in place, since machines and players look
+ * those up by name.
+ */
+public interface PropNetPass {
+	/** A short name for the pass, for logging. */
+	String getName();
+
+	void apply(PropNet pn) throws InterruptedException;
+}
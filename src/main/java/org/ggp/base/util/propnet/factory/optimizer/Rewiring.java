@@ -0,0 +1,44 @@
+package org.ggp.base.util.propnet.factory.optimizer;
+
+import java.util.ArrayList;
+
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+
+/**
+ * Helpers shared by the passes for relinking components.
+ */
+final class Rewiring {
+	private Rewiring() {
+	}
+
+	/**
+	 * Makes every output of the component an output of its replacement
+	 * instead, then removes the component from the propnet.
+	 */
+	static void replace(PropNet pn, Component component, Component replacement) {
+		for (Component output : new ArrayList<Component>(component.getOutputs())) {
+			output.removeInput(component);
+			output.addInput(replacement);
+			replacement.addOutput(output);
+		}
+		component.removeAllOutputs();
+		pn.removeComponent(component);
+	}
+
+	/**
+	 * Returns a constant of the propnet with the given value, adding one if
+	 * there is none yet.
+	 */
+	static Constant getConstant(PropNet pn, boolean value) {
+		for (Component c : pn.getComponents()) {
+			if (c instanceof Constant && c.getValue() == value) {
+				return (Constant) c;
+			}
+		}
+		Constant constant = new Constant(value);
+		pn.addComponent(constant);
+		return constant;
+	}
+}
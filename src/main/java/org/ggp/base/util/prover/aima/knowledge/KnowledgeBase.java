@@ -1,6 +1,7 @@
 package org.ggp.base.util.prover.aima.knowledge;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -8,18 +9,77 @@ import java.util.Set;
 
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
 import org.ggp.base.util.gdl.grammar.GdlPool;
 import org.ggp.base.util.gdl.grammar.GdlRule;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
 
-
+/**
+ * The rules of a description, indexed by the name of their heads and by the
+ * first argument of their heads, so that fetching the candidates for a query
+ * like (cell 1 ?y ?v), or (true (control ?p)), skips the rules that can't
+ * unify with it.
+ *
+ * A first argument is indexed by the constant it is, or by the name of the
+ * function it is; rules whose heads have a variable there are candidates for
+ * every query. The candidates are returned in the order of the description.
+ *
+ * The indexes are built in the constructor and never change, so fetching is
+ * safe from any number of threads without locking.
+ */
 public final class KnowledgeBase
 {
-	private final Map<GdlConstant, List<GdlRule>> contents;
+	private static final class Index
+	{
+		private final List<GdlRule> all = new ArrayList<GdlRule>();
+		// Rules whose heads have a variable as their first argument
+		private final List<GdlRule> unindexed = new ArrayList<GdlRule>();
+		// Includes the unindexed rules, in order
+		private final Map<GdlConstant, List<GdlRule>> byFirstArgument = new HashMap<GdlConstant, List<GdlRule>>();
+
+		private void add(GdlRule rule)
+		{
+			all.add(rule);
+			GdlSentence head = rule.getHead();
+			GdlConstant key = (head.arity() == 0) ? null : getKey(head.get(0));
+			if (key == null)
+			{
+				unindexed.add(rule);
+				for (List<GdlRule> rules : byFirstArgument.values())
+				{
+					rules.add(rule);
+				}
+			}
+			else
+			{
+				List<GdlRule> rules = byFirstArgument.get(key);
+				if (rules == null)
+				{
+					rules = new ArrayList<GdlRule>(unindexed);
+					byFirstArgument.put(key, rules);
+				}
+				rules.add(rule);
+			}
+		}
+
+		private List<GdlRule> fetch(GdlSentence sentence)
+		{
+			GdlConstant key = (sentence.arity() == 0) ? null : getKey(sentence.get(0));
+			if (key == null)
+			{
+				return all;
+			}
+			List<GdlRule> rules = byFirstArgument.get(key);
+			return (rules != null) ? rules : unindexed;
+		}
+	}
+
+	private final Map<GdlConstant, Index> contents;
 
 	public KnowledgeBase(Set<? extends Gdl> description)
 	{
-		contents = new HashMap<GdlConstant, List<GdlRule>>();
+		contents = new HashMap<GdlConstant, Index>();
 		for (Gdl gdl : description)
 		{
 			GdlRule rule = (gdl instanceof GdlRule) ? (GdlRule) gdl : GdlPool.getRule((GdlSentence) gdl);
@@ -27,23 +87,39 @@ public final class KnowledgeBase
 
 			if (!contents.containsKey(key))
 			{
-				contents.put(key, new ArrayList<GdlRule>());
+				contents.put(key, new Index());
 			}
 			contents.get(key).add(rule);
 		}
 	}
 
-	public synchronized List<GdlRule> fetch(GdlSentence sentence)
+	private static GdlConstant getKey(GdlTerm term)
 	{
-		GdlConstant key = sentence.getName();
-
-		if (contents.containsKey(key))
+		if (term instanceof GdlConstant)
+		{
+			return (GdlConstant) term;
+		}
+		else if (term instanceof GdlFunction)
 		{
-			return contents.get(key);
+			return ((GdlFunction) term).getName();
 		}
 		else
 		{
-			return new ArrayList<GdlRule>();
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the rules whose heads might unify with the sentence. The list
+	 * must not be modified.
+	 */
+	public List<GdlRule> fetch(GdlSentence sentence)
+	{
+		Index index = contents.get(sentence.getName());
+		if (index == null)
+		{
+			return Collections.emptyList();
 		}
+		return index.fetch(sentence);
 	}
-}
\ No newline at end of file
+}
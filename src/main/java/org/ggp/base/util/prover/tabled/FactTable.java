@@ -0,0 +1,130 @@
+package org.ggp.base.util.prover.tabled;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+
+/**
+ * The ground sentences of one relation, with an index on each argument
+ * position that a join plan looks them up by. Indexes are built the first
+ * time they are asked for and kept up to date as sentences are added.
+ *
+ * A table is only ever changed by the thread that builds it. Tables that
+ * are shared, like those of the static relations, are frozen first, which
+ * builds every index so that lookups never write.
+ */
+final class FactTable
+{
+	private final List<GdlSentence> sentences = new ArrayList<GdlSentence>();
+	private final Set<GdlSentence> contents = new HashSet<GdlSentence>();
+	private final List<Map<GdlTerm, List<GdlSentence>>> indexes = new ArrayList<Map<GdlTerm, List<GdlSentence>>>();
+	private boolean frozen = false;
+
+	/**
+	 * @return Whether the sentence was new.
+	 */
+	boolean add(GdlSentence sentence)
+	{
+		if (!contents.add(sentence))
+		{
+			return false;
+		}
+		sentences.add(sentence);
+		for (int i = 0; i < indexes.size() && i < sentence.arity(); i++)
+		{
+			Map<GdlTerm, List<GdlSentence>> index = indexes.get(i);
+			if (index != null)
+			{
+				addToIndex(index, sentence.get(i), sentence);
+			}
+		}
+		return true;
+	}
+
+	boolean contains(GdlSentence sentence)
+	{
+		return contents.contains(sentence);
+	}
+
+	int size()
+	{
+		return sentences.size();
+	}
+
+	List<GdlSentence> all()
+	{
+		return sentences;
+	}
+
+	/**
+	 * @return The sentences whose argument at the position is the key.
+	 */
+	List<GdlSentence> lookup(int position, GdlTerm key)
+	{
+		if (frozen && position >= indexes.size())
+		{
+			// No sentence is that long.
+			return Collections.emptyList();
+		}
+		List<GdlSentence> matches = index(position).get(key);
+		return (matches == null) ? Collections.<GdlSentence>emptyList() : matches;
+	}
+
+	private Map<GdlTerm, List<GdlSentence>> index(int position)
+	{
+		while (indexes.size() <= position)
+		{
+			indexes.add(null);
+		}
+		Map<GdlTerm, List<GdlSentence>> index = indexes.get(position);
+		if (index == null)
+		{
+			index = new HashMap<GdlTerm, List<GdlSentence>>();
+			for (GdlSentence sentence : sentences)
+			{
+				if (sentence.arity() > position)
+				{
+					addToIndex(index, sentence.get(position), sentence);
+				}
+			}
+			indexes.set(position, index);
+		}
+		return index;
+	}
+
+	private static void addToIndex(Map<GdlTerm, List<GdlSentence>> index, GdlTerm key, GdlSentence sentence)
+	{
+		List<GdlSentence> bucket = index.get(key);
+		if (bucket == null)
+		{
+			bucket = new ArrayList<GdlSentence>(2);
+			index.put(key, bucket);
+		}
+		bucket.add(sentence);
+	}
+
+	/**
+	 * Builds the index on every argument position, so that the table can
+	 * be read by several threads at once. It must not be changed afterwards.
+	 */
+	void freeze()
+	{
+		int arity = 0;
+		for (GdlSentence sentence : sentences)
+		{
+			arity = Math.max(arity, sentence.arity());
+		}
+		for (int i = 0; i < arity; i++)
+		{
+			index(i);
+		}
+		frozen = true;
+	}
+}
@@ -0,0 +1,469 @@
+package org.ggp.base.util.prover.tabled;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+
+import org.ggp.base.util.gdl.GdlUtils;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlDistinct;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlLiteral;
+import org.ggp.base.util.gdl.grammar.GdlNot;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlProposition;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.gdl.grammar.GdlVariable;
+
+/**
+ * A rule compiled into a nested-loop join over fact tables. The body is put
+ * in order once, when the rule is compiled: each positive literal scans its
+ * table, through an index when one of its arguments is already known, and
+ * each negation and distinct runs as a filter as soon as its variables are
+ * bound. The positive literal scanned next is the one expected to match the
+ * fewest sentences, from the sizes of the tables where those are known.
+ *
+ * A plan can also be compiled to read one of its literals from a table of
+ * new sentences only, for semi-naive evaluation of recursive rules. That
+ * literal is then scanned first.
+ */
+final class JoinPlan
+{
+	/**
+	 * Where a plan's literals find their sentences.
+	 */
+	interface Tables
+	{
+		FactTable table(GdlConstant name);
+	}
+
+	private final GdlRule rule;
+	private final SentencePattern head;
+	private final Step[] steps;
+	private final int numSlots;
+	private final GdlConstant deltaName;
+
+	private JoinPlan(GdlRule rule, SentencePattern head, Step[] steps, int numSlots, GdlConstant deltaName)
+	{
+		this.rule = rule;
+		this.head = head;
+		this.steps = steps;
+		this.numSlots = numSlots;
+		this.deltaName = deltaName;
+	}
+
+	GdlConstant getHeadName()
+	{
+		return head.name;
+	}
+
+	/**
+	 * @return The relation whose literal reads the new sentences, or null if
+	 *         the plan reads every table in full.
+	 */
+	GdlConstant getDeltaName()
+	{
+		return deltaName;
+	}
+
+	/**
+	 * Adds the head of every instance of the rule that the tables satisfy to
+	 * the output, with duplicates.
+	 */
+	void execute(Tables tables, FactTable delta, Collection<GdlSentence> output)
+	{
+		new Run(tables, delta, output).next(0);
+	}
+
+	@Override
+	public String toString()
+	{
+		return (deltaName == null) ? rule.toString() : rule + " with new " + deltaName;
+	}
+
+	private final class Run
+	{
+		final Tables tables;
+		final FactTable delta;
+		final Collection<GdlSentence> output;
+		final GdlTerm[] bindings = new GdlTerm[numSlots];
+
+		Run(Tables tables, FactTable delta, Collection<GdlSentence> output)
+		{
+			this.tables = tables;
+			this.delta = delta;
+			this.output = output;
+		}
+
+		void next(int step)
+		{
+			if (step == steps.length)
+			{
+				output.add(head.instantiate(bindings));
+			}
+			else
+			{
+				steps[step].run(this, step + 1);
+			}
+		}
+	}
+
+	private static final class SentencePattern
+	{
+		final GdlConstant name;
+		final boolean isProposition;
+		final TermPattern[] args;
+
+		SentencePattern(GdlConstant name, boolean isProposition, TermPattern[] args)
+		{
+			this.name = name;
+			this.isProposition = isProposition;
+			this.args = args;
+		}
+
+		boolean match(GdlSentence sentence, GdlTerm[] bindings)
+		{
+			if (sentence.arity() != args.length)
+			{
+				return false;
+			}
+			for (int i = 0; i < args.length; i++)
+			{
+				if (!args[i].match(sentence.get(i), bindings))
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+
+		GdlSentence instantiate(GdlTerm[] bindings)
+		{
+			if (isProposition)
+			{
+				return GdlPool.getProposition(name);
+			}
+			GdlTerm[] body = new GdlTerm[args.length];
+			for (int i = 0; i < args.length; i++)
+			{
+				body[i] = args[i].instantiate(bindings);
+			}
+			return GdlPool.getRelation(name, body);
+		}
+
+		// Whether the table holds an instance, once every variable is bound.
+		// A proposition and a relation with no arguments are different
+		// sentences, as they are to the AimaProver.
+		boolean isIn(FactTable table, GdlTerm[] bindings)
+		{
+			return table.contains(instantiate(bindings));
+		}
+	}
+
+	private static abstract class Step
+	{
+		abstract void run(Run run, int next);
+	}
+
+	private static final class Scan extends Step
+	{
+		final SentencePattern pattern;
+		final int indexPosition;
+		final boolean readsDelta;
+
+		Scan(SentencePattern pattern, int indexPosition, boolean readsDelta)
+		{
+			this.pattern = pattern;
+			this.indexPosition = indexPosition;
+			this.readsDelta = readsDelta;
+		}
+
+		@Override
+		void run(Run run, int next)
+		{
+			FactTable table = readsDelta ? run.delta : run.tables.table(pattern.name);
+			List<GdlSentence> candidates = (indexPosition < 0) ? table.all()
+					: table.lookup(indexPosition, pattern.args[indexPosition].instantiate(run.bindings));
+			for (int i = 0; i < candidates.size(); i++)
+			{
+				if (pattern.match(candidates.get(i), run.bindings))
+				{
+					run.next(next);
+				}
+			}
+		}
+	}
+
+	private static final class Contains extends Step
+	{
+		final SentencePattern pattern;
+		final boolean negated;
+
+		Contains(SentencePattern pattern, boolean negated)
+		{
+			this.pattern = pattern;
+			this.negated = negated;
+		}
+
+		@Override
+		void run(Run run, int next)
+		{
+			if (pattern.isIn(run.tables.table(pattern.name), run.bindings) != negated)
+			{
+				run.next(next);
+			}
+		}
+	}
+
+	private static final class Distinct extends Step
+	{
+		final TermPattern arg1;
+		final TermPattern arg2;
+		final boolean negated;
+
+		Distinct(TermPattern arg1, TermPattern arg2, boolean negated)
+		{
+			this.arg1 = arg1;
+			this.arg2 = arg2;
+			this.negated = negated;
+		}
+
+		@Override
+		void run(Run run, int next)
+		{
+			if ((arg1.instantiate(run.bindings) != arg2.instantiate(run.bindings)) != negated)
+			{
+				run.next(next);
+			}
+		}
+	}
+
+	/**
+	 * Compiles a rule whose body has already had its ORs removed.
+	 *
+	 * @param deltaLiteral The index in the body of the literal that reads the
+	 *        new sentences, or -1 if the plan reads every table in full.
+	 * @param sizes Estimates the size of a relation's table.
+	 * @throws IllegalArgumentException If the rule isn't safe, or uses a
+	 *         kind of literal that isn't supported.
+	 */
+	static JoinPlan compile(GdlRule rule, int deltaLiteral, ToIntFunction<GdlConstant> sizes)
+	{
+		return new Compiler(rule, sizes).compile(deltaLiteral);
+	}
+
+	private static final class Compiler
+	{
+		final GdlRule rule;
+		final ToIntFunction<GdlConstant> sizes;
+		final Map<GdlVariable, Integer> slots = new HashMap<GdlVariable, Integer>();
+		final Set<GdlVariable> bound = new HashSet<GdlVariable>();
+
+		Compiler(GdlRule rule, ToIntFunction<GdlConstant> sizes)
+		{
+			this.rule = rule;
+			this.sizes = sizes;
+		}
+
+		JoinPlan compile(int deltaLiteral)
+		{
+			List<GdlLiteral> remaining = new ArrayList<GdlLiteral>(rule.getBody());
+			List<Step> steps = new ArrayList<Step>();
+			GdlConstant deltaName = null;
+			if (deltaLiteral >= 0)
+			{
+				GdlSentence first = (GdlSentence) remaining.remove(deltaLiteral);
+				deltaName = first.getName();
+				steps.add(scan(first, true));
+			}
+			while (!remaining.isEmpty())
+			{
+				GdlLiteral literal = pickFilter(remaining);
+				if (literal == null)
+				{
+					literal = pickSentence(remaining);
+				}
+				if (literal == null)
+				{
+					throw new IllegalArgumentException("Unsafe rule: " + rule);
+				}
+				remaining.remove(literal);
+				steps.add(step(literal));
+			}
+			if (!bound.containsAll(GdlUtils.getVariablesSet(rule.getHead())))
+			{
+				throw new IllegalArgumentException("Unsafe rule: " + rule);
+			}
+			SentencePattern head = sentence(rule.getHead());
+			return new JoinPlan(rule, head, steps.toArray(new Step[steps.size()]), slots.size(), deltaName);
+		}
+
+		// The first negation or distinct whose variables are all bound.
+		private GdlLiteral pickFilter(List<GdlLiteral> remaining)
+		{
+			for (GdlLiteral literal : remaining)
+			{
+				if (!(literal instanceof GdlSentence) && bound.containsAll(GdlUtils.getVariablesSet(literal)))
+				{
+					return literal;
+				}
+			}
+			return null;
+		}
+
+		// The positive literal expected to match the fewest sentences.
+		private GdlLiteral pickSentence(List<GdlLiteral> remaining)
+		{
+			GdlLiteral best = null;
+			double bestEstimate = Double.MAX_VALUE;
+			for (GdlLiteral literal : remaining)
+			{
+				if (literal instanceof GdlSentence)
+				{
+					double estimate = estimateMatches((GdlSentence) literal);
+					if (estimate < bestEstimate)
+					{
+						best = literal;
+						bestEstimate = estimate;
+					}
+				}
+			}
+			return best;
+		}
+
+		private double estimateMatches(GdlSentence sentence)
+		{
+			if (isGround(sentence))
+			{
+				return 0;
+			}
+			double estimate = Math.max(1, sizes.applyAsInt(sentence.getName()));
+			for (GdlTerm arg : sentence.getBody())
+			{
+				estimate *= isGround(arg) ? 0.1 : selectivity(arg);
+			}
+			return estimate;
+		}
+
+		// Known parts inside a function narrow the matches a little.
+		private double selectivity(GdlTerm term)
+		{
+			if (!(term instanceof GdlFunction))
+			{
+				return 1;
+			}
+			double selectivity = 1;
+			for (GdlTerm arg : ((GdlFunction) term).getBody())
+			{
+				selectivity *= isGround(arg) ? 0.5 : selectivity(arg);
+			}
+			return selectivity;
+		}
+
+		private boolean isGround(Gdl gdl)
+		{
+			return bound.containsAll(GdlUtils.getVariablesSet(gdl));
+		}
+
+		private Step step(GdlLiteral literal)
+		{
+			if (literal instanceof GdlSentence)
+			{
+				GdlSentence sentence = (GdlSentence) literal;
+				if (isGround(sentence))
+				{
+					return new Contains(sentence(sentence), false);
+				}
+				return scan(sentence, false);
+			}
+			if (literal instanceof GdlDistinct)
+			{
+				GdlDistinct distinct = (GdlDistinct) literal;
+				return new Distinct(term(distinct.getArg1()), term(distinct.getArg2()), false);
+			}
+			if (literal instanceof GdlNot)
+			{
+				GdlLiteral body = ((GdlNot) literal).getBody();
+				if (body instanceof GdlSentence)
+				{
+					return new Contains(sentence((GdlSentence) body), true);
+				}
+				if (body instanceof GdlDistinct)
+				{
+					GdlDistinct distinct = (GdlDistinct) body;
+					return new Distinct(term(distinct.getArg1()), term(distinct.getArg2()), true);
+				}
+			}
+			throw new IllegalArgumentException("Unsupported literal " + literal + " in rule " + rule);
+		}
+
+		private Scan scan(GdlSentence sentence, boolean readsDelta)
+		{
+			// Index on an argument that is known before the scan, preferring
+			// one that takes no work to build.
+			int indexPosition = -1;
+			for (int i = 0; i < sentence.arity(); i++)
+			{
+				GdlTerm arg = sentence.get(i);
+				if (!readsDelta && isGround(arg))
+				{
+					if (!(arg instanceof GdlFunction))
+					{
+						indexPosition = i;
+						break;
+					}
+					if (indexPosition < 0)
+					{
+						indexPosition = i;
+					}
+				}
+			}
+			return new Scan(sentence(sentence), indexPosition, readsDelta);
+		}
+
+		private SentencePattern sentence(GdlSentence sentence)
+		{
+			TermPattern[] args = new TermPattern[sentence.arity()];
+			for (int i = 0; i < args.length; i++)
+			{
+				args[i] = term(sentence.get(i));
+			}
+			return new SentencePattern(sentence.getName(), sentence instanceof GdlProposition, args);
+		}
+
+		private TermPattern term(GdlTerm term)
+		{
+			if (term instanceof GdlVariable)
+			{
+				GdlVariable variable = (GdlVariable) term;
+				Integer slot = slots.get(variable);
+				if (slot == null)
+				{
+					slot = slots.size();
+					slots.put(variable, slot);
+				}
+				// Its first occurrence binds it; the rest compare against it.
+				return new TermPattern.Variable(slot, bound.add(variable));
+			}
+			if (term instanceof GdlFunction)
+			{
+				GdlFunction function = (GdlFunction) term;
+				TermPattern[] args = new TermPattern[function.arity()];
+				for (int i = 0; i < args.length; i++)
+				{
+					args[i] = term(function.get(i));
+				}
+				return new TermPattern.Function(function.getName(), args);
+			}
+			return new TermPattern.Constant((GdlConstant) term);
+		}
+	}
+}
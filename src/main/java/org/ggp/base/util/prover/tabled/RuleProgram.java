@@ -0,0 +1,513 @@
+package org.ggp.base.util.prover.tabled;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlLiteral;
+import org.ggp.base.util.gdl.grammar.GdlNot;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlProposition;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.gdl.grammar.GdlVariable;
+import org.ggp.base.util.gdl.model.DependencyGraphs;
+import org.ggp.base.util.gdl.transforms.DeORer;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+
+/**
+ * A game description compiled for bottom-up evaluation.
+ *
+ * The relations are split into strata, in the order of their dependencies,
+ * and each rule is compiled into a {@link JoinPlan}. The static relations,
+ * those that don't depend on true or does, are evaluated once, here, and
+ * their tables are shared by every evaluation. The rest are evaluated for a
+ * given set of true and does sentences by an {@link Evaluation}, one stratum
+ * at a time and only as far as the relations asked about need. Recursive
+ * strata are evaluated semi-naively: after a first pass over every rule,
+ * each pass only looks for instances that use at least one new sentence.
+ *
+ * A program is immutable once compiled, so it can be shared between
+ * threads; evaluations can't.
+ */
+public final class RuleProgram
+{
+	// Table sizes assumed when choosing join orders, where they aren't known.
+	private static final int DOES_SIZE = 2;
+	private static final int DYNAMIC_SIZE = 64;
+
+	private static final FactTable EMPTY = new FactTable();
+
+	private static final class Stratum
+	{
+		final Set<GdlConstant> names;
+		final boolean isStatic;
+		final List<GdlRule> rules = new ArrayList<GdlRule>();
+		final List<JoinPlan> plans = new ArrayList<JoinPlan>();
+		// Plans for the recursive rules that read one recursive literal's new
+		// sentences only, one per such literal.
+		final List<JoinPlan> deltaPlans = new ArrayList<JoinPlan>();
+		int[] dependencies;
+
+		Stratum(Set<GdlConstant> names, boolean isStatic)
+		{
+			this.names = names;
+			this.isStatic = isStatic;
+		}
+
+		void compile(ToIntFunction<GdlConstant> sizes)
+		{
+			for (GdlRule rule : rules)
+			{
+				plans.add(JoinPlan.compile(rule, -1, sizes));
+				for (int i = 0; i < rule.arity(); i++)
+				{
+					GdlLiteral literal = rule.get(i);
+					if (literal instanceof GdlSentence && names.contains(((GdlSentence) literal).getName()))
+					{
+						deltaPlans.add(JoinPlan.compile(rule, i, sizes));
+					}
+				}
+			}
+		}
+	}
+
+	private final Map<GdlConstant, List<GdlSentence>> facts = new HashMap<GdlConstant, List<GdlSentence>>();
+	private final List<Stratum> strata = new ArrayList<Stratum>();
+	private final Map<GdlConstant, Integer> stratumOf = new HashMap<GdlConstant, Integer>();
+	private final Map<GdlConstant, FactTable> staticTables = new HashMap<GdlConstant, FactTable>();
+	private final Set<GdlConstant> staticNames;
+	private final long compileTime;
+
+	private RuleProgram(List<Gdl> description)
+	{
+		long start = System.currentTimeMillis();
+		SetMultimap<GdlConstant, GdlConstant> dependencies = HashMultimap.create();
+		List<GdlRule> rules = new ArrayList<GdlRule>();
+		Set<GdlConstant> names = new HashSet<GdlConstant>();
+		names.add(GdlPool.TRUE);
+		names.add(GdlPool.DOES);
+		for (Gdl gdl : DeORer.run(description))
+		{
+			if (gdl instanceof GdlSentence)
+			{
+				GdlSentence fact = (GdlSentence) gdl;
+				names.add(fact.getName());
+				List<GdlSentence> list = facts.get(fact.getName());
+				if (list == null)
+				{
+					list = new ArrayList<GdlSentence>();
+					facts.put(fact.getName(), list);
+				}
+				list.add(fact);
+			}
+			else if (gdl instanceof GdlRule)
+			{
+				GdlRule rule = (GdlRule) gdl;
+				GdlConstant head = rule.getHead().getName();
+				names.add(head);
+				rules.add(rule);
+				for (GdlLiteral literal : rule.getBody())
+				{
+					GdlConstant name = getName(literal);
+					if (name != null)
+					{
+						names.add(name);
+						dependencies.put(head, name);
+					}
+				}
+			}
+		}
+
+		ImmutableSet<GdlConstant> dynamicNames = DependencyGraphs.getMatchingAndDownstream(names, dependencies,
+				name -> name == GdlPool.TRUE || name == GdlPool.DOES);
+		staticNames = ImmutableSet.copyOf(Sets.difference(names, dynamicNames));
+
+		for (Set<GdlConstant> stratumNames : DependencyGraphs.toposortSafe(names, dependencies))
+		{
+			for (GdlConstant name : stratumNames)
+			{
+				stratumOf.put(name, strata.size());
+			}
+			strata.add(new Stratum(stratumNames, staticNames.containsAll(stratumNames)));
+		}
+		for (GdlRule rule : rules)
+		{
+			strata.get(stratumOf.get(rule.getHead().getName())).rules.add(rule);
+		}
+		for (int s = 0; s < strata.size(); s++)
+		{
+			Set<Integer> read = new HashSet<Integer>();
+			for (GdlConstant name : strata.get(s).names)
+			{
+				for (GdlConstant dependency : dependencies.get(name))
+				{
+					read.add(stratumOf.get(dependency));
+				}
+			}
+			read.remove(s);
+			int[] array = new int[read.size()];
+			int i = 0;
+			for (int dependency : read)
+			{
+				array[i++] = dependency;
+			}
+			strata.get(s).dependencies = array;
+		}
+
+		// The static strata are compiled and evaluated in order, so that each
+		// is planned knowing the sizes of the tables below it.
+		Evaluation statics = new Evaluation(Collections.<GdlSentence>emptySet(), true);
+		for (int s = 0; s < strata.size(); s++)
+		{
+			if (strata.get(s).isStatic)
+			{
+				strata.get(s).compile(name -> statics.table(name).size());
+				statics.ensure(s);
+			}
+		}
+		for (GdlConstant name : staticNames)
+		{
+			FactTable table = statics.tables.get(name);
+			if (table != null)
+			{
+				table.freeze();
+				staticTables.put(name, table);
+			}
+		}
+		for (Stratum stratum : strata)
+		{
+			if (!stratum.isStatic)
+			{
+				stratum.compile(this::estimateSize);
+			}
+		}
+		compileTime = System.currentTimeMillis() - start;
+	}
+
+	/**
+	 * @throws IllegalArgumentException If the description has a rule that
+	 *         isn't safe, or a literal that can't be compiled.
+	 */
+	public static RuleProgram compile(List<Gdl> description)
+	{
+		return new RuleProgram(description);
+	}
+
+	private static GdlConstant getName(GdlLiteral literal)
+	{
+		if (literal instanceof GdlSentence)
+		{
+			return ((GdlSentence) literal).getName();
+		}
+		if (literal instanceof GdlNot && ((GdlNot) literal).getBody() instanceof GdlSentence)
+		{
+			return ((GdlSentence) ((GdlNot) literal).getBody()).getName();
+		}
+		return null;
+	}
+
+	private int estimateSize(GdlConstant name)
+	{
+		FactTable table = staticTables.get(name);
+		if (table != null)
+		{
+			return table.size();
+		}
+		if (staticNames.contains(name))
+		{
+			return 0;
+		}
+		return (name == GdlPool.DOES) ? DOES_SIZE : DYNAMIC_SIZE;
+	}
+
+	/**
+	 * Whether the relation is the same in every state of the game.
+	 */
+	public boolean isStatic(GdlConstant name)
+	{
+		return staticNames.contains(name);
+	}
+
+	public Set<GdlConstant> getStaticNames()
+	{
+		return staticNames;
+	}
+
+	/**
+	 * @return Every true sentence of a static relation.
+	 */
+	public Collection<GdlSentence> getStaticSentences(GdlConstant name)
+	{
+		FactTable table = staticTables.get(name);
+		return (table == null) ? Collections.<GdlSentence>emptyList() : Collections.unmodifiableList(table.all());
+	}
+
+	/**
+	 * @return The time taken to compile the rules and evaluate the static
+	 *         relations, in milliseconds.
+	 */
+	public long getCompileTime()
+	{
+		return compileTime;
+	}
+
+	/**
+	 * Starts evaluating the rules for the given true and does sentences.
+	 * Nothing is derived until a relation is asked about.
+	 */
+	public Evaluation evaluate(Set<GdlSentence> context)
+	{
+		return new Evaluation(context, false);
+	}
+
+	/**
+	 * The relations derived from one set of true and does sentences, each
+	 * evaluated the first time it is needed. Not thread-safe.
+	 */
+	public final class Evaluation
+	{
+		private final Set<GdlSentence> context;
+		private final Map<GdlConstant, FactTable> tables = new HashMap<GdlConstant, FactTable>();
+		private final boolean[] evaluated = new boolean[strata.size()];
+		private final JoinPlan.Tables reader = this::table;
+
+		private Evaluation(Set<GdlSentence> context, boolean evaluatingStatics)
+		{
+			this.context = ImmutableSet.copyOf(context);
+			for (int s = 0; s < strata.size(); s++)
+			{
+				evaluated[s] = !evaluatingStatics && strata.get(s).isStatic;
+			}
+			for (GdlSentence sentence : context)
+			{
+				table(sentence.getName(), true).add(sentence);
+			}
+		}
+
+		public Set<GdlSentence> getContext()
+		{
+			return context;
+		}
+
+		private FactTable table(GdlConstant name)
+		{
+			FactTable table = tables.get(name);
+			if (table == null)
+			{
+				table = staticTables.get(name);
+			}
+			return (table == null) ? EMPTY : table;
+		}
+
+		private FactTable table(GdlConstant name, boolean create)
+		{
+			FactTable table = tables.get(name);
+			if (table == null && create)
+			{
+				table = new FactTable();
+				List<GdlSentence> base = facts.get(name);
+				if (base != null)
+				{
+					for (GdlSentence fact : base)
+					{
+						table.add(fact);
+					}
+				}
+				tables.put(name, table);
+			}
+			return table;
+		}
+
+		/**
+		 * @return Every true sentence of the relation.
+		 */
+		public Collection<GdlSentence> getSentences(GdlConstant name)
+		{
+			Integer s = stratumOf.get(name);
+			if (s == null)
+			{
+				return Collections.emptyList();
+			}
+			ensure(s);
+			return Collections.unmodifiableList(table(name).all());
+		}
+
+		/**
+		 * @return The true sentences that match the query, or at most one of
+		 *         them if askOne is set.
+		 */
+		public Set<GdlSentence> ask(GdlSentence query, boolean askOne)
+		{
+			Set<GdlSentence> results = new HashSet<GdlSentence>();
+			Integer s = stratumOf.get(query.getName());
+			if (s == null)
+			{
+				return results;
+			}
+			ensure(s);
+			FactTable table = table(query.getName());
+			List<GdlSentence> candidates = table.all();
+			for (int i = 0; i < query.arity(); i++)
+			{
+				if (query.get(i) instanceof GdlConstant)
+				{
+					candidates = table.lookup(i, query.get(i));
+					break;
+				}
+			}
+			Map<GdlVariable, GdlTerm> bindings = new HashMap<GdlVariable, GdlTerm>();
+			for (GdlSentence candidate : candidates)
+			{
+				bindings.clear();
+				if (matches(query, candidate, bindings))
+				{
+					results.add(candidate);
+					if (askOne)
+					{
+						break;
+					}
+				}
+			}
+			return results;
+		}
+
+		private boolean matches(GdlSentence query, GdlSentence sentence, Map<GdlVariable, GdlTerm> bindings)
+		{
+			if (query.arity() != sentence.arity()
+					|| (query instanceof GdlProposition) != (sentence instanceof GdlProposition))
+			{
+				return false;
+			}
+			for (int i = 0; i < query.arity(); i++)
+			{
+				if (!matches(query.get(i), sentence.get(i), bindings))
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private boolean matches(GdlTerm pattern, GdlTerm term, Map<GdlVariable, GdlTerm> bindings)
+		{
+			if (pattern instanceof GdlVariable)
+			{
+				GdlTerm bound = bindings.putIfAbsent((GdlVariable) pattern, term);
+				return bound == null || bound == term;
+			}
+			if (pattern instanceof GdlFunction)
+			{
+				if (!(term instanceof GdlFunction))
+				{
+					return false;
+				}
+				GdlFunction patternFunction = (GdlFunction) pattern;
+				GdlFunction function = (GdlFunction) term;
+				if (patternFunction.getName() != function.getName() || patternFunction.arity() != function.arity())
+				{
+					return false;
+				}
+				for (int i = 0; i < function.arity(); i++)
+				{
+					if (!matches(patternFunction.get(i), function.get(i), bindings))
+					{
+						return false;
+					}
+				}
+				return true;
+			}
+			return pattern == term;
+		}
+
+		private void ensure(int s)
+		{
+			if (evaluated[s])
+			{
+				return;
+			}
+			evaluated[s] = true;
+			Stratum stratum = strata.get(s);
+			for (int dependency : stratum.dependencies)
+			{
+				ensure(dependency);
+			}
+			for (GdlConstant name : stratum.names)
+			{
+				table(name, true);
+			}
+
+			List<GdlSentence> derived = new ArrayList<GdlSentence>();
+			Map<GdlConstant, FactTable> delta = new HashMap<GdlConstant, FactTable>();
+			for (JoinPlan plan : stratum.plans)
+			{
+				derived.clear();
+				plan.execute(reader, null, derived);
+				FactTable table = tables.get(plan.getHeadName());
+				for (GdlSentence sentence : derived)
+				{
+					if (table.add(sentence) && !stratum.deltaPlans.isEmpty())
+					{
+						deltaTable(delta, plan.getHeadName()).add(sentence);
+					}
+				}
+			}
+			while (!delta.isEmpty())
+			{
+				Map<GdlConstant, FactTable> newDelta = new HashMap<GdlConstant, FactTable>();
+				for (JoinPlan plan : stratum.deltaPlans)
+				{
+					FactTable deltaTable = delta.get(plan.getDeltaName());
+					if (deltaTable == null)
+					{
+						continue;
+					}
+					derived.clear();
+					plan.execute(reader, deltaTable, derived);
+					FactTable table = tables.get(plan.getHeadName());
+					for (GdlSentence sentence : derived)
+					{
+						if (!table.contains(sentence))
+						{
+							deltaTable(newDelta, plan.getHeadName()).add(sentence);
+						}
+					}
+				}
+				for (Map.Entry<GdlConstant, FactTable> entry : newDelta.entrySet())
+				{
+					FactTable table = tables.get(entry.getKey());
+					for (GdlSentence sentence : entry.getValue().all())
+					{
+						table.add(sentence);
+					}
+				}
+				delta = newDelta;
+			}
+		}
+
+		private FactTable deltaTable(Map<GdlConstant, FactTable> delta, GdlConstant name)
+		{
+			FactTable table = delta.get(name);
+			if (table == null)
+			{
+				table = new FactTable();
+				delta.put(name, table);
+			}
+			return table;
+		}
+	}
+}
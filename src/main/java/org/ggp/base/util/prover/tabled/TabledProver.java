@@ -0,0 +1,69 @@
+package org.ggp.base.util.prover.tabled;
+
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.prover.Prover;
+
+/**
+ * A prover that answers queries bottom-up, from a {@link RuleProgram}: the
+ * static relations are worked out once, when the prover is created, and the
+ * rest are tabled per context, so every relation is derived at most once for
+ * a given set of true and does sentences. Each thread keeps the evaluation of
+ * the last context it asked about, so the legal, goal and terminal queries a
+ * state machine makes about one state share their work.
+ *
+ * Like the AimaProver, this expects the context to hold true and does
+ * sentences only: the other relations are assumed not to depend on it.
+ */
+public final class TabledProver implements Prover
+{
+	private final RuleProgram program;
+	private final ThreadLocal<RuleProgram.Evaluation> lastEvaluation = new ThreadLocal<RuleProgram.Evaluation>();
+
+	/**
+	 * @throws IllegalArgumentException If the description can't be compiled,
+	 *         e.g. because it has a rule that isn't safe.
+	 */
+	public TabledProver(List<Gdl> description)
+	{
+		program = RuleProgram.compile(description);
+	}
+
+	public RuleProgram getProgram()
+	{
+		return program;
+	}
+
+	private RuleProgram.Evaluation evaluationFor(Set<GdlSentence> context)
+	{
+		RuleProgram.Evaluation evaluation = lastEvaluation.get();
+		if (evaluation == null || !evaluation.getContext().equals(context))
+		{
+			evaluation = program.evaluate(context);
+			lastEvaluation.set(evaluation);
+		}
+		return evaluation;
+	}
+
+	@Override
+	public Set<GdlSentence> askAll(GdlSentence query, Set<GdlSentence> context)
+	{
+		return evaluationFor(context).ask(query, false);
+	}
+
+	@Override
+	public GdlSentence askOne(GdlSentence query, Set<GdlSentence> context)
+	{
+		Set<GdlSentence> results = evaluationFor(context).ask(query, true);
+		return results.isEmpty() ? null : results.iterator().next();
+	}
+
+	@Override
+	public boolean prove(GdlSentence query, Set<GdlSentence> context)
+	{
+		return askOne(query, context) != null;
+	}
+}
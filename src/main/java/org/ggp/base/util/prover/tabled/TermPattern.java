@@ -0,0 +1,149 @@
+package org.ggp.base.util.prover.tabled;
+
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+
+/**
+ * A term of a compiled rule. Variables are numbered slots in an array of
+ * bindings rather than entries in a substitution, and a variable's first
+ * occurrence in the join order binds its slot while later ones compare
+ * against it, so matching never has to undo anything: a slot is always
+ * rebound before it is read again.
+ *
+ * Ground terms are pooled by GdlPool, so they are compared by identity.
+ */
+abstract class TermPattern
+{
+	/**
+	 * Matches the pattern against a ground term, binding the slots of the
+	 * variables that occur here first.
+	 */
+	abstract boolean match(GdlTerm term, GdlTerm[] bindings);
+
+	/**
+	 * Builds the ground term, once all of the pattern's variables are bound.
+	 */
+	abstract GdlTerm instantiate(GdlTerm[] bindings);
+
+	/**
+	 * Whether instantiating the pattern is as cheap as reading a field, so
+	 * that it is worth using as an index key.
+	 */
+	abstract boolean isSimple();
+
+	static final class Constant extends TermPattern
+	{
+		private final GdlConstant constant;
+
+		Constant(GdlConstant constant)
+		{
+			this.constant = constant;
+		}
+
+		@Override
+		boolean match(GdlTerm term, GdlTerm[] bindings)
+		{
+			return term == constant;
+		}
+
+		@Override
+		GdlTerm instantiate(GdlTerm[] bindings)
+		{
+			return constant;
+		}
+
+		@Override
+		boolean isSimple()
+		{
+			return true;
+		}
+	}
+
+	static final class Variable extends TermPattern
+	{
+		private final int slot;
+		private final boolean binds;
+
+		Variable(int slot, boolean binds)
+		{
+			this.slot = slot;
+			this.binds = binds;
+		}
+
+		@Override
+		boolean match(GdlTerm term, GdlTerm[] bindings)
+		{
+			if (binds)
+			{
+				bindings[slot] = term;
+				return true;
+			}
+			return bindings[slot] == term;
+		}
+
+		@Override
+		GdlTerm instantiate(GdlTerm[] bindings)
+		{
+			return bindings[slot];
+		}
+
+		@Override
+		boolean isSimple()
+		{
+			return true;
+		}
+	}
+
+	static final class Function extends TermPattern
+	{
+		private final GdlConstant name;
+		private final TermPattern[] args;
+
+		Function(GdlConstant name, TermPattern[] args)
+		{
+			this.name = name;
+			this.args = args;
+		}
+
+		@Override
+		boolean match(GdlTerm term, GdlTerm[] bindings)
+		{
+			if (!(term instanceof GdlFunction))
+			{
+				return false;
+			}
+			GdlFunction function = (GdlFunction) term;
+			if (function.getName() != name || function.arity() != args.length)
+			{
+				return false;
+			}
+			for (int i = 0; i < args.length; i++)
+			{
+				if (!args[i].match(function.get(i), bindings))
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		GdlTerm instantiate(GdlTerm[] bindings)
+		{
+			GdlTerm[] body = new GdlTerm[args.length];
+			for (int i = 0; i < args.length; i++)
+			{
+				body[i] = args[i].instantiate(bindings);
+			}
+			return GdlPool.getFunction(name, body);
+		}
+
+		@Override
+		boolean isSimple()
+		{
+			return false;
+		}
+	}
+}
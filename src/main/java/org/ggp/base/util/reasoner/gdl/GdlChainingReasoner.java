@@ -4,6 +4,7 @@ import java.util.Collection;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
 import org.ggp.base.util.concurrency.ConcurrencyUtils;
 import org.ggp.base.util.gdl.GdlUtils;
@@ -29,6 +30,7 @@ import org.ggp.base.util.gdl.transforms.CommonTransforms;
 import org.ggp.base.util.reasoner.DifferentialForwardChainingReasoner;
 
 import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Maps;
 import com.google.common.collect.SetMultimap;
 
 /**
@@ -39,6 +41,10 @@ public class GdlChainingReasoner implements
 		DifferentialForwardChainingReasoner<GdlRule, GdlSentenceSet> {
 	private final SentenceFormModel model;
 	private final ImmutableMultimap<SentenceForm, GdlSentence> constants;
+	//Rules are applied over and over again, so what doesn't depend on the
+	//sentences given is worked out once per rule or literal
+	private final ConcurrentMap<GdlRule, Map<GdlVariable, Set<GdlConstant>>> varDomainsByRule = Maps.newConcurrentMap();
+	private final ConcurrentMap<GdlSentence, SentenceForm> formsBySentence = Maps.newConcurrentMap();
 
 	private GdlChainingReasoner(SentenceFormModel model, ImmutableMultimap<SentenceForm, GdlSentence> constants) {
 		this.model = model;
@@ -63,8 +69,8 @@ public class GdlChainingReasoner implements
 			SentenceDomainModel domainModel,
 			GdlSentenceSet sentencesSoFar) throws InterruptedException {
 		ConcurrencyUtils.checkForInterruption();
-		SentenceForm headForm = model.getSentenceForm(rule.getHead());
-		Map<GdlVariable, Set<GdlConstant>> varDomains = SentenceDomainModels.getVarDomains(rule, domainModel, VarDomainOpts.INCLUDE_HEAD);
+		SentenceForm headForm = getSentenceForm(rule.getHead());
+		Map<GdlVariable, Set<GdlConstant>> varDomains = getVarDomains(rule, domainModel);
 		Map<SentenceForm, ? extends FunctionInfo> functionInfoMap = sentencesSoFar.getFunctionInfo();
 		Map<SentenceForm, ? extends Collection<GdlSentence>> completedSentenceFormValues = sentencesSoFar.getSentences().asMap();
 
@@ -120,11 +126,32 @@ public class GdlChainingReasoner implements
 	private boolean satisfiesSentence(Map<GdlVariable, GdlConstant> assignment,
 			GdlSentence sentence,
 			SetMultimap<SentenceForm, GdlSentence> sentencesSoFar) {
+		SentenceForm form = getSentenceForm(sentence);
 		sentence = CommonTransforms.replaceVariables(sentence, assignment);
-		SentenceForm form = model.getSentenceForm(sentence);
 		return sentencesSoFar.get(form).contains(sentence);
 	}
 
+	private SentenceForm getSentenceForm(GdlSentence sentence) {
+		SentenceForm form = formsBySentence.get(sentence);
+		if (form == null) {
+			form = model.getSentenceForm(sentence);
+			formsBySentence.putIfAbsent(sentence, form);
+		}
+		return form;
+	}
+
+	private Map<GdlVariable, Set<GdlConstant>> getVarDomains(GdlRule rule, SentenceDomainModel domainModel) {
+		if (domainModel != model) {
+			return SentenceDomainModels.getVarDomains(rule, domainModel, VarDomainOpts.INCLUDE_HEAD);
+		}
+		Map<GdlVariable, Set<GdlConstant>> varDomains = varDomainsByRule.get(rule);
+		if (varDomains == null) {
+			varDomains = SentenceDomainModels.getVarDomains(rule, domainModel, VarDomainOpts.INCLUDE_HEAD);
+			varDomainsByRule.putIfAbsent(rule, varDomains);
+		}
+		return varDomains;
+	}
+
 	private boolean satisfiesDistinct(Map<GdlVariable, GdlConstant> assignment,
 			GdlDistinct distinct) {
 		distinct = CommonTransforms.replaceVariables(distinct, assignment);
@@ -160,7 +187,7 @@ public class GdlChainingReasoner implements
 		for (GdlLiteral literal : rule.getBody()) {
 			ConcurrencyUtils.checkForInterruption();
 			if (literal instanceof GdlSentence) {
-				SentenceForm literalForm = domainModel.getSentenceForm((GdlSentence) literal);
+				SentenceForm literalForm = getSentenceForm((GdlSentence) literal);
 				addRuleResultsForChosenLiteral(
 						rule,
 						(GdlSentence) literal,
@@ -180,8 +207,8 @@ public class GdlChainingReasoner implements
 			SentenceDomainModel domainModel,
 			GdlSentenceSet allSentences,
 			GdlSentenceSet sentencesToAdd) {
-		SentenceForm headForm = model.getSentenceForm(rule.getHead());
-		Map<GdlVariable, Set<GdlConstant>> varDomains = SentenceDomainModels.getVarDomains(rule, domainModel, VarDomainOpts.INCLUDE_HEAD);
+		SentenceForm headForm = getSentenceForm(rule.getHead());
+		Map<GdlVariable, Set<GdlConstant>> varDomains = getVarDomains(rule, domainModel);
 		Map<SentenceForm, AddibleFunctionInfo> functionInfoMap = allSentences.getFunctionInfo();
 		Map<SentenceForm, ? extends Collection<GdlSentence>> completedSentenceFormValues = allSentences.getSentences().asMap();
 
@@ -3,6 +3,7 @@ package org.ggp.base.util.reasoner.gdl;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.gdl.model.SentenceForm;
@@ -14,6 +15,7 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
 
 /**
  * Contains a set of GdlSentences arranged by SentenceForm and the
@@ -26,16 +28,35 @@ import com.google.common.collect.SetMultimap;
 public class GdlSentenceSet {
 	private final SetMultimap<SentenceForm, GdlSentence> sentences;
 	private final Map<SentenceForm, AddibleFunctionInfo> functionInfoMap;
+	//Forms whose FunctionInfo still belongs to the set this one was created over
+	private final Set<SentenceForm> sharedForms;
 
 	private GdlSentenceSet() {
 		this.sentences = HashMultimap.create();
 		this.functionInfoMap = Maps.newHashMap();
+		this.sharedForms = Sets.newHashSet();
+	}
+
+	private GdlSentenceSet(GdlSentenceSet base) {
+		this.sentences = HashMultimap.create(base.sentences);
+		this.functionInfoMap = Maps.newHashMap(base.functionInfoMap);
+		this.sharedForms = Sets.newHashSet(base.functionInfoMap.keySet());
 	}
 
 	public static GdlSentenceSet create() {
 		return new GdlSentenceSet();
 	}
 
+	/**
+	 * Returns a new set that starts out with the sentences in the given set.
+	 * Rather than being rebuilt, the FunctionInfo of each form is shared with
+	 * the base set until a sentence of that form is added to the new set, so
+	 * the base set must not be changed while the new one is in use.
+	 */
+	public static GdlSentenceSet createOver(GdlSentenceSet base) {
+		return new GdlSentenceSet(base);
+	}
+
 	public static GdlSentenceSet create(Multimap<SentenceForm, GdlSentence> sentences) {
 		GdlSentenceSet result = create();
 		result.putAll(sentences);
@@ -66,6 +87,9 @@ public class GdlSentenceSet {
 
 	public void put(SentenceForm form, GdlSentence sentence) {
 		if (!containsSentence(form, sentence)) {
+			if (sharedForms.remove(form)) {
+				functionInfoMap.put(form, MutableFunctionInfo.create(form, sentences.get(form)));
+			}
 			sentences.put(form, sentence);
 			if (!functionInfoMap.containsKey(form)) {
 				functionInfoMap.put(form, MutableFunctionInfo.create(form));
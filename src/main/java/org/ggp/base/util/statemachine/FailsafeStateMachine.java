@@ -1,5 +1,6 @@
 package org.ggp.base.util.statemachine;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 
@@ -377,6 +378,34 @@ public class FailsafeStateMachine extends StateMachine
         return performDepthCharge(state, theDepth);
     }
 
+    @Override
+    public int performRollout(MachineState state, int[] goals) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+        if(theBackingMachine == null) {
+            Arrays.fill(goals, 0);
+            return 0;
+        }
+
+        try {
+            return theBackingMachine.performRollout(state, goals);
+        } catch (TransitionDefinitionException te) {
+            throw te;
+        } catch (MoveDefinitionException me) {
+            throw me;
+        } catch (GoalDefinitionException ge) {
+            throw ge;
+        } catch(Exception e) {
+            failGracefully(e, null);
+        } catch(ThreadDeath d) {
+            throw d;
+        } catch(OutOfMemoryError e) {
+            throw e;
+        } catch(Error e) {
+            failGracefully(null, e);
+        }
+
+        return performRollout(state, goals);
+    }
+
     @Override
     public void getAverageDiscountedScoresFromRepeatedDepthCharges(MachineState state, double[] avgScores, double[] avgDepth, double discountFactor, int repetitions) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
         if(theBackingMachine == null)
@@ -463,6 +463,33 @@ public abstract class StateMachine
         return state;
     }
 
+    /**
+     * Plays random joint moves from the given state until reaching the end of
+     * the game, and writes the goal value of each role in the terminal state
+     * into the given array, in the same order as {@link #getRoles()}.
+     * <p>
+     * Unlike {@link #performDepthCharge}, this doesn't hand back the terminal
+     * state, so implementations are free to play the game out in place on
+     * scratch storage. This default implementation is built on
+     * performDepthCharge and allocates just as much; machines that can do
+     * better override it. If the depth charge gives up because the game runs
+     * too long, every role is given a goal of zero.
+     *
+     * @param goals an array with one element per role, which will be set to
+     * the goal values of the terminal state.
+     * @return the number of state changes that were made to reach a terminal
+     * state.
+     */
+    public int performRollout(MachineState state, int[] goals) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+        int[] theDepth = new int[1];
+        MachineState terminal = performDepthCharge(state, theDepth);
+        List<Role> roles = getRoles();
+        for (int i = 0; i < roles.size(); i++) {
+            goals[i] = (terminal == null) ? 0 : getGoal(terminal, roles.get(i));
+        }
+        return theDepth[0];
+    }
+
     public void getAverageDiscountedScoresFromRepeatedDepthCharges(final MachineState state, final double[] avgScores, final double[] avgDepth, final double discountFactor, final int repetitions) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
         avgDepth[0] = 0;
         for (int j = 0; j < avgScores.length; j++) {
@@ -12,13 +12,41 @@ import org.ggp.base.util.statemachine.StateMachine;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.propnet.PropNetMachineState;
 
 import com.google.common.collect.ImmutableList;
 
+/**
+ * A StateMachine that remembers the answers of another one, state by state.
+ *
+ * The states are kept in a bounded {@link ClockCache}, so the cache can be
+ * shared by search threads without a global lock. Each state's answers are
+ * computed at most once: threads asking about the same state at the same
+ * time wait for the first one's answer.
+ *
+ * The cache is bounded either by a number of states or by a memory budget.
+ * With a budget, each state's entry carries an estimate of the bytes it
+ * holds, which grows as answers are added to it, and the least recently
+ * used states go first when the estimates add up to more than the budget.
+ * A {@link TransitionSpillTable} can also be given, off the heap, to keep
+ * the next states of evicted entries.
+ */
 public final class CachedStateMachine extends StateMachine
 {
+    /** The memory budget when no bound is given, in bytes */
+    public static final long DEFAULT_MEMORY_BUDGET = 256L << 20;
+
+    // Rough sizes of the objects an entry is made of, for the estimates:
+    // the entry with its four maps, and a map entry with its key.
+    private static final int ENTRY_BYTES = 320;
+    private static final int MAP_ENTRY_BYTES = 48;
+    private static final int MOVE_BYTES = 32;
+
     private final StateMachine backingStateMachine;
-    private final TtlCache<MachineState, Entry> ttlCache;
+    private final ClockCache<MachineState, Entry> cache;
+    // Whether entries are weighed, and so have to be reweighed as they grow.
+    private final boolean weighsEntries;
+    private final TransitionSpillTable spill;
 
     private final class Entry
     {
@@ -27,46 +55,107 @@ public final class CachedStateMachine extends StateMachine
         public Map<Role, List<Move>> moves;
         public Map<List<Move>, MachineState> nexts;
         public Boolean terminal;
+        public volatile long bytes;
 
-        public Entry()
+        public Entry(MachineState state)
         {
             goals = new HashMap<Role, Integer>();
             actions = new HashMap<Role, List<Move>>();
             moves = new HashMap<Role, List<Move>>();
             nexts = new HashMap<List<Move>, MachineState>();
             terminal = null;
+            bytes = ENTRY_BYTES + estimateBytes(state);
         }
     }
 
     public CachedStateMachine(StateMachine backingStateMachine)
+    {
+        this(backingStateMachine, DEFAULT_MEMORY_BUDGET, 0);
+    }
+
+    /**
+     * Creates a cache that holds up to the given number of states.
+     */
+    public CachedStateMachine(StateMachine backingStateMachine, int capacity)
     {
         this.backingStateMachine = backingStateMachine;
-        ttlCache = new TtlCache<MachineState, Entry>(1);
+        this.cache = new ClockCache<MachineState, Entry>(capacity);
+        this.weighsEntries = false;
+        this.spill = null;
     }
 
-    private Entry getEntry(MachineState state)
+    /**
+     * Creates a cache that holds about as many states as fit in the memory
+     * budget.
+     *
+     * @param memoryBudget The estimated heap the cached entries may use, in
+     *        bytes.
+     * @param spillBytes The size of the off-heap table for the transitions of
+     *        evicted entries, or 0 for none.
+     */
+    public CachedStateMachine(StateMachine backingStateMachine, long memoryBudget, long spillBytes)
+    {
+        this.backingStateMachine = backingStateMachine;
+        this.weighsEntries = true;
+        this.spill = (spillBytes > 0) ? new TransitionSpillTable(spillBytes) : null;
+        this.cache = new ClockCache<MachineState, Entry>(memoryBudget, entry -> entry.bytes,
+                (spill == null) ? null : this::spillTransitions);
+    }
+
+    private static long estimateBytes(MachineState state)
+    {
+        if (state instanceof PropNetMachineState)
+        {
+            // The object, its bit array and the array's contents.
+            return 48 + 8 * ((PropNetMachineState) state).getBits().length;
+        }
+        // A HashSet entry and a sentence per proposition.
+        return 64 + state.getContents().size() * 96;
+    }
+
+    private void spillTransitions(MachineState state, Entry entry)
     {
-        if (!ttlCache.containsKey(state))
+        synchronized (entry)
         {
-            ttlCache.put(state, new Entry());
+            for (Map.Entry<List<Move>, MachineState> next : entry.nexts.entrySet())
+            {
+                spill.put(state, next.getKey(), next.getValue());
+            }
         }
+    }
 
-        return ttlCache.get(state);
+    // Called with no entry locked, since it may evict other entries.
+    private void entryGrew(MachineState state)
+    {
+        if (weighsEntries)
+        {
+            cache.updateWeight(state);
+        }
+    }
+
+    private Entry getEntry(MachineState state)
+    {
+        return cache.computeIfAbsent(state, s -> new Entry(s));
     }
 
     @Override
     public int getGoal(MachineState state, Role role) throws GoalDefinitionException
     {
         Entry entry = getEntry(state);
+        Integer goal;
         synchronized (entry)
         {
-            if (!entry.goals.containsKey(role))
+            goal = entry.goals.get(role);
+            if (goal != null)
             {
-                entry.goals.put(role, backingStateMachine.getGoal(state, role));
+                return goal;
             }
-
-            return entry.goals.get(role);
+            goal = backingStateMachine.getGoal(state, role);
+            entry.goals.put(role, goal);
+            entry.bytes += MAP_ENTRY_BYTES;
         }
+        entryGrew(state);
+        return goal;
     }
 
     @Override
@@ -74,45 +163,67 @@ public final class CachedStateMachine extends StateMachine
     {
     	MachineState initialState = backingStateMachine.getInitialState();
         Entry entry = getEntry(initialState);
+        List<Move> actions;
         synchronized (entry)
         {
-            if (!entry.actions.containsKey(role))
+            actions = entry.actions.get(role);
+            if (actions != null)
             {
-                entry.actions.put(role, ImmutableList.copyOf(backingStateMachine.findActions(role)));
+                return actions;
             }
-
-            return entry.actions.get(role);
+            actions = ImmutableList.copyOf(backingStateMachine.findActions(role));
+            entry.actions.put(role, actions);
+            entry.bytes += MAP_ENTRY_BYTES + actions.size() * MOVE_BYTES;
         }
+        entryGrew(initialState);
+        return actions;
     }
 
     @Override
     public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException
     {
         Entry entry = getEntry(state);
+        List<Move> moves;
         synchronized (entry)
         {
-            if (!entry.moves.containsKey(role))
+            moves = entry.moves.get(role);
+            if (moves != null)
             {
-                entry.moves.put(role, ImmutableList.copyOf(backingStateMachine.getLegalMoves(state, role)));
+                return moves;
             }
-
-            return entry.moves.get(role);
+            moves = ImmutableList.copyOf(backingStateMachine.getLegalMoves(state, role));
+            entry.moves.put(role, moves);
+            entry.bytes += MAP_ENTRY_BYTES + moves.size() * MOVE_BYTES;
         }
+        entryGrew(state);
+        return moves;
     }
 
     @Override
     public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException
     {
         Entry entry = getEntry(state);
+        MachineState next;
         synchronized (entry)
         {
-            if (!entry.nexts.containsKey(moves))
+            next = entry.nexts.get(moves);
+            if (next != null)
             {
-                entry.nexts.put(moves, backingStateMachine.getNextState(state, moves));
+                return next;
             }
-
-            return entry.nexts.get(moves);
+            if (spill != null)
+            {
+                next = spill.get(state, moves);
+            }
+            if (next == null)
+            {
+                next = backingStateMachine.getNextState(state, moves);
+            }
+            entry.nexts.put(moves, next);
+            entry.bytes += MAP_ENTRY_BYTES + moves.size() * 8 + estimateBytes(next);
         }
+        entryGrew(state);
+        return next;
     }
 
     @Override
@@ -130,19 +241,36 @@ public final class CachedStateMachine extends StateMachine
         }
     }
 
-    @Override
-    public void doPerMoveWork()
+    /**
+     * @return The cache's size, hit rate and evictions, for logging.
+     */
+    public String getCacheStats()
+    {
+        return cache.toString() + ((spill == null) ? "" : ", " + spill);
+    }
+
+    public long getCacheHits()
     {
-        prune();
+        return cache.getHits();
     }
 
-    public void prune()
+    public long getCacheMisses()
     {
-        ttlCache.prune();
+        return cache.getMisses();
+    }
+
+    public long getCacheEvictions()
+    {
+        return cache.getEvictions();
     }
 
     @Override
     public void initialize(List<Gdl> description) {
+        cache.clear();
+        if (spill != null)
+        {
+            spill.clear();
+        }
         backingStateMachine.initialize(description);
     }
 
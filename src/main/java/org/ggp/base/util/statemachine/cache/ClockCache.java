@@ -0,0 +1,273 @@
+package org.ggp.base.util.statemachine.cache;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * A bounded, thread-safe cache that maps keys of type K to values of type
+ * V, for sharing between search threads.
+ *
+ * Lookups go straight to a ConcurrentHashMap and take no lock. When an
+ * insertion takes the cache over its budget, entries are evicted with the
+ * CLOCK algorithm: a hand sweeps around the entries, clearing the reference
+ * bit of those that were used since it last passed and evicting the first
+ * one that wasn't. This approximates least-recently-used eviction without
+ * keeping the entries in order, so a hit costs one volatile write.
+ *
+ * By default every entry weighs 1, so the budget is a number of entries.
+ * Given a {@link Weigher}, the budget is in whatever the weigher measures,
+ * e.g. estimated bytes. Values that grow after they are cached must be
+ * re-weighed with {@link #updateWeight(Object)}.
+ *
+ * The number of hits, misses and evictions is counted, to help size the
+ * cache.
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public final class ClockCache<K, V>
+{
+    public interface Weigher<V>
+    {
+        long weigh(V value);
+    }
+
+    private static final class Slot<V>
+    {
+        final V value;
+        volatile boolean referenced = true;
+        // The weight this slot adds to the total; guarded by the slot.
+        long weight;
+        boolean removed = false;
+
+        Slot(V value, long weight)
+        {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private final ConcurrentHashMap<K, Slot<V>> contents;
+    private final long budget;
+    private final Weigher<? super V> weigher;
+    private final BiConsumer<? super K, ? super V> evictionListener;
+    private final AtomicLong weight = new AtomicLong();
+    private final ReentrantLock handLock = new ReentrantLock();
+    // Where the clock hand is; null once it has gone all the way round.
+    private Iterator<Map.Entry<K, Slot<V>>> hand = null;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a cache that holds up to the given number of entries.
+     */
+    public ClockCache(int capacity)
+    {
+        this(capacity, null, null);
+    }
+
+    /**
+     * @param budget The total weight the cache may hold.
+     * @param weigher Weighs each value, or null to count entries.
+     * @param evictionListener Told about each entry the cache evicts, or
+     *        null. It runs on the thread whose insertion caused the eviction.
+     */
+    public ClockCache(long budget, Weigher<? super V> weigher, BiConsumer<? super K, ? super V> evictionListener)
+    {
+        if (budget <= 0)
+            throw new IllegalArgumentException("Budget must be positive: " + budget);
+        this.budget = budget;
+        this.weigher = weigher;
+        this.evictionListener = evictionListener;
+        this.contents = new ConcurrentHashMap<K, Slot<V>>((int) Math.min(budget, 1 << 16));
+    }
+
+    private long weigh(V value)
+    {
+        return (weigher == null) ? 1 : weigher.weigh(value);
+    }
+
+    /**
+     * Returns the value for the key, or null if it isn't cached.
+     */
+    public V get(K key)
+    {
+        Slot<V> slot = contents.get(key);
+        if (slot == null)
+        {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        slot.referenced = true;
+        return slot.value;
+    }
+
+    /**
+     * Returns the value for the key, computing and caching it first if it
+     * isn't cached. When several threads miss on the same key at once, only
+     * one of them computes the value and the others wait for it.
+     */
+    public V computeIfAbsent(K key, final Function<? super K, ? extends V> compute)
+    {
+        Slot<V> slot = contents.get(key);
+        if (slot != null)
+        {
+            hits.increment();
+            slot.referenced = true;
+            return slot.value;
+        }
+        misses.increment();
+        slot = contents.computeIfAbsent(key, k -> {
+            V value = compute.apply(k);
+            Slot<V> created = new Slot<V>(value, weigh(value));
+            weight.addAndGet(created.weight);
+            return created;
+        });
+        evictIfOverBudget();
+        return slot.value;
+    }
+
+    public void put(K key, V value)
+    {
+        Slot<V> slot = new Slot<V>(value, weigh(value));
+        weight.addAndGet(slot.weight);
+        Slot<V> old = contents.put(key, slot);
+        if (old != null)
+        {
+            release(old);
+        }
+        evictIfOverBudget();
+    }
+
+    /**
+     * Weighs the key's value again, after it has grown or shrunk, and
+     * evicts if that takes the cache over its budget.
+     */
+    public void updateWeight(K key)
+    {
+        Slot<V> slot = contents.get(key);
+        if (slot == null)
+            return;
+        synchronized (slot)
+        {
+            if (slot.removed)
+                return;
+            long newWeight = weigh(slot.value);
+            weight.addAndGet(newWeight - slot.weight);
+            slot.weight = newWeight;
+        }
+        evictIfOverBudget();
+    }
+
+    private void release(Slot<V> slot)
+    {
+        synchronized (slot)
+        {
+            slot.removed = true;
+            weight.addAndGet(-slot.weight);
+            slot.weight = 0;
+        }
+    }
+
+    private void evictIfOverBudget()
+    {
+        if (weight.get() <= budget)
+            return;
+        handLock.lock();
+        try
+        {
+            while (weight.get() > budget)
+            {
+                if (hand == null || !hand.hasNext())
+                {
+                    hand = contents.entrySet().iterator();
+                    if (!hand.hasNext())
+                        return;
+                }
+                Map.Entry<K, Slot<V>> entry = hand.next();
+                Slot<V> slot = entry.getValue();
+                if (slot.referenced)
+                {
+                    slot.referenced = false;
+                }
+                else if (contents.remove(entry.getKey(), slot))
+                {
+                    release(slot);
+                    evictions.increment();
+                    if (evictionListener != null)
+                    {
+                        evictionListener.accept(entry.getKey(), slot.value);
+                    }
+                }
+            }
+        }
+        finally
+        {
+            handLock.unlock();
+        }
+    }
+
+    public int size()
+    {
+        return contents.size();
+    }
+
+    /**
+     * @return The total weight of the cached entries, i.e. their number if
+     *         there is no weigher.
+     */
+    public long getWeight()
+    {
+        return weight.get();
+    }
+
+    public long getBudget()
+    {
+        return budget;
+    }
+
+    public void clear()
+    {
+        for (K key : contents.keySet())
+        {
+            Slot<V> slot = contents.remove(key);
+            if (slot != null)
+            {
+                release(slot);
+            }
+        }
+    }
+
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    public long getEvictions()
+    {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString()
+    {
+        long h = getHits();
+        long total = h + getMisses();
+        return String.format("%d entries, weight %d/%d, %.1f%% hits, %d evictions",
+                size(), getWeight(), budget, (total == 0) ? 0.0 : 100.0 * h / total, getEvictions());
+    }
+}
@@ -0,0 +1,172 @@
+package org.ggp.base.util.statemachine.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.implementation.propnet.PropNetMachineState;
+
+/**
+ * A fixed-size, off-heap table of state transitions, where
+ * {@link CachedStateMachine} puts the next states of the entries it evicts,
+ * so that they don't have to be computed again and don't weigh on the
+ * garbage collector.
+ *
+ * Only transitions between {@link PropNetMachineState}s are kept, since
+ * those are plain bit arrays. Each slot holds the state's bits, a hash of
+ * the joint move and the next state's bits; a slot is found by hashing the
+ * state and the joint move, and a new transition simply overwrites whatever
+ * was in its slot. The state is compared in full, so a lookup can only go
+ * wrong if two joint moves from the same state have the same 64-bit hash.
+ */
+public final class TransitionSpillTable
+{
+    private static final int NUM_STRIPES = 64;
+
+    private final LongBuffer table;
+    private final long capacityBytes;
+    private final Object[] stripes = new Object[NUM_STRIPES];
+    // Words per state, fixed by the first state seen. Written last, so a
+    // reader that sees it also sees the rest of the layout.
+    private volatile int stateWords = -1;
+    private int slotWords;
+    private int numSlots;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+
+    /**
+     * @param capacityBytes The size of the table, allocated off the heap.
+     */
+    public TransitionSpillTable(long capacityBytes)
+    {
+        this.capacityBytes = capacityBytes;
+        this.table = ByteBuffer.allocateDirect((int) Math.min(capacityBytes, Integer.MAX_VALUE - 7) & ~7).asLongBuffer();
+        for (int i = 0; i < NUM_STRIPES; i++)
+        {
+            stripes[i] = new Object();
+        }
+    }
+
+    private synchronized boolean fitsLayout(long[] bits)
+    {
+        if (stateWords < 0)
+        {
+            // Tag, move hash, the state and the next state.
+            slotWords = 2 + 2 * bits.length;
+            numSlots = table.capacity() / slotWords;
+            stateWords = bits.length;
+        }
+        return bits.length == stateWords && numSlots > 0;
+    }
+
+    private static long hashMoves(List<Move> moves)
+    {
+        long hash = 1;
+        for (Move move : moves)
+        {
+            hash = hash * 0x9E3779B97F4A7C15L + move.hashCode();
+        }
+        return hash;
+    }
+
+    private static long tag(long[] bits, long moveHash)
+    {
+        long hash = moveHash;
+        for (long word : bits)
+        {
+            hash = (hash ^ word) * 0xC2B2AE3D27D4EB4FL;
+            hash ^= hash >>> 29;
+        }
+        // Zero marks an empty slot.
+        return (hash == 0) ? 1 : hash;
+    }
+
+    public void put(MachineState state, List<Move> moves, MachineState next)
+    {
+        if (!(state instanceof PropNetMachineState) || !(next instanceof PropNetMachineState))
+            return;
+        long[] bits = ((PropNetMachineState) state).getBits();
+        long[] nextBits = ((PropNetMachineState) next).getBits();
+        if (!fitsLayout(bits) || nextBits.length != stateWords)
+            return;
+        long moveHash = hashMoves(moves);
+        long tag = tag(bits, moveHash);
+        int slot = (int) ((tag >>> 1) % numSlots);
+        int base = slot * slotWords;
+        synchronized (stripes[slot % NUM_STRIPES])
+        {
+            table.put(base, tag);
+            table.put(base + 1, moveHash);
+            for (int i = 0; i < stateWords; i++)
+            {
+                table.put(base + 2 + i, bits[i]);
+                table.put(base + 2 + stateWords + i, nextBits[i]);
+            }
+        }
+        puts.increment();
+    }
+
+    /**
+     * @return The next state, or null if the transition isn't in the table.
+     */
+    public MachineState get(MachineState state, List<Move> moves)
+    {
+        if (!(state instanceof PropNetMachineState))
+            return null;
+        PropNetMachineState propNetState = (PropNetMachineState) state;
+        long[] bits = propNetState.getBits();
+        if (stateWords < 0 || bits.length != stateWords || numSlots == 0)
+            return null;
+        long moveHash = hashMoves(moves);
+        long tag = tag(bits, moveHash);
+        int slot = (int) ((tag >>> 1) % numSlots);
+        int base = slot * slotWords;
+        synchronized (stripes[slot % NUM_STRIPES])
+        {
+            if (table.get(base) != tag || table.get(base + 1) != moveHash)
+            {
+                misses.increment();
+                return null;
+            }
+            for (int i = 0; i < stateWords; i++)
+            {
+                if (table.get(base + 2 + i) != bits[i])
+                {
+                    misses.increment();
+                    return null;
+                }
+            }
+            long[] nextBits = new long[stateWords];
+            for (int i = 0; i < stateWords; i++)
+            {
+                nextBits[i] = table.get(base + 2 + stateWords + i);
+            }
+            hits.increment();
+            return new PropNetMachineState(propNetState.getPropNet(), nextBits);
+        }
+    }
+
+    /**
+     * Empties the table, e.g. for a new game with different bases.
+     */
+    public synchronized void clear()
+    {
+        stateWords = -1;
+        for (int i = 0; i < table.capacity(); i++)
+        {
+            table.put(i, 0);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("spill %d MB off heap, %d puts, %d hits, %d misses",
+                capacityBytes >> 20, puts.sum(), hits.sum(), misses.sum());
+    }
+}
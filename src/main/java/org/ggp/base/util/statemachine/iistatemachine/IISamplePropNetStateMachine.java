@@ -248,7 +248,7 @@ public class IISamplePropNetStateMachine extends IIStateMachine {
 		}
 
 		for (Proposition p : iipropNet.getPropositions()) { // set all other propositions to unknown
-			if (!knownProps.containsKey(p) && !iipropNet.getInputPropositions().values().contains(p)) {
+			if (!knownProps.containsKey(p) && iipropNet.getInputPropositions().get(p.getName()) != p) {
 				iipropNet.setIIValue(p, 0.5);
 			}
 		}
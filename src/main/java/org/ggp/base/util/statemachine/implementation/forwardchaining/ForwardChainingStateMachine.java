@@ -0,0 +1,367 @@
+package org.ggp.base.util.statemachine.implementation.forwardchaining;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlLiteral;
+import org.ggp.base.util.gdl.grammar.GdlNot;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlRelation;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.gdl.model.DependencyGraphs;
+import org.ggp.base.util.gdl.model.SentenceDomainModel;
+import org.ggp.base.util.gdl.model.SentenceDomainModelFactory;
+import org.ggp.base.util.gdl.model.SentenceForm;
+import org.ggp.base.util.gdl.transforms.ConstantChecker;
+import org.ggp.base.util.gdl.transforms.ConstantCheckerFactory;
+import org.ggp.base.util.gdl.transforms.DeORer;
+import org.ggp.base.util.gdl.transforms.GdlCleaner;
+import org.ggp.base.util.gdl.transforms.VariableConstrainer;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.reasoner.DifferentialForwardChainingReasoner;
+import org.ggp.base.util.reasoner.gdl.GdlChainingReasoner;
+import org.ggp.base.util.reasoner.gdl.GdlSentenceSet;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.prover.result.ProverResultParser;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multimaps;
+import com.google.common.collect.SetMultimap;
+
+/**
+ * A state machine that works out each state bottom-up, with a
+ * {@link DifferentialForwardChainingReasoner}, instead of proving queries
+ * or grounding the game into a propnet.
+ *
+ * The sentences of the constant sentence forms are computed once, by a
+ * {@link ConstantChecker}, and every state's sentences are built over them.
+ * For a state, the rules of the other forms are applied stratum by stratum,
+ * in the order of their dependencies: once over everything, then, in the
+ * recursive strata, semi-naively, only for the sentences that are new since
+ * the last pass. The strata that depend on does are only applied to find
+ * the next state.
+ *
+ * Since nothing is grounded ahead of time, this works on games whose
+ * propnets are too large to build, but it's slower per state than a
+ * propnet. It keeps the sentences of the last state asked about, so the
+ * legal, goal and terminal queries about one state share their work. It is
+ * not thread-safe.
+ */
+public class ForwardChainingStateMachine extends StateMachine
+{
+    private static final class Stratum
+    {
+        final List<GdlRule> rules = new ArrayList<GdlRule>();
+        boolean recursive = false;
+    }
+
+    private DifferentialForwardChainingReasoner<GdlRule, GdlSentenceSet> reasoner;
+    private SentenceDomainModel model;
+    private ConstantChecker constantChecker;
+    // The constant sentences that the rules of the other forms read, and the
+    // facts listed for the other forms
+    private GdlSentenceSet staticSentences;
+    private List<Stratum> stateStrata;
+    private List<Stratum> moveStrata;
+    private ImmutableList<Role> roles;
+    private MachineState initialState;
+
+    private MachineState lastState;
+    private GdlSentenceSet lastSentences;
+
+    @Override
+    public void initialize(List<Gdl> description)
+    {
+        try
+        {
+            description = GdlCleaner.run(description);
+            description = DeORer.run(description);
+            description = VariableConstrainer.replaceFunctionValuedVariables(description);
+            model = SentenceDomainModelFactory.createWithCartesianDomains(description);
+            constantChecker = ConstantCheckerFactory.createWithForwardChaining(model);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        reasoner = GdlChainingReasoner.create(model);
+        roles = ImmutableList.copyOf(Role.computeRoles(description));
+        lastState = null;
+        lastSentences = null;
+
+        Set<SentenceForm> constantForms = constantChecker.getConstantSentenceForms();
+        Set<SentenceForm> dynamicForms = new HashSet<SentenceForm>(model.getSentenceForms());
+        dynamicForms.removeAll(constantForms);
+        SetMultimap<SentenceForm, SentenceForm> dependencies = HashMultimap.create(
+                Multimaps.filterEntries(model.getDependencyGraph(),
+                        entry -> dynamicForms.contains(entry.getKey()) && dynamicForms.contains(entry.getValue())));
+        ImmutableSet<SentenceForm> moveForms = DependencyGraphs.getMatchingAndDownstream(dynamicForms, dependencies,
+                form -> form.getName() == GdlPool.DOES);
+
+        stateStrata = new ArrayList<Stratum>();
+        moveStrata = new ArrayList<Stratum>();
+        staticSentences = GdlSentenceSet.create();
+        for (SentenceForm form : dynamicForms)
+        {
+            // Forms can have facts listed as well as rules
+            for (GdlSentence sentence : model.getSentencesListedAsTrue(form))
+            {
+                staticSentences.put(form, sentence);
+            }
+        }
+        for (Set<SentenceForm> forms : DependencyGraphs.toposortSafe(dynamicForms, dependencies))
+        {
+            Stratum stratum = new Stratum();
+            for (SentenceForm form : forms)
+            {
+                for (GdlRule rule : model.getRules(form))
+                {
+                    stratum.rules.add(rule);
+                    for (GdlLiteral literal : rule.getBody())
+                    {
+                        SentenceForm read = formRead(literal);
+                        if (read != null && forms.contains(read) && literal instanceof GdlSentence)
+                        {
+                            stratum.recursive = true;
+                        }
+                        if (read != null && constantForms.contains(read))
+                        {
+                            addConstantSentences(read);
+                        }
+                    }
+                }
+            }
+            if (!Collections.disjoint(forms, moveForms))
+            {
+                moveStrata.add(stratum);
+            }
+            else
+            {
+                stateStrata.add(stratum);
+            }
+        }
+
+        initialState = new ProverResultParser().toState(getSentences(GdlPool.INIT, staticSentences));
+    }
+
+    private SentenceForm formRead(GdlLiteral literal)
+    {
+        if (literal instanceof GdlSentence)
+        {
+            return model.getSentenceForm((GdlSentence) literal);
+        }
+        if (literal instanceof GdlNot)
+        {
+            GdlLiteral body = ((GdlNot) literal).getBody();
+            if (body instanceof GdlSentence)
+            {
+                return model.getSentenceForm((GdlSentence) body);
+            }
+        }
+        return null;
+    }
+
+    private void addConstantSentences(SentenceForm form)
+    {
+        for (GdlSentence sentence : constantChecker.getTrueSentences(form))
+        {
+            staticSentences.put(form, sentence);
+        }
+    }
+
+    /**
+     * Applies the rules of the strata to the sentences, adding what they
+     * derive.
+     */
+    private void applyStrata(List<Stratum> strata, GdlSentenceSet sentences) throws InterruptedException
+    {
+        for (Stratum stratum : strata)
+        {
+            GdlSentenceSet newSentences = GdlSentenceSet.create();
+            for (GdlRule rule : stratum.rules)
+            {
+                GdlSentenceSet results = reasoner.getRuleResults(rule, model, sentences);
+                if (stratum.recursive)
+                {
+                    for (Map.Entry<SentenceForm, GdlSentence> entry : results.getSentences().entries())
+                    {
+                        if (!sentences.containsSentence(entry.getKey(), entry.getValue()))
+                        {
+                            newSentences.put(entry.getKey(), entry.getValue());
+                        }
+                    }
+                }
+                reasoner.getUnion(sentences, results);
+            }
+            while (!newSentences.getSentences().isEmpty())
+            {
+                GdlSentenceSet delta = newSentences;
+                newSentences = GdlSentenceSet.create();
+                for (GdlRule rule : stratum.rules)
+                {
+                    reasoner.getUnion(newSentences, reasoner.getRuleResultsForNewSentences(rule, model, sentences, delta));
+                }
+                reasoner.getUnion(sentences, newSentences);
+            }
+        }
+    }
+
+    // The sentences true in the state, apart from those that depend on does.
+    private GdlSentenceSet getStateSentences(MachineState state)
+    {
+        if (state == lastState || state.equals(lastState))
+        {
+            return lastSentences;
+        }
+        GdlSentenceSet sentences = GdlSentenceSet.createOver(staticSentences);
+        for (GdlSentence sentence : state.getContents())
+        {
+            sentences.put(model.getSentenceForm(sentence), sentence);
+        }
+        try
+        {
+            applyStrata(stateStrata, sentences);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        lastState = state;
+        lastSentences = sentences;
+        return sentences;
+    }
+
+    // Every sentence of the relation, whether of a constant form or not.
+    private Set<GdlSentence> getSentences(GdlConstant name, GdlSentenceSet sentences)
+    {
+        Set<GdlSentence> results = new HashSet<GdlSentence>();
+        for (SentenceForm form : model.getSentenceForms())
+        {
+            if (form.getName() == name)
+            {
+                if (constantChecker.isConstantForm(form))
+                {
+                    results.addAll(constantChecker.getTrueSentences(form));
+                }
+                else
+                {
+                    results.addAll(sentences.getSentences().get(form));
+                }
+            }
+        }
+        return results;
+    }
+
+    // The sentences of the relation whose first argument is the role.
+    private Set<GdlSentence> getSentences(GdlConstant name, Role role, GdlSentenceSet sentences)
+    {
+        Set<GdlSentence> results = new HashSet<GdlSentence>();
+        for (GdlSentence sentence : getSentences(name, sentences))
+        {
+            if (sentence.arity() > 0 && sentence.get(0) == role.getName())
+            {
+                results.add(sentence);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public int getGoal(MachineState state, Role role) throws GoalDefinitionException
+    {
+        Set<GdlSentence> goals = getSentences(GdlPool.GOAL, role, getStateSentences(state));
+        if (goals.size() != 1)
+        {
+            GamerLogger.logError("StateMachine", "Got goal results of size: " + goals.size() + " when expecting size one.");
+            throw new GoalDefinitionException(state, role);
+        }
+        try
+        {
+            GdlRelation relation = (GdlRelation) goals.iterator().next();
+            return Integer.parseInt(relation.get(1).toString());
+        }
+        catch (Exception e)
+        {
+            throw new GoalDefinitionException(state, role);
+        }
+    }
+
+    @Override
+    public boolean isTerminal(MachineState state)
+    {
+        return !getSentences(GdlPool.TERMINAL, getStateSentences(state)).isEmpty();
+    }
+
+    @Override
+    public List<Role> getRoles()
+    {
+        return roles;
+    }
+
+    @Override
+    public MachineState getInitialState()
+    {
+        return initialState;
+    }
+
+    @Override
+    public List<Move> findActions(Role role) throws MoveDefinitionException
+    {
+        Set<GdlSentence> inputs = getSentences(GdlPool.INPUT, role, getStateSentences(initialState));
+        if (inputs.isEmpty())
+        {
+            throw new MoveDefinitionException(initialState, role);
+        }
+        return new ProverResultParser().toMoves(inputs);
+    }
+
+    @Override
+    public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException
+    {
+        Set<GdlSentence> legals = getSentences(GdlPool.LEGAL, role, getStateSentences(state));
+        if (legals.isEmpty())
+        {
+            throw new MoveDefinitionException(state, role);
+        }
+        return new ProverResultParser().toMoves(legals);
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException
+    {
+        GdlSentenceSet sentences = GdlSentenceSet.createOver(getStateSentences(state));
+        for (int i = 0; i < roles.size(); i++)
+        {
+            GdlSentence does = GdlPool.getRelation(GdlPool.DOES, new GdlTerm[] { roles.get(i).getName(), moves.get(i).getContents() });
+            sentences.put(model.getSentenceForm(does), does);
+        }
+        try
+        {
+            applyStrata(moveStrata, sentences);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        return new ProverResultParser().toState(getSentences(GdlPool.NEXT, sentences));
+    }
+}
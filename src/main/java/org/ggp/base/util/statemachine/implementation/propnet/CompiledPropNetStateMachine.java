@@ -0,0 +1,439 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.CompiledPropNet;
+import org.ggp.base.util.propnet.architecture.LatchAnalysis;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.propnet.factory.PropNetCache;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+/**
+ * A propnet state machine that evaluates a {@link CompiledPropNet} instead of
+ * the Component object graph. Each query loads the state's base bits into a
+ * flat value array and makes one forward pass over the compiled components,
+ * so isTerminal, getLegalMoves, getGoal and getNextState are all simple
+ * array loops.
+ *
+ * States are returned as {@link PropNetMachineState}s, so handing them back
+ * to the machine costs no conversion at all.
+ *
+ * The last state loaded is remembered, so the common pattern of asking
+ * several questions about the same state in a row only propagates once.
+ *
+ * This machine is not thread-safe: it owns a single value array. Use
+ * {@link #createWorker()} to give each thread its own machine over the same
+ * compiled propnet, or {@link ConcurrentPropNetStateMachine} to share one
+ * machine between threads.
+ */
+public class CompiledPropNetStateMachine extends StateMachine {
+    /** The compiled proposition network */
+    private CompiledPropNet propNet;
+    /** The player roles */
+    private List<Role> roles;
+    /** The value of every component, indexed by component */
+    private long[] values;
+    /** The state whose bases are currently propagated through values */
+    private MachineState loadedState;
+    private MachineState initialState;
+    /** The input proposition chosen for each role, or -1; reused on every move */
+    private int[] moveInputs;
+    /** The base bits of the state being played out by performRollout */
+    private long[] rolloutBases;
+    /** Scratch space for picking random legal moves in performRollout */
+    private int[] legalScratch;
+    /** The bases that never change back once set, and what they force */
+    private LatchAnalysis latches;
+    /** Whether latches can fix every role's goal, letting rollouts stop early */
+    private boolean latchesDecideGoals;
+    /** Where compiled propnets are kept between runs, or null to always build */
+    private PropNetCache propNetCache;
+
+    /**
+     * Makes {@link #initialize(List)} look the propnet up in the cache, and
+     * add it there once built, instead of always building it. Pass null to
+     * turn the cache off, which is the default.
+     */
+    public void setPropNetCache(PropNetCache propNetCache) {
+        this.propNetCache = propNetCache;
+    }
+
+    @Override
+    public void initialize(List<Gdl> description) {
+        try {
+            if (propNetCache != null) {
+                initialize(propNetCache.get(description));
+            } else {
+                initialize(new CompiledPropNet(OptimizingPropNetFactory.create(description)));
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Initializes the machine over an already compiled propnet. The propnet
+     * is immutable, so any number of machines may share it.
+     */
+    public void initialize(CompiledPropNet propNet) {
+        this.propNet = propNet;
+        // Workers are handed the analysis of the machine that created them
+        if (latches == null || latches.getPropNet() != propNet) {
+            try {
+                latches = LatchAnalysis.analyze(propNet);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        latchesDecideGoals = latches.canForceAllGoals();
+        roles = propNet.getRoles();
+        values = propNet.newValues();
+        moveInputs = new int[roles.size()];
+        rolloutBases = new long[CompiledPropNet.wordsFor(propNet.getNumBases())];
+        int maxLegals = 0;
+        for (int r = 0; r < roles.size(); r++) {
+            maxLegals = Math.max(maxLegals, propNet.getLegalIndices(r).length);
+        }
+        legalScratch = new int[maxLegals];
+        initialState = computeInitialState();
+    }
+
+    /**
+     * Creates another machine of the same kind over the same compiled
+     * propnet. The new machine only allocates its own value arrays, so this
+     * is the cheap way to give each search thread its own evaluation
+     * context. States from either machine can be passed to the other.
+     */
+    public CompiledPropNetStateMachine createWorker() {
+        CompiledPropNetStateMachine worker = newInstance();
+        worker.latches = latches;
+        worker.initialize(propNet);
+        return worker;
+    }
+
+    /**
+     * Returns a new, uninitialized machine of the same kind as this one.
+     * Subclasses with their own evaluation state override this so that
+     * {@link #createWorker()} copies the right kind of machine.
+     */
+    protected CompiledPropNetStateMachine newInstance() {
+        return new CompiledPropNetStateMachine();
+    }
+
+    /**
+     * The initial state is the result of propagating with every base false
+     * and only the INIT proposition set.
+     */
+    private MachineState computeInitialState() {
+        Arrays.fill(values, 0L);
+        CompiledPropNet.set(values, propNet.getInitIndex(), true);
+        propagate(values);
+        long[] next = new long[CompiledPropNet.wordsFor(propNet.getNumBases())];
+        propNet.readNextBases(values, next);
+        loadedState = null;
+        return new PropNetMachineState(propNet, next);
+    }
+
+    @Override
+    public MachineState getInitialState() {
+        return initialState;
+    }
+
+    @Override
+    public boolean isTerminal(MachineState state) {
+        if (state != loadedState && latches.hasTerminalLatches() && latches.isTerminalForced(toBits(state))) {
+            return true;
+        }
+        load(state);
+        int terminal = propNet.getTerminalIndex();
+        return terminal >= 0 && CompiledPropNet.get(values, terminal);
+    }
+
+    @Override
+    public int getGoal(MachineState state, Role role)
+            throws GoalDefinitionException {
+        int r = getRoleIndices().get(role);
+        if (state != loadedState) {
+            int forced = latches.getForcedGoal(toBits(state), r);
+            if (forced >= 0) {
+                return forced;
+            }
+        }
+        load(state);
+        int found = findGoal(r);
+        if (found < 0) {
+            throw new GoalDefinitionException(state, role);
+        }
+        return propNet.getGoalValues(r)[found];
+    }
+
+    /**
+     * Returns the position of the one true goal proposition of the given
+     * role in the loaded values, or -1 if there isn't exactly one.
+     */
+    private int findGoal(int r) {
+        int[] goals = propNet.getGoalIndices(r);
+        int found = -1;
+        for (int i = 0; i < goals.length; i++) {
+            if (CompiledPropNet.get(values, goals[i])) {
+                if (found >= 0) {
+                    return -1;
+                }
+                found = i;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public List<Move> findActions(Role role)
+            throws MoveDefinitionException {
+        return Collections.unmodifiableList(Arrays.asList(propNet.getLegalMoves(getRoleIndices().get(role))));
+    }
+
+    @Override
+    public List<Move> getLegalMoves(MachineState state, Role role)
+            throws MoveDefinitionException {
+        load(state);
+        int r = getRoleIndices().get(role);
+        int[] legals = propNet.getLegalIndices(r);
+        Move[] moves = propNet.getLegalMoves(r);
+        List<Move> result = new ArrayList<Move>();
+        for (int i = 0; i < legals.length; i++) {
+            if (CompiledPropNet.get(values, legals[i])) {
+                result.add(moves[i]);
+            }
+        }
+        if (result.isEmpty()) {
+            throw new MoveDefinitionException(state, role);
+        }
+        return result;
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, List<Move> moves)
+            throws TransitionDefinitionException {
+        for (int r = 0; r < roles.size(); r++) {
+            moveInputs[r] = propNet.getInputIndex(r, moves.get(r));
+        }
+        loadSources(values, toBits(state), moveInputs);
+        // Legal, goal and terminal can't depend on does, so the values are
+        // still valid for the current state.
+        loadedState = state;
+        long[] next = new long[CompiledPropNet.wordsFor(propNet.getNumBases())];
+        propNet.readNextBases(values, next);
+        return new PropNetMachineState(propNet, next);
+    }
+
+    /**
+     * Returns the highest goal the role can still get from the state, given
+     * the goals that the state's latches rule out. Search can prune a line
+     * when this is no better than what it already has.
+     *
+     * @see LatchAnalysis#getBestPossibleGoal(long[], int)
+     */
+    public int getBestPossibleGoal(MachineState state, Role role) {
+        return latches.getBestPossibleGoal(toBits(state), getRoleIndices().get(role));
+    }
+
+    /**
+     * Plays the game out in place: the state being played is kept in a
+     * scratch bitset and the moves in a scratch array, so no objects are
+     * created per ply.
+     *
+     * The playout stops early, before reaching a terminal state, if latches
+     * have fixed every role's goal; the returned depth is then the depth at
+     * which that happened.
+     */
+    @Override
+    public int performRollout(MachineState state, int[] goals)
+            throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+        long[] bases = rolloutBases;
+        System.arraycopy(toBits(state), 0, bases, 0, bases.length);
+        loadedState = null;
+        int terminal = propNet.getTerminalIndex();
+        int depth = 0;
+        while (true) {
+            if (latchesDecideGoals && readForcedGoals(bases, goals)) {
+                return depth;
+            }
+            loadSources(values, bases, null);
+            if (terminal >= 0 && CompiledPropNet.get(values, terminal)) {
+                break;
+            }
+            for (int r = 0; r < moveInputs.length; r++) {
+                moveInputs[r] = chooseRandomInput(r);
+                if (moveInputs[r] == Integer.MIN_VALUE) {
+                    throw new MoveDefinitionException(rolloutState(), roles.get(r));
+                }
+            }
+            loadSources(values, bases, moveInputs);
+            propNet.readNextBases(values, bases);
+            depth++;
+        }
+        for (int r = 0; r < goals.length; r++) {
+            int found = findGoal(r);
+            if (found < 0) {
+                throw new GoalDefinitionException(rolloutState(), roles.get(r));
+            }
+            goals[r] = propNet.getGoalValues(r)[found];
+        }
+        return depth;
+    }
+
+    /**
+     * Fills in every role's goal from the latches of the given bases, and
+     * returns true, if the latches fix all of them.
+     */
+    private boolean readForcedGoals(long[] bases, int[] goals) {
+        for (int r = 0; r < goals.length; r++) {
+            goals[r] = latches.getForcedGoal(bases, r);
+            if (goals[r] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Picks a random legal move for the given role in the loaded values, and
+     * returns its input proposition (-1 if it has none), or
+     * Integer.MIN_VALUE if the role has no legal move.
+     */
+    private int chooseRandomInput(int r) {
+        int[] legals = propNet.getLegalIndices(r);
+        int count = 0;
+        for (int i = 0; i < legals.length; i++) {
+            if (CompiledPropNet.get(values, legals[i])) {
+                legalScratch[count++] = i;
+            }
+        }
+        if (count == 0) {
+            return Integer.MIN_VALUE;
+        }
+        return propNet.getLegalInputIndices(r)[legalScratch[ThreadLocalRandom.current().nextInt(count)]];
+    }
+
+    /**
+     * Copies the state being played out, for error reporting.
+     */
+    private MachineState rolloutState() {
+        return new PropNetMachineState(propNet, rolloutBases.clone());
+    }
+
+    @Override
+    public List<Role> getRoles() {
+        return roles;
+    }
+
+    /**
+     * Makes sure the values array holds the propagated values for the
+     * given state.
+     */
+    private void load(MachineState state) {
+        if (state == loadedState) {
+            return;
+        }
+        loadSources(values, toBits(state), null);
+        loadedState = state;
+    }
+
+    /**
+     * Sets the bases of the value array to the given bits and the inputs to
+     * the given input propositions, one per role (or to all false, if inputs
+     * is null), then brings every computed component up to date. An input
+     * of -1 stands for a move with no input proposition.
+     *
+     * This implementation clears the sources and makes a full forward pass.
+     * Subclasses may propagate more cleverly, but must leave the value array
+     * in exactly the same state.
+     */
+    protected void loadSources(long[] values, long[] baseBits, int[] inputs) {
+        propNet.loadBases(values, baseBits);
+        if (inputs != null) {
+            for (int r = 0; r < inputs.length; r++) {
+                if (inputs[r] >= 0) {
+                    CompiledPropNet.set(values, inputs[r], true);
+                }
+            }
+        }
+        propagate(values);
+    }
+
+    /**
+     * Recomputes every non-source component from the current sources. This
+     * implementation interprets the compiled propnet; subclasses may evaluate
+     * it some other way.
+     */
+    protected void propagate(long[] values) {
+        propNet.propagate(values);
+    }
+
+    /**
+     * Returns the base bits of the given state. States created by this
+     * machine already carry them; anything else is converted from GDL.
+     */
+    private long[] toBits(MachineState state) {
+        if (state instanceof PropNetMachineState && ((PropNetMachineState) state).getPropNet() == propNet) {
+            return ((PropNetMachineState) state).getBits();
+        }
+        return toBits(state.getContents());
+    }
+
+    private long[] toBits(Set<GdlSentence> sentences) {
+        long[] bits = new long[CompiledPropNet.wordsFor(propNet.getNumBases())];
+        for (GdlSentence sentence : sentences) {
+            Integer base = propNet.getBaseIndex(sentence);
+            if (base != null) {
+                bits[base >>> 6] |= (1L << base);
+            }
+        }
+        return bits;
+    }
+
+    @Override
+    public MachineState getMachineStateFromSentenceList(Set<GdlSentence> sentenceList) {
+        return new PropNetMachineState(propNet, toBits(sentenceList));
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return The compiled propnet backing this machine.
+     */
+    public CompiledPropNet getCompiledPropNet() {
+        return propNet;
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return The latches of the compiled propnet, and what they force.
+     */
+    public LatchAnalysis getLatchAnalysis() {
+        return latches;
+    }
+
+    /**
+     * Getter method. Subclasses that override {@link #loadSources} use this
+     * to see the values left behind by the previous query.
+     *
+     * @return The value of every component, indexed by component.
+     */
+    protected long[] getValues() {
+        return values;
+    }
+}
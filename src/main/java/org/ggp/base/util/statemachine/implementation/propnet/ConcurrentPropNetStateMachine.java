@@ -0,0 +1,167 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.CompiledPropNet;
+import org.ggp.base.util.propnet.factory.PropNetCache;
+import org.ggp.base.util.statemachine.FailsafeStateMachine;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+/**
+ * A propnet state machine that can be shared between threads.
+ *
+ * The compiled propnet is built once and shared; every thread that queries
+ * the machine is lazily given its own worker machine over it (see
+ * {@link CompiledPropNetStateMachine#createWorker()}), which holds nothing but
+ * that thread's value arrays. Adding threads therefore costs a few bitsets
+ * each rather than another copy of the network.
+ *
+ * Search code that manages its own workers can skip the thread-local lookup
+ * by asking for a dedicated worker with {@link #createWorker()}, or with
+ * {@link #workerFor(StateMachine)} when it doesn't know what kind of machine
+ * it was given.
+ *
+ * Worker machines live as long as their threads, so this is meant for a
+ * fixed set of search threads rather than an unbounded pool.
+ */
+public class ConcurrentPropNetStateMachine extends StateMachine {
+    private final CompiledPropNetStateMachine prototype;
+    /** Replaced on initialize, so that no thread keeps a worker for an old game */
+    private volatile ThreadLocal<CompiledPropNetStateMachine> workers;
+
+    /**
+     * Creates a concurrent machine whose workers propagate differentially.
+     */
+    public ConcurrentPropNetStateMachine() {
+        this(new DifferentialPropNetStateMachine());
+    }
+
+    /**
+     * Creates a concurrent machine whose workers propagate differentially,
+     * and whose propnet is looked up in the given cache before it's built.
+     * Players pass a cache so that a game they've played before starts fast.
+     */
+    public ConcurrentPropNetStateMachine(PropNetCache propNetCache) {
+        this();
+        prototype.setPropNetCache(propNetCache);
+    }
+
+    /**
+     * Creates a concurrent machine whose workers are of the same kind as
+     * the given (uninitialized) machine.
+     */
+    public ConcurrentPropNetStateMachine(CompiledPropNetStateMachine prototype) {
+        this.prototype = prototype;
+    }
+
+    @Override
+    public void initialize(List<Gdl> description) {
+        prototype.initialize(description);
+        workers = new ThreadLocal<CompiledPropNetStateMachine>() {
+            @Override
+            protected CompiledPropNetStateMachine initialValue() {
+                return prototype.createWorker();
+            }
+        };
+    }
+
+    /**
+     * Returns a new worker machine over the shared propnet, for the
+     * exclusive use of one thread.
+     */
+    public CompiledPropNetStateMachine createWorker() {
+        return prototype.createWorker();
+    }
+
+    /**
+     * Returns a machine that the calling search worker can use on its own:
+     * a fresh worker if the given machine is a ConcurrentPropNetStateMachine
+     * or a CompiledPropNetStateMachine, or a FailsafeStateMachine backed by
+     * one of those, and the machine itself otherwise. In that last case the
+     * machine is shared, so it must be thread-safe.
+     */
+    public static StateMachine workerFor(StateMachine machine) {
+        if (machine instanceof ConcurrentPropNetStateMachine) {
+            return ((ConcurrentPropNetStateMachine) machine).createWorker();
+        }
+        if (machine instanceof CompiledPropNetStateMachine) {
+            return ((CompiledPropNetStateMachine) machine).createWorker();
+        }
+        if (machine instanceof FailsafeStateMachine) {
+            // Once the propnet is built the failsafe has nothing more to
+            // guard; if it has fallen back, the failsafe itself is shared
+            StateMachine backing = ((FailsafeStateMachine) machine).getBackingMachine();
+            StateMachine worker = workerFor(backing);
+            return (worker == backing) ? machine : worker;
+        }
+        return machine;
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return The compiled propnet shared by every worker.
+     */
+    public CompiledPropNet getCompiledPropNet() {
+        return prototype.getCompiledPropNet();
+    }
+
+    @Override
+    public MachineState getInitialState() {
+        return prototype.getInitialState();
+    }
+
+    @Override
+    public List<Role> getRoles() {
+        return prototype.getRoles();
+    }
+
+    @Override
+    public boolean isTerminal(MachineState state) {
+        return workers.get().isTerminal(state);
+    }
+
+    @Override
+    public int getGoal(MachineState state, Role role)
+            throws GoalDefinitionException {
+        return workers.get().getGoal(state, role);
+    }
+
+    @Override
+    public List<Move> findActions(Role role)
+            throws MoveDefinitionException {
+        return prototype.findActions(role);
+    }
+
+    @Override
+    public List<Move> getLegalMoves(MachineState state, Role role)
+            throws MoveDefinitionException {
+        return workers.get().getLegalMoves(state, role);
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, List<Move> moves)
+            throws TransitionDefinitionException {
+        return workers.get().getNextState(state, moves);
+    }
+
+    @Override
+    public int performRollout(MachineState state, int[] goals)
+            throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+        return workers.get().performRollout(state, goals);
+    }
+
+    @Override
+    public MachineState getMachineStateFromSentenceList(Set<GdlSentence> sentenceList) {
+        return prototype.getMachineStateFromSentenceList(sentenceList);
+    }
+}
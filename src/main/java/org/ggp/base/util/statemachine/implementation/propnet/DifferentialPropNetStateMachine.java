@@ -0,0 +1,166 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.Arrays;
+
+import org.ggp.base.util.propnet.architecture.CompiledPropNet;
+
+/**
+ * A {@link CompiledPropNetStateMachine} that propagates differentially.
+ *
+ * Rather than clearing the sources and recomputing every component on each
+ * query, this machine compares the requested bases and inputs against the
+ * ones left behind by the previous query, and pushes only the components
+ * that actually changed through their outputs. And and Or gates keep a count
+ * of their true inputs, so each change costs one increment or decrement per
+ * output instead of a scan over all inputs.
+ *
+ * Consecutive states in a depth charge usually differ in a handful of bases,
+ * so most of the network is never touched. Games where every move rewrites
+ * most of the state gain little, and may be slightly slower than the plain
+ * forward pass.
+ *
+ * Like its superclass, this machine is not thread-safe; each worker made by
+ * {@link #createWorker()} keeps its own counters.
+ */
+public class DifferentialPropNetStateMachine extends CompiledPropNetStateMachine {
+    /** For each And and Or gate, the number of its inputs that are true */
+    private int[] trueCounts;
+    /** For each role, the input proposition currently set, or -1 */
+    private int[] activeInputs;
+    /**
+     * Pending changes. A component c is pushed as c when it became true and
+     * as ~c when it became false.
+     */
+    private int[] changed;
+
+    @Override
+    public void initialize(CompiledPropNet propNet) {
+        super.initialize(propNet);
+        // The superclass has just propagated the initial state with a full
+        // pass, so the counts can be taken straight from the value array.
+        long[] values = getValues();
+        int[] inputOffsets = propNet.getInputOffsets();
+        int[] inputs = propNet.getInputs();
+        trueCounts = new int[propNet.getNumComponents()];
+        for (int c = propNet.getFirstComputed(); c < propNet.getNumComponents(); c++) {
+            int type = propNet.getType(c);
+            if (type == CompiledPropNet.TYPE_AND || type == CompiledPropNet.TYPE_OR) {
+                for (int i = inputOffsets[c]; i < inputOffsets[c + 1]; i++) {
+                    if (CompiledPropNet.get(values, inputs[i])) {
+                        trueCounts[c]++;
+                    }
+                }
+            }
+        }
+        activeInputs = new int[propNet.getRoles().size()];
+        Arrays.fill(activeInputs, -1);
+        changed = new int[64];
+    }
+
+    @Override
+    protected CompiledPropNetStateMachine newInstance() {
+        return new DifferentialPropNetStateMachine();
+    }
+
+    @Override
+    protected void loadSources(long[] values, long[] baseBits, int[] inputs) {
+        CompiledPropNet propNet = getCompiledPropNet();
+        int top = 0;
+
+        int numBases = propNet.getNumBases();
+        int words = CompiledPropNet.wordsFor(numBases);
+        for (int w = 0; w < words; w++) {
+            long diff = values[w] ^ baseBits[w];
+            if (w == words - 1 && (numBases & 63) != 0) {
+                diff &= (1L << numBases) - 1;
+            }
+            values[w] ^= diff;
+            while (diff != 0) {
+                int b = (w << 6) + Long.numberOfTrailingZeros(diff);
+                top = push(top, CompiledPropNet.get(values, b) ? b : ~b);
+                diff &= diff - 1;
+            }
+        }
+
+        int init = propNet.getInitIndex();
+        if (CompiledPropNet.get(values, init)) {
+            CompiledPropNet.set(values, init, false);
+            top = push(top, ~init);
+        }
+
+        for (int r = 0; r < activeInputs.length; r++) {
+            int wanted = (inputs == null) ? -1 : inputs[r];
+            int active = activeInputs[r];
+            if (active != wanted) {
+                if (active >= 0) {
+                    CompiledPropNet.set(values, active, false);
+                    top = push(top, ~active);
+                }
+                if (wanted >= 0) {
+                    CompiledPropNet.set(values, wanted, true);
+                    top = push(top, wanted);
+                }
+                activeInputs[r] = wanted;
+            }
+        }
+
+        propagateChanges(values, top);
+    }
+
+    /**
+     * Drains the change stack, updating the outputs of every changed
+     * component and pushing those whose value flips in turn.
+     *
+     * Changes may be processed out of topological order, so a gate can
+     * briefly take a wrong value before its last input change arrives. Each
+     * flip is pushed as its own signed change, so the counters downstream
+     * always net out and every component ends up with its correct value.
+     */
+    private void propagateChanges(long[] values, int top) {
+        CompiledPropNet propNet = getCompiledPropNet();
+        int[] inputOffsets = propNet.getInputOffsets();
+        int[] inputs = propNet.getInputs();
+        int[] outputOffsets = propNet.getOutputOffsets();
+        int[] outputs = propNet.getOutputs();
+
+        while (top > 0) {
+            int entry = changed[--top];
+            boolean becameTrue = entry >= 0;
+            int c = becameTrue ? entry : ~entry;
+            for (int i = outputOffsets[c]; i < outputOffsets[c + 1]; i++) {
+                int o = outputs[i];
+                boolean value;
+                switch (propNet.getType(o)) {
+                case CompiledPropNet.TYPE_AND:
+                    trueCounts[o] += becameTrue ? 1 : -1;
+                    value = trueCounts[o] == inputOffsets[o + 1] - inputOffsets[o];
+                    break;
+                case CompiledPropNet.TYPE_OR:
+                    trueCounts[o] += becameTrue ? 1 : -1;
+                    value = trueCounts[o] > 0;
+                    break;
+                case CompiledPropNet.TYPE_NOT:
+                    value = !CompiledPropNet.get(values, inputs[inputOffsets[o]]);
+                    break;
+                case CompiledPropNet.TYPE_COPY:
+                    value = CompiledPropNet.get(values, inputs[inputOffsets[o]]);
+                    break;
+                default:
+                    continue;
+                }
+                if (value != CompiledPropNet.get(values, o)) {
+                    CompiledPropNet.set(values, o, value);
+                    top = push(top, value ? o : ~o);
+                }
+            }
+        }
+    }
+
+    private int push(int top, int entry) {
+        if (top == changed.length) {
+            changed = Arrays.copyOf(changed, top * 2);
+        }
+        changed[top] = entry;
+        return top + 1;
+    }
+}
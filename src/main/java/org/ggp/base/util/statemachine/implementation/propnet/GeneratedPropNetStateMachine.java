@@ -0,0 +1,91 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.propnet.architecture.CompiledPropNet;
+
+/**
+ * A {@link CompiledPropNetStateMachine} that evaluates the propnet with a
+ * class generated for it at initialization time (see
+ * {@link PropNetEvaluatorGenerator}), rather than by interpreting the
+ * compiled tables.
+ *
+ * Generation is best-effort. If javassist fails, the generated class can't
+ * be loaded, or generation runs past its time budget, the machine logs the
+ * problem and carries on with the interpreted forward pass, so it is always
+ * safe to use in place of CompiledPropNetStateMachine.
+ *
+ * The generated evaluator is stateless, so workers made by
+ * {@link #createWorker()} share it instead of generating their own.
+ */
+public class GeneratedPropNetStateMachine extends CompiledPropNetStateMachine {
+    /** Time allowed for generation when no budget is given */
+    public static final long DEFAULT_GENERATION_BUDGET = 5000;
+
+    private final long generationBudget;
+    /** The generated evaluator, or null to interpret */
+    private PropNetEvaluator evaluator;
+    /** The propnet the evaluator was generated for */
+    private CompiledPropNet evaluatorPropNet;
+
+    public GeneratedPropNetStateMachine() {
+        this(DEFAULT_GENERATION_BUDGET);
+    }
+
+    /**
+     * @param generationBudget The number of milliseconds generation may take
+     *        before the machine gives up and interprets the propnet instead.
+     *        This should leave room in the metagame for the search itself.
+     */
+    public GeneratedPropNetStateMachine(long generationBudget) {
+        this.generationBudget = generationBudget;
+    }
+
+    @Override
+    public void initialize(CompiledPropNet propNet) {
+        if (evaluatorPropNet != propNet) {
+            evaluatorPropNet = propNet;
+            evaluator = generateEvaluator(propNet);
+        }
+        super.initialize(propNet);
+    }
+
+    private PropNetEvaluator generateEvaluator(CompiledPropNet propNet) {
+        long start = System.currentTimeMillis();
+        try {
+            PropNetEvaluator generated = PropNetEvaluatorGenerator.generate(propNet, start + generationBudget);
+            GamerLogger.log("StateMachine", "Generated propnet evaluator for " + propNet.getNumComponents()
+                    + " components in " + (System.currentTimeMillis() - start) + " ms.");
+            return generated;
+        } catch (Exception e) {
+            GamerLogger.logError("StateMachine", "Could not generate propnet evaluator, interpreting instead: " + e);
+        } catch (LinkageError e) {
+            GamerLogger.logError("StateMachine", "Could not load propnet evaluator, interpreting instead: " + e);
+        }
+        return null;
+    }
+
+    @Override
+    protected CompiledPropNetStateMachine newInstance() {
+        GeneratedPropNetStateMachine worker = new GeneratedPropNetStateMachine(generationBudget);
+        worker.evaluator = evaluator;
+        worker.evaluatorPropNet = evaluatorPropNet;
+        return worker;
+    }
+
+    @Override
+    protected void propagate(long[] values) {
+        if (evaluator != null) {
+            evaluator.propagate(values);
+        } else {
+            super.propagate(values);
+        }
+    }
+
+    /**
+     * @return Whether queries are answered by generated code, as opposed
+     *         to the interpreted fallback.
+     */
+    public boolean isGenerated() {
+        return evaluator != null;
+    }
+}
@@ -0,0 +1,15 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+/**
+ * Evaluates the computed components of a compiled propnet over a value
+ * array, exactly as {@link org.ggp.base.util.propnet.architecture.CompiledPropNet#propagate(long[])}
+ * would. Implementations are generated at runtime by
+ * {@link PropNetEvaluatorGenerator}, which is why this interface is public.
+ *
+ * Implementations hold no state of their own, so one instance can be used
+ * by any number of threads, each with its own value array.
+ */
+public interface PropNetEvaluator
+{
+    public void propagate(long[] values);
+}
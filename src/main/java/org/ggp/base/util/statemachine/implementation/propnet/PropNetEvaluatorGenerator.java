@@ -0,0 +1,195 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.CannotCompileException;
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.NotFoundException;
+
+import org.ggp.base.util.propnet.architecture.CompiledPropNet;
+
+/**
+ * Generates a {@link PropNetEvaluator} class for a compiled propnet using
+ * javassist. The generated code is a straight-line sequence of bit tests and
+ * bit sets, one statement per component in topological order, with every
+ * index and mask baked in as a constant; there is no loop, no type switch
+ * and no indirection through the input tables.
+ *
+ * The statements are split across many small methods, so that each one
+ * stays well under the JIT's huge method limit and compiles on its own,
+ * whether or not the player runs with -XX:-DontCompileHugeMethods.
+ *
+ * The class is defined directly from its bytecode in a fresh class loader,
+ * which avoids javassist's reflective toClass() and lets the class be
+ * collected along with the machine that uses it.
+ */
+public final class PropNetEvaluatorGenerator
+{
+    /**
+     * Rough bytecode budget per generated method. HotSpot won't compile
+     * methods over 8000 bytes by default.
+     */
+    private static final int METHOD_BYTES = 6000;
+    private static final int BYTES_PER_INPUT = 16;
+    private static final int BYTES_PER_COMPONENT = 24;
+
+    private static final AtomicInteger classCount = new AtomicInteger();
+
+    private PropNetEvaluatorGenerator()
+    {
+    }
+
+    /**
+     * Generates, loads and instantiates an evaluator for the given propnet.
+     *
+     * @param deadline The time, in milliseconds since the epoch, by which
+     *        generation must have finished.
+     * @throws TimeoutException If the deadline passes before the class is
+     *         loaded.
+     */
+    public static PropNetEvaluator generate(CompiledPropNet propNet, long deadline)
+            throws CannotCompileException, NotFoundException, TimeoutException
+    {
+        ClassPool pool = new ClassPool(true);
+        pool.insertClassPath(new ClassClassPath(PropNetEvaluator.class));
+        String className = PropNetEvaluator.class.getName() + "$Generated" + classCount.incrementAndGet();
+        CtClass evaluatorClass = pool.makeClass(className);
+        evaluatorClass.addInterface(pool.get(PropNetEvaluator.class.getName()));
+        evaluatorClass.addConstructor(CtNewConstructor.defaultConstructor(evaluatorClass));
+
+        StringBuilder propagate = new StringBuilder("public void propagate(long[] v) {\n");
+        StringBuilder body = new StringBuilder();
+        int methods = 0;
+        int bytes = 0;
+        int[] inputOffsets = propNet.getInputOffsets();
+        for (int c = propNet.getFirstComputed(); c < propNet.getNumComponents(); c++) {
+            int fanIn = inputOffsets[c + 1] - inputOffsets[c];
+            int cost = BYTES_PER_COMPONENT + BYTES_PER_INPUT * fanIn;
+            if (bytes > 0 && bytes + cost > METHOD_BYTES) {
+                addChunk(evaluatorClass, methods, body);
+                propagate.append("p").append(methods).append("(v);\n");
+                methods++;
+                body.setLength(0);
+                bytes = 0;
+                checkDeadline(deadline);
+            }
+            appendComponent(propNet, c, body);
+            bytes += cost;
+        }
+        if (bytes > 0) {
+            addChunk(evaluatorClass, methods, body);
+            propagate.append("p").append(methods).append("(v);\n");
+        }
+        propagate.append("}");
+        evaluatorClass.addMethod(CtNewMethod.make(propagate.toString(), evaluatorClass));
+        checkDeadline(deadline);
+
+        byte[] bytecode;
+        try {
+            bytecode = evaluatorClass.toBytecode();
+        } catch (java.io.IOException e) {
+            throw new CannotCompileException(e);
+        } finally {
+            evaluatorClass.detach();
+        }
+        Class<?> loaded = new EvaluatorClassLoader(PropNetEvaluator.class.getClassLoader()).define(className, bytecode);
+        checkDeadline(deadline);
+        try {
+            return (PropNetEvaluator) loaded.newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new CannotCompileException(e);
+        }
+    }
+
+    private static void addChunk(CtClass evaluatorClass, int index, StringBuilder body)
+            throws CannotCompileException
+    {
+        String source = "private void p" + index + "(long[] v) {\n" + body + "}";
+        evaluatorClass.addMethod(CtNewMethod.make(source, evaluatorClass));
+    }
+
+    private static void checkDeadline(long deadline) throws TimeoutException
+    {
+        if (System.currentTimeMillis() > deadline) {
+            throw new TimeoutException("Ran out of time generating the propnet evaluator.");
+        }
+    }
+
+    /**
+     * Appends the statement that computes component c to the method body.
+     */
+    private static void appendComponent(CompiledPropNet propNet, int c, StringBuilder body)
+    {
+        int[] inputOffsets = propNet.getInputOffsets();
+        int[] inputs = propNet.getInputs();
+        int first = inputOffsets[c];
+        int last = inputOffsets[c + 1];
+
+        String condition;
+        switch (propNet.getType(c)) {
+        case CompiledPropNet.TYPE_AND:
+            condition = joinTests(inputs, first, last, " && ", "true");
+            break;
+        case CompiledPropNet.TYPE_OR:
+            condition = joinTests(inputs, first, last, " || ", "false");
+            break;
+        case CompiledPropNet.TYPE_NOT:
+            condition = "(" + bitTest(inputs[first]) + ") == 0L";
+            break;
+        case CompiledPropNet.TYPE_COPY:
+            condition = "(" + bitTest(inputs[first]) + ") != 0L";
+            break;
+        case CompiledPropNet.TYPE_TRUE:
+            condition = "true";
+            break;
+        default:
+            condition = "false";
+            break;
+        }
+        body.append("if (").append(condition).append(") v[").append(c >>> 6).append("] |= ").append(mask(c))
+            .append("; else v[").append(c >>> 6).append("] &= ~").append(mask(c)).append(";\n");
+    }
+
+    private static String joinTests(int[] inputs, int first, int last, String operator, String empty)
+    {
+        if (first == last) {
+            return empty;
+        }
+        StringBuilder condition = new StringBuilder();
+        for (int i = first; i < last; i++) {
+            if (i > first) {
+                condition.append(operator);
+            }
+            condition.append("(").append(bitTest(inputs[i])).append(") != 0L");
+        }
+        return condition.toString();
+    }
+
+    private static String bitTest(int index)
+    {
+        return "v[" + (index >>> 6) + "] & " + mask(index);
+    }
+
+    private static String mask(int index)
+    {
+        return "(1L << " + (index & 63) + ")";
+    }
+
+    private static final class EvaluatorClassLoader extends ClassLoader
+    {
+        EvaluatorClassLoader(ClassLoader parent)
+        {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytecode)
+        {
+            return defineClass(name, bytecode, 0, bytecode.length);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.CompiledPropNet;
+import org.ggp.base.util.statemachine.MachineState;
+
+/**
+ * A MachineState stored as a bitset over the base propositions of a
+ * {@link CompiledPropNet}, rather than as a set of GDL sentences.
+ *
+ * The hash code is computed once, when the state is created, and is the
+ * same value a plain MachineState with the same contents would produce (the
+ * sum of the sentence hash codes), so the two kinds of state can be mixed in
+ * hashed collections. Equality between two bitset states over the same
+ * propnet is a word-by-word comparison.
+ *
+ * The GDL form is only built on the first call to {@link #getContents()},
+ * for instance when the state is appended to a Match or sent over the wire.
+ */
+public final class PropNetMachineState extends MachineState
+{
+    private final CompiledPropNet propNet;
+    private final long[] bits;
+    private final int hash;
+    private volatile Set<GdlSentence> contents;
+
+    /**
+     * Creates a state over the given propnet's base propositions. The state
+     * takes ownership of the array, which must not be modified afterwards.
+     */
+    public PropNetMachineState(CompiledPropNet propNet, long[] bits)
+    {
+        this.propNet = propNet;
+        this.bits = bits;
+        this.hash = computeHash(propNet, bits);
+    }
+
+    private static int computeHash(CompiledPropNet propNet, long[] bits)
+    {
+        int[] sentenceHashes = propNet.getBaseSentenceHashes();
+        int hash = 0;
+        for (int w = 0; w < bits.length; w++) {
+            long word = bits[w];
+            while (word != 0) {
+                int b = (w << 6) + Long.numberOfTrailingZeros(word);
+                hash += sentenceHashes[b];
+                word &= word - 1;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Getter method. The returned array must not be modified.
+     *
+     * @return The base proposition bits of this state.
+     */
+    public long[] getBits()
+    {
+        return bits;
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return The compiled propnet whose bases index the bits of this state.
+     */
+    public CompiledPropNet getPropNet()
+    {
+        return propNet;
+    }
+
+    @Override
+    public Set<GdlSentence> getContents()
+    {
+        Set<GdlSentence> result = contents;
+        if (result == null) {
+            Set<GdlSentence> sentences = new HashSet<GdlSentence>();
+            for (int b = 0; b < propNet.getNumBases(); b++) {
+                if (CompiledPropNet.get(bits, b)) {
+                    sentences.add(propNet.getBaseSentence(b));
+                }
+            }
+            result = Collections.unmodifiableSet(sentences);
+            contents = result;
+        }
+        return result;
+    }
+
+    @Override
+    public MachineState clone()
+    {
+        return new PropNetMachineState(propNet, bits.clone());
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o instanceof PropNetMachineState) {
+            PropNetMachineState state = (PropNetMachineState) o;
+            if (state.propNet == propNet) {
+                return state.hash == hash && Arrays.equals(state.bits, bits);
+            }
+        }
+        if (o instanceof MachineState) {
+            return ((MachineState) o).getContents().equals(getContents());
+        }
+        return false;
+    }
+
+    @Override
+    public String toString()
+    {
+        return getContents().toString();
+    }
+}
@@ -2,7 +2,6 @@ package org.ggp.base.util.statemachine.implementation.propnet;
 
 import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -14,6 +13,7 @@ import org.ggp.base.util.gdl.grammar.GdlRelation;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.propnet.architecture.Component;
 import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.PropNetOrdering;
 import org.ggp.base.util.propnet.architecture.components.Proposition;
 import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
 import org.ggp.base.util.statemachine.MachineState;
@@ -151,30 +151,16 @@ public class SamplePropNetStateMachine extends StateMachine {
      */
 	public List<Proposition> getOrdering()
 	{
-		List<Proposition> order = new LinkedList<Proposition>();
-		List<Component> toVisit = new ArrayList<>(propNet.getComponents());
-		List<Proposition> propositions = new ArrayList<Proposition>(propNet.getPropositions());
-		toVisit.removeAll(propNet.getBasePropositions().values());
-		toVisit.removeAll(propNet.getInputPropositions().values());
-		toVisit.remove(propNet.getInitProposition());
-
-		while (!toVisit.isEmpty()) {
-			Set<Component> traversed =
-                toVisit.stream()
-                       .filter(c -> c.getInputs().stream().allMatch(input -> !toVisit.contains(input)))
-                       .map(c -> {
-                         if (c instanceof Proposition)
-                        	 order.add((Proposition) c);
-                         return c;
-                       }).collect(Collectors.toSet());
-			toVisit.removeAll(traversed);
-		}
-		return order;
+		Set<Component> sources = PropNetOrdering.getSources(propNet.getBasePropositions(),
+				propNet.getInputPropositions(), propNet.getInitProposition());
+		return PropNetOrdering.getPropositions(PropNetOrdering.order(propNet.getComponents(), sources));
 	}
 
     private boolean isBaseOrInput(Component p) {
-    	return propNet.getBasePropositions().values().contains(p) ||
-    		propNet.getInputPropositions().values().contains(p);
+    	if (!(p instanceof Proposition)) return false;
+    	GdlSentence name = ((Proposition) p).getName();
+    	return propNet.getBasePropositions().get(name) == p ||
+    		propNet.getInputPropositions().get(name) == p;
     }
 
     /* Already implemented for you */
@@ -11,6 +11,7 @@ import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.logging.GamerLogger;
 import org.ggp.base.util.prover.Prover;
 import org.ggp.base.util.prover.aima.AimaProver;
+import org.ggp.base.util.prover.tabled.TabledProver;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
@@ -29,23 +30,50 @@ public class ProverStateMachine extends StateMachine
     private MachineState initialState;
     private Prover prover;
     private ImmutableList<Role> roles;
+    private final boolean tabled;
 
     /**
      * Initialize must be called before using the StateMachine
      */
     public ProverStateMachine()
     {
+        this(true);
+    }
 
+    /**
+     * @param tabled Whether to use the TabledProver, which falls back on the
+     *        AimaProver for descriptions it can't compile, or the AimaProver
+     *        only.
+     */
+    public ProverStateMachine(boolean tabled)
+    {
+        this.tabled = tabled;
     }
 
     @Override
     public void initialize(List<Gdl> description)
     {
-        prover = new AimaProver(description);
+        prover = createProver(description);
         roles = ImmutableList.copyOf(Role.computeRoles(description));
         initialState = computeInitialState();
     }
 
+    private Prover createProver(List<Gdl> description)
+    {
+        if (tabled)
+        {
+            try
+            {
+                return new TabledProver(description);
+            }
+            catch (IllegalArgumentException e)
+            {
+                GamerLogger.logError("StateMachine", "Falling back on the AimaProver: " + e.getMessage());
+            }
+        }
+        return new AimaProver(description);
+    }
+
     private MachineState computeInitialState()
     {
         Set<GdlSentence> results = prover.askAll(ProverQueryBuilder.getInitQuery(), new HashSet<GdlSentence>());
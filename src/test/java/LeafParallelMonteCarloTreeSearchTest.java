@@ -0,0 +1,31 @@
+import java.time.Duration;
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.ConcurrentPropNetStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LeafParallelMonteCarloTreeSearchTest extends Assert {
+    @Test
+    public void testBatchesDepthCharges() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        StateMachine machine = new ConcurrentPropNetStateMachine();
+        machine.initialize(rules);
+        LeafParallelMonteCarloTreeSearch search = new LeafParallelMonteCarloTreeSearch(machine, machine.getRoles().get(0), 2);
+        try {
+            search.search(Duration.ofMillis(500));
+        } finally {
+            search.shutdown();
+        }
+        assertTrue(search.getNumDepthCharges() > 0);
+        // Every batch gives each worker the same number of charges
+        assertEquals(0, search.getNumDepthCharges() % 2);
+        // TicTacToe's charges are cheap, so each worker should be given several
+        assertTrue(search.getChargesPerWorker() > 1);
+        assertTrue(search.getChargesPerWorker() <= 64);
+        assertNotNull(search.chooseMove());
+    }
+}
@@ -14,6 +14,14 @@ import org.ggp.base.util.gdl.scrambler.GdlScramblerTest;
 import org.ggp.base.util.gdl.transforms.GdlCleanerTest;
 import org.ggp.base.util.http.HttpTest;
 import org.ggp.base.util.presence.InfoResponseTest;
+import org.ggp.base.util.propnet.architecture.LatchAnalysisTest;
+import org.ggp.base.util.propnet.factory.PropNetCacheTest;
+import org.ggp.base.util.propnet.factory.optimizer.PropNetOptimizerTest;
+import org.ggp.base.util.prover.tabled.TabledProverTest;
+import org.ggp.base.util.statemachine.cache.CachedStateMachineTest;
+import org.ggp.base.util.statemachine.cache.ClockCacheTest;
+import org.ggp.base.util.statemachine.implementation.forwardchaining.ForwardChainingStateMachineTest;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachineTest;
 import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachineTest;
 import org.ggp.base.validator.StaticValidationTest;
 import org.junit.runner.RunWith;
@@ -22,21 +30,29 @@ import org.junit.runners.Suite;
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
 	BaseCryptographyTest.class,
+	CachedStateMachineTest.class,
 	CanonicalJSONTest.class,
+	ClockCacheTest.class,
 	ClojureGamerTest.class,
+	CompiledPropNetStateMachineTest.class,
 	DependencyGraphsTest.class,
+	ForwardChainingStateMachineTest.class,
 	GameParsingTest.class,
 	GdlCleanerTest.class,
 	GdlRendererTest.class,
 	GdlScramblerTest.class,
 	HttpTest.class,
 	InfoResponseTest.class,
+	LatchAnalysisTest.class,
 	NoTabsInRulesheetsTest.class,
+	PropNetCacheTest.class,
+	PropNetOptimizerTest.class,
 	ProverStateMachineTest.class,
 	PythonGamerTest.class,
 	SignableJSONTest.class,
 	SimpleSentenceFormTest.class,
 	StaticValidationTest.class,
+	TabledProverTest.class,
 	TiltyardRequestFarmTest.class,
                      })
 public class AllTests {
@@ -0,0 +1,70 @@
+package org.ggp.base.util.propnet.architecture;
+
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.PropNetMachineState;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatchAnalysisTest extends Assert {
+
+    @Test
+    public void testFindsFilledCellsInTicTacToe() throws Exception {
+        CompiledPropNetStateMachine machine = machineFor("ticTacToe");
+        LatchAnalysis latches = machine.getLatchAnalysis();
+        assertTrue(latches.getTrueLatches().contains(sentence("( true ( cell 1 1 x ) )")));
+        assertTrue(latches.getTrueLatches().contains(sentence("( true ( cell 3 2 o ) )")));
+        assertTrue(latches.getFalseLatches().contains(sentence("( true ( cell 2 2 b ) )")));
+        assertFalse(latches.getTrueLatches().contains(sentence("( true ( control xplayer ) )")));
+        assertFalse(latches.getFalseLatches().contains(sentence("( true ( control xplayer ) )")));
+    }
+
+    @Test
+    public void testLatchesHoldInPlay() throws Exception {
+        for (String game : new String[] { "ticTacToe", "connectFour", "test_case_2c" }) {
+            CompiledPropNetStateMachine machine = machineFor(game);
+            CompiledPropNet propNet = machine.getCompiledPropNet();
+            LatchAnalysis latches = machine.getLatchAnalysis();
+            for (int i = 0; i < 10; i++) {
+                MachineState state = machine.getInitialState();
+                while (!machine.isTerminal(state)) {
+                    List<Move> jointMove = machine.getRandomJointMove(state);
+                    MachineState next = machine.getNextState(state, jointMove);
+                    long[] bits = ((PropNetMachineState) state).getBits();
+                    long[] nextBits = ((PropNetMachineState) next).getBits();
+                    for (int b = 0; b < propNet.getNumBases(); b++) {
+                        boolean value = CompiledPropNet.get(bits, b);
+                        if (latches.isLatch(b, value)) {
+                            assertEquals(game + " " + propNet.getBaseSentence(b), value, CompiledPropNet.get(nextBits, b));
+                        }
+                    }
+                    state = next;
+                }
+                long[] bits = ((PropNetMachineState) state).getBits();
+                for (int r = 0; r < propNet.getRoles().size(); r++) {
+                    int forced = latches.getForcedGoal(bits, r);
+                    if (forced >= 0) {
+                        assertEquals(forced, machine.getGoal(state, propNet.getRoles().get(r)));
+                    }
+                    assertTrue(latches.getBestPossibleGoal(bits, r) >= machine.getGoal(state, propNet.getRoles().get(r)));
+                }
+            }
+        }
+    }
+
+    private static CompiledPropNetStateMachine machineFor(String game) {
+        CompiledPropNetStateMachine machine = new CompiledPropNetStateMachine();
+        machine.initialize(new TestGameRepository().getGame(game).getRules());
+        return machine;
+    }
+
+    private static GdlSentence sentence(String gdl) throws Exception {
+        return (GdlSentence) GdlFactory.create(gdl);
+    }
+}
@@ -0,0 +1,106 @@
+package org.ggp.base.util.propnet.factory;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlRelation;
+import org.ggp.base.util.propnet.architecture.CompiledPropNet;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.StateMachineLockstep;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PropNetCacheTest extends Assert {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCachedPropNetPlaysTheSame() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        PropNetCache cache = new PropNetCache(folder.getRoot());
+        CompiledPropNet built = cache.get(rules);
+        assertEquals(1, folder.getRoot().listFiles().length);
+        CompiledPropNet loaded = cache.get(rules);
+        assertNotSame(built, loaded);
+        assertEquals(built.getNumComponents(), loaded.getNumComponents());
+        StateMachineLockstep.check(machineOver(built), machineOver(loaded), new Random(0), 10);
+    }
+
+    @Test
+    public void testKeyIgnoresRuleOrder() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        // Reverses every rule except the roles, whose order matters
+        List<Gdl> reversed = new ArrayList<Gdl>(rules);
+        Collections.reverse(reversed);
+        List<Gdl> roles = new ArrayList<Gdl>();
+        for (Gdl gdl : rules) {
+            if (isRole(gdl)) {
+                roles.add(gdl);
+            }
+        }
+        reversed.removeAll(roles);
+        reversed.addAll(0, roles);
+        assertEquals(PropNetCache.getKey(rules), PropNetCache.getKey(reversed));
+        List<Gdl> other = new TestGameRepository().getGame("connectFour").getRules();
+        assertFalse(PropNetCache.getKey(rules).equals(PropNetCache.getKey(other)));
+    }
+
+    @Test
+    public void testKeyKeepsRoleOrder() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        List<Gdl> swapped = new ArrayList<Gdl>(rules);
+        List<Integer> roleIndices = new ArrayList<Integer>();
+        for (int i = 0; i < swapped.size(); i++) {
+            if (isRole(swapped.get(i))) {
+                roleIndices.add(i);
+            }
+        }
+        assertEquals(2, roleIndices.size());
+        Collections.swap(swapped, roleIndices.get(0), roleIndices.get(1));
+        assertFalse(PropNetCache.getKey(rules).equals(PropNetCache.getKey(swapped)));
+
+        PropNetCache cache = new PropNetCache(folder.getRoot());
+        cache.get(rules);
+        StateMachine cached = machineOver(cache.get(swapped));
+        assertEquals(2, folder.getRoot().listFiles().length);
+        StateMachine prover = new ProverStateMachine(false);
+        prover.initialize(swapped);
+        assertEquals(prover.getRoles(), cached.getRoles());
+        StateMachineLockstep.check(machineOver(new CompiledPropNet(OptimizingPropNetFactory.create(swapped))), cached, new Random(0), 10);
+    }
+
+    private static boolean isRole(Gdl gdl) {
+        return gdl instanceof GdlRelation && ((GdlRelation) gdl).getName().getValue().equals("role");
+    }
+
+    @Test
+    public void testRebuildsCorruptEntry() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        PropNetCache cache = new PropNetCache(folder.getRoot());
+        CompiledPropNet built = cache.get(rules);
+        File entry = folder.getRoot().listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(entry, "rw")) {
+            file.setLength(file.length() / 2);
+        }
+        CompiledPropNet rebuilt = cache.get(rules);
+        assertEquals(built.getNumComponents(), rebuilt.getNumComponents());
+        // The truncated entry was replaced by a good one
+        StateMachineLockstep.check(machineOver(built), machineOver(cache.get(rules)), new Random(0), 10);
+    }
+
+    private static StateMachine machineOver(CompiledPropNet propNet) {
+        CompiledPropNetStateMachine machine = new CompiledPropNetStateMachine();
+        machine.initialize(propNet);
+        return machine;
+    }
+}
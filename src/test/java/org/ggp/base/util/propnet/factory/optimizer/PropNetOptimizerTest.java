@@ -0,0 +1,99 @@
+package org.ggp.base.util.propnet.factory.optimizer;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.propnet.architecture.CompiledPropNet;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.architecture.components.Transition;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachineLockstep;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PropNetOptimizerTest extends Assert {
+    @Test
+    public void testPassesReduceRedundantGates() throws Exception {
+        Set<Component> components = new HashSet<Component>();
+        Proposition a = base("a", components);
+        Proposition b = base("b", components);
+        Proposition terminal = new Proposition(GdlPool.getProposition(GdlPool.TERMINAL));
+        components.add(terminal);
+
+        // (not (not a)), wrapped in a one-input or
+        Component notA = gate(new Not(), components, a);
+        Component notNotA = gate(new Not(), components, notA);
+        Component or = gate(new Or(), components, notNotA);
+        // Two copies of (and a b)
+        Component and1 = gate(new And(), components, a, b);
+        Component and2 = gate(new And(), components, a, b);
+        // (and true b)
+        Component and3 = gate(new And(), components, gate(new Constant(true), components), b);
+        gate(terminal, components, gate(new And(), components, and1, and2, or, and3));
+
+        PropNet pn = new PropNet(Collections.<Role>emptyList(), components);
+        int size = pn.getSize();
+        List<PropNetOptimizer.Report> reports = PropNetOptimizer.getDefault().optimize(pn);
+
+        // Left: a, b, their transitions, terminal and a single (and a b)
+        assertEquals(6, pn.getSize());
+        Component and = terminal.getSingleInput();
+        assertTrue(and instanceof And);
+        assertEquals(new HashSet<Component>(Arrays.asList(a, b)), and.getInputs());
+        int removed = 0;
+        for (PropNetOptimizer.Report report : reports) {
+            assertTrue(report.toString(), report.getRemovedComponents() >= 0);
+            removed += report.getRemovedComponents();
+        }
+        assertEquals(size - pn.getSize(), removed);
+    }
+
+    @Test
+    public void testOptimizedPropNetPlaysTheSame() throws Exception {
+        for (String game : new String[] { "connectFour", "test_case_2c" }) {
+            List<Gdl> rules = new TestGameRepository().getGame(game).getRules();
+            CompiledPropNetStateMachine plain = new CompiledPropNetStateMachine();
+            plain.initialize(new CompiledPropNet(OptimizingPropNetFactory.create(rules, false, null)));
+            PropNet optimizedNet = OptimizingPropNetFactory.create(rules, false, null);
+            int size = optimizedNet.getSize();
+            PropNetOptimizer.getDefault().optimize(optimizedNet);
+            assertTrue(optimizedNet.getSize() < size);
+            CompiledPropNetStateMachine optimized = new CompiledPropNetStateMachine();
+            optimized.initialize(new CompiledPropNet(optimizedNet));
+            StateMachineLockstep.check(plain, optimized, new Random(game.hashCode()), 5);
+        }
+    }
+
+    private static Proposition base(String name, Set<Component> components) {
+        Proposition base = new Proposition(GdlPool.getRelation(GdlPool.TRUE,
+                new GdlTerm[] { GdlPool.getConstant(name) }));
+        components.add(base);
+        gate(base, components, gate(new Transition(), components, base));
+        return base;
+    }
+
+    private static Component gate(Component gate, Set<Component> components, Component... inputs) {
+        components.add(gate);
+        for (Component input : inputs) {
+            gate.addInput(input);
+            input.addOutput(gate);
+        }
+        return gate;
+    }
+}
@@ -0,0 +1,58 @@
+package org.ggp.base.util.prover.tabled;
+
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.StateMachineLockstep;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the TabledProver against the AimaProver, through the
+ * ProverStateMachine, by playing random games with both.
+ */
+public class TabledProverTest extends Assert {
+    @Test
+    public void testMatchesAimaProverOnTicTacToe() throws Exception {
+        checkAgainstAimaProver("ticTacToe", 20);
+    }
+
+    @Test
+    public void testMatchesAimaProverOnConnectFour() throws Exception {
+        checkAgainstAimaProver("connectFour", 3);
+    }
+
+    @Test
+    public void testMatchesAimaProverOnTestCases() throws Exception {
+        for (String game : new String[] { "test_case_1a", "test_case_2a", "test_case_3a", "test_case_3b", "test_case_3e",
+                "test_case_4a", "test_case_5a", "test_case_5b", "test_case_5c", "test_clean_not_distinct" }) {
+            checkAgainstAimaProver(game, 5);
+        }
+    }
+
+    @Test
+    public void testPrecomputesStaticRelations() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        RuleProgram program = new TabledProver(rules).getProgram();
+        assertTrue(program.isStatic(GdlPool.ROLE));
+        assertTrue(program.isStatic(GdlPool.INIT));
+        assertFalse(program.isStatic(GdlPool.LEGAL));
+        assertFalse(program.isStatic(GdlPool.NEXT));
+        assertEquals(2, program.getStaticSentences(GdlPool.ROLE).size());
+        assertEquals(10, program.getStaticSentences(GdlPool.INIT).size());
+    }
+
+    private void checkAgainstAimaProver(String gameName, int games) throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame(gameName).getRules();
+        StateMachine aima = new ProverStateMachine(false);
+        StateMachine tabled = new ProverStateMachine(true);
+        aima.initialize(rules);
+        tabled.initialize(rules);
+        StateMachineLockstep.check(aima, tabled, new Random(gameName.hashCode()), games);
+    }
+}
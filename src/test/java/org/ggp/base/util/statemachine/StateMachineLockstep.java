@@ -0,0 +1,49 @@
+package org.ggp.base.util.statemachine;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that two state machines play the same game: random games are
+ * played with both in lockstep, and they have to agree on every query
+ * along the way. Each machine is only ever given its own states, so
+ * machines with their own kind of MachineState can be compared too.
+ */
+public final class StateMachineLockstep {
+    private StateMachineLockstep() {
+    }
+
+    /**
+     * Plays the given number of random games, choosing the joint moves from
+     * the expected machine's legal moves. Both machines must be initialized.
+     */
+    public static void check(StateMachine expected, StateMachine actual, Random random, int games) throws Exception {
+        assertEquals(expected.getRoles(), actual.getRoles());
+        for (int game = 0; game < games; game++) {
+            MachineState expectedState = expected.getInitialState();
+            MachineState actualState = actual.getInitialState();
+            while (true) {
+                assertEquals(expectedState, actualState);
+                assertEquals(actualState, expectedState);
+                assertEquals(expectedState.hashCode(), actualState.hashCode());
+                assertEquals(actualState, actual.getMachineStateFromSentenceList(expectedState.getContents()));
+                assertEquals(expected.isTerminal(expectedState), actual.isTerminal(actualState));
+                if (expected.isTerminal(expectedState)) {
+                    assertEquals(expected.getGoals(expectedState), actual.getGoals(actualState));
+                    break;
+                }
+                for (Role role : expected.getRoles()) {
+                    assertEquals(new HashSet<Move>(expected.getLegalMoves(expectedState, role)),
+                            new HashSet<Move>(actual.getLegalMoves(actualState, role)));
+                }
+                List<List<Move>> jointMoves = expected.getLegalJointMoves(expectedState);
+                List<Move> jointMove = jointMoves.get(random.nextInt(jointMoves.size()));
+                expectedState = expected.getNextState(expectedState, jointMove);
+                actualState = actual.getNextState(actualState, jointMove);
+            }
+        }
+    }
+}
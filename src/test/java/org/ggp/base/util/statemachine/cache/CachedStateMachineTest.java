@@ -0,0 +1,53 @@
+package org.ggp.base.util.statemachine.cache;
+
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.StateMachineLockstep;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for the memory-budget mode of CachedStateMachine and the
+ * TransitionSpillTable behind it.
+ */
+public class CachedStateMachineTest extends Assert {
+    @Test
+    public void testTinyBudgetPlaysTheSame() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        StateMachine uncached = new CompiledPropNetStateMachine();
+        uncached.initialize(rules);
+        // A few entries' worth, so entries are evicted and spilled all the time
+        CachedStateMachine cached = new CachedStateMachine(new CompiledPropNetStateMachine(), 4096, 1 << 20);
+        cached.initialize(rules);
+        StateMachineLockstep.check(uncached, cached, new Random(0), 20);
+        assertTrue(cached.getCacheStats(), cached.getCacheEvictions() > 0);
+    }
+
+    @Test
+    public void testSpillTableRoundTrip() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        StateMachine machine = new CompiledPropNetStateMachine();
+        machine.initialize(rules);
+        MachineState state = machine.getInitialState();
+        List<List<Move>> jointMoves = machine.getLegalJointMoves(state);
+        MachineState next = machine.getNextState(state, jointMoves.get(0));
+
+        TransitionSpillTable spill = new TransitionSpillTable(1 << 16);
+        assertNull(spill.get(state, jointMoves.get(0)));
+        spill.put(state, jointMoves.get(0), next);
+        assertEquals(next, spill.get(state, jointMoves.get(0)));
+        // Another state, or another joint move from the same state, misses
+        assertNull(spill.get(next, jointMoves.get(0)));
+        assertNull(spill.get(state, jointMoves.get(1)));
+
+        spill.clear();
+        assertNull(spill.get(state, jointMoves.get(0)));
+    }
+}
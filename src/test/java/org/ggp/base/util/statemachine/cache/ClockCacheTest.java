@@ -0,0 +1,97 @@
+package org.ggp.base.util.statemachine.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for the ClockCache class, the bounded concurrent cache behind
+ * CachedStateMachine.
+ */
+public class ClockCacheTest extends Assert {
+    @Test
+    public void testStaysWithinCapacity() {
+        ClockCache<Integer, Integer> cache = new ClockCache<Integer, Integer>(100);
+        for (int i = 0; i < 1000; i++) {
+            cache.computeIfAbsent(i, k -> k * k);
+        }
+        assertEquals(100, cache.size());
+        assertEquals(900, cache.getEvictions());
+        assertEquals(1000, cache.getMisses());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void testKeepsEntriesInUse() {
+        ClockCache<Integer, Integer> cache = new ClockCache<Integer, Integer>(10);
+        for (int i = 0; i < 1000; i++) {
+            // Entry 0 is used between every insertion, so it's never the
+            // one the hand finds unreferenced.
+            cache.computeIfAbsent(0, k -> k);
+            cache.computeIfAbsent(i + 1, k -> k);
+        }
+        assertEquals(Integer.valueOf(0), cache.get(0));
+        assertNull(cache.get(1));
+    }
+
+    @Test
+    public void testStaysWithinWeightBudget() {
+        final List<Integer> evicted = new ArrayList<Integer>();
+        ClockCache<Integer, int[]> cache = new ClockCache<Integer, int[]>(1000,
+                value -> value.length, (key, value) -> evicted.add(key));
+        for (int i = 0; i < 100; i++) {
+            cache.computeIfAbsent(i, k -> new int[k]);
+        }
+        assertTrue(cache.getWeight() <= 1000);
+        assertEquals(cache.getEvictions(), evicted.size());
+        long weight = 0;
+        for (int i = 0; i < 100; i++) {
+            int[] value = cache.get(i);
+            assertEquals(value == null, evicted.contains(i));
+            weight += (value == null) ? 0 : value.length;
+        }
+        assertEquals(weight, cache.getWeight());
+    }
+
+    @Test
+    public void testComputesEachValueOnce() throws Exception {
+        final ClockCache<Integer, Integer> cache = new ClockCache<Integer, Integer>(1000);
+        final AtomicInteger computations = new AtomicInteger();
+        // A failed assertion only ends its own thread, so it's handed back
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 500; i++) {
+                            int value = cache.computeIfAbsent(i, k -> {
+                                computations.incrementAndGet();
+                                return -k;
+                            });
+                            assertEquals(-i, value);
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(500, computations.get());
+        assertEquals(500, cache.size());
+        assertEquals(2000, cache.getHits() + cache.getMisses());
+    }
+}
@@ -0,0 +1,40 @@
+package org.ggp.base.util.statemachine.implementation.forwardchaining;
+
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.StateMachineLockstep;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ForwardChainingStateMachineTest extends Assert {
+
+    @Test
+    public void testMatchesProverOnTicTacToe() throws Exception {
+        checkAgainstProver("ticTacToe", 10);
+    }
+
+    @Test
+    public void testMatchesProverOnTestCases() throws Exception {
+        // test_case_5a is left out: its domains are infinite, so the
+        // sentence model can't be built for it.
+        for (String game : new String[] { "test_case_1a", "test_case_2a", "test_case_2c", "test_case_3b",
+                "test_case_3d", "test_case_4a", "test_case_5b", "test_case_5c", "test_clean_not_distinct" }) {
+            checkAgainstProver(game, 3);
+        }
+    }
+
+    private void checkAgainstProver(String gameName, int games) throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame(gameName).getRules();
+        // The AimaProver, so the new engine is checked against the reference one
+        StateMachine prover = new ProverStateMachine(false);
+        StateMachine chaining = new ForwardChainingStateMachine();
+        prover.initialize(rules);
+        chaining.initialize(rules);
+        StateMachineLockstep.check(prover, chaining, new Random(gameName.hashCode()), games);
+    }
+}
@@ -0,0 +1,124 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.FailsafeStateMachine;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.StateMachineLockstep;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompiledPropNetStateMachineTest extends Assert {
+
+    @Test
+    public void testMatchesProverOnTicTacToe() throws Exception {
+        checkAgainstProver(new CompiledPropNetStateMachine(), "ticTacToe", 20);
+    }
+
+    @Test
+    public void testMatchesProverOnConnectFour() throws Exception {
+        checkAgainstProver(new CompiledPropNetStateMachine(), "connectFour", 2);
+    }
+
+    @Test
+    public void testDifferentialMatchesProverOnTicTacToe() throws Exception {
+        checkAgainstProver(new DifferentialPropNetStateMachine(), "ticTacToe", 20);
+    }
+
+    @Test
+    public void testDifferentialMatchesProverOnConnectFour() throws Exception {
+        checkAgainstProver(new DifferentialPropNetStateMachine(), "connectFour", 2);
+    }
+
+    @Test
+    public void testGeneratedMatchesProverOnConnectFour() throws Exception {
+        GeneratedPropNetStateMachine generated = new GeneratedPropNetStateMachine();
+        checkAgainstProver(generated, "connectFour", 2);
+        assertTrue(generated.isGenerated());
+    }
+
+    @Test
+    public void testRolloutsEndInLegalOutcomes() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        for (StateMachine machine : new StateMachine[] { new CompiledPropNetStateMachine(), new DifferentialPropNetStateMachine() }) {
+            machine.initialize(rules);
+            int[] goals = new int[2];
+            for (int i = 0; i < 200; i++) {
+                int depth = machine.performRollout(machine.getInitialState(), goals);
+                assertTrue(depth >= 5 && depth <= 9);
+                assertEquals(100, goals[0] + goals[1]);
+                assertTrue(goals[0] == 0 || goals[0] == 50 || goals[0] == 100);
+            }
+            // Rollouts mustn't disturb the answers for ordinary queries.
+            MachineState initial = machine.getInitialState();
+            assertFalse(machine.isTerminal(initial));
+            assertEquals(9, machine.getLegalMoves(initial, machine.getRoles().get(0)).size());
+        }
+    }
+
+    @Test
+    public void testConcurrentMatchesProverAcrossThreads() throws Exception {
+        final List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        final StateMachine concurrent = new ConcurrentPropNetStateMachine();
+        concurrent.initialize(rules);
+        final Throwable[] failures = new Throwable[4];
+        Thread[] threads = new Thread[failures.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        StateMachine prover = new ProverStateMachine(false);
+                        prover.initialize(rules);
+                        StateMachineLockstep.check(prover, concurrent, new Random(index), 20);
+                    } catch (Throwable t) {
+                        failures[index] = t;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+            if (failures[i] != null) {
+                throw new AssertionError(failures[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testWorkerForGivesEachCallerItsOwnMachine() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        StateMachine[] machines = {
+                new ConcurrentPropNetStateMachine(),
+                new DifferentialPropNetStateMachine(),
+                new FailsafeStateMachine(new ConcurrentPropNetStateMachine()),
+        };
+        for (StateMachine machine : machines) {
+            machine.initialize(rules);
+            StateMachine first = ConcurrentPropNetStateMachine.workerFor(machine);
+            StateMachine second = ConcurrentPropNetStateMachine.workerFor(machine);
+            assertTrue(first instanceof CompiledPropNetStateMachine);
+            assertNotSame(machine, first);
+            assertNotSame(first, second);
+            assertEquals(machine.getInitialState(), first.getInitialState());
+        }
+        StateMachine prover = new ProverStateMachine(false);
+        assertSame(prover, ConcurrentPropNetStateMachine.workerFor(prover));
+    }
+
+    private void checkAgainstProver(StateMachine compiled, String gameName, int games) throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame(gameName).getRules();
+        // The AimaProver, so the propnet is checked against the reference engine
+        StateMachine prover = new ProverStateMachine(false);
+        prover.initialize(rules);
+        compiled.initialize(rules);
+        StateMachineLockstep.check(prover, compiled, new Random(gameName.hashCode()), games);
+    }
+}